@@ -36,6 +36,8 @@ public class GlobalVariables {
     // Switches - optional or required packs, chosen by the player, only one can be installed at a time
     public static Path hostContentModpackDir = hostModpackDir.resolve("main");
     public static Path hostModpackContentFile = hostModpackDir.resolve("automodpack-content.json");
+    public static Path hostModpackHashIndexFile = hostModpackDir.resolve("automodpack-hash-index.json");
+    public static Path hostChunkCacheDir = hostModpackDir.resolve("chunk-cache");
     public static Path serverConfigFile = automodpackDir.resolve("automodpack-server.json");
     public static Path serverCoreConfigFile = automodpackDir.resolve("automodpack-core.json");
     public static Path privateDir = automodpackDir.resolve(".private");
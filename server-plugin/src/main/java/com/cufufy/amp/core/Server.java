@@ -32,6 +32,8 @@ public class Server {
         modpackDir.toFile().mkdirs();
 
         hostModpackContentFile = modpackDir.resolve("automodpack-content.json");
+        hostModpackHashIndexFile = modpackDir.resolve("automodpack-hash-index.json");
+        hostChunkCacheDir = modpackDir.resolve("chunk-cache");
         serverConfigFile = modpackDir.resolve("automodpack-server.json");
         serverCoreConfigFile = modpackDir.resolve("automodpack-core.json");
 
@@ -60,7 +62,7 @@ public class Server {
         mainModpackDir.toFile().mkdirs();
 
         ModpackExecutor modpackExecutor = new ModpackExecutor();
-        ModpackContent modpackContent = new ModpackContent(serverConfig.modpackName, null, mainModpackDir, serverConfig.syncedFiles, serverConfig.allowEditsInFiles, serverConfig.forceCopyFilesToStandardLocation, modpackExecutor.getExecutor());
+        ModpackContent modpackContent = new ModpackContent(serverConfig.modpackName, null, mainModpackDir, serverConfig.syncedFiles, serverConfig.allowEditsInFiles, serverConfig.forceCopyFilesToStandardLocation, modpackExecutor.getScheduler());
         boolean generated = modpackExecutor.generateNew(modpackContent);
 
         if (generated) {
@@ -54,26 +54,27 @@ public class Secrets {
         if (!serverConfig.validateSecrets)
             return true;
 
+        long secretLifetime = serverConfig.secretLifetime * 3600; // in seconds
+        long currentTime = System.currentTimeMillis() / 1000;
+        SecretsStore.evictExpiredHostSecrets(currentTime - secretLifetime);
+
         var playerSecretPair = SecretsStore.getHostSecret(secretStr);
         if (playerSecretPair == null)
             return false;
 
         Secret secret = playerSecretPair.getValue();
-        if (secret == null)
-            return false;
-
-        String playerUuid = playerSecretPair.getKey();
-        if (!GAME_CALL.isPlayerAuthorized(address, playerUuid)) // check if associated player is still whitelisted
+        if (secret == null || secret.timestamp() == null)
             return false;
 
-        long secretLifetime = serverConfig.secretLifetime * 3600; // in seconds
-        long currentTime = System.currentTimeMillis() / 1000;
-
         boolean valid = secret.timestamp() + secretLifetime > currentTime;
 
         if (!valid)
             return false;
 
+        String playerUuid = playerSecretPair.getKey();
+        if (!GAME_CALL.isPlayerAuthorized(address, playerUuid)) // check if associated player is still whitelisted
+            return false;
+
         return true;
     }
 }
@@ -0,0 +1,200 @@
+package com.cufufy.amp.core.auth;
+
+import com.cufufy.amp.core.config.ConfigTools;
+import com.cufufy.amp.core.config.Jsons;
+import com.cufufy.amp.core.utils.CustomThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static com.cufufy.amp.core.GlobalVariables.LOGGER;
+
+/**
+ * Write-behind persistence of a secrets file.
+ * Saved secrets are appended as json lines to a journal next to the file by a background thread, so callers never wait for the disk.
+ * The journal is folded into the file once it holds {@link #COMPACT_AFTER} entries, and at least every {@link #COMPACT_INTERVAL_MINUTES} minutes;
+ * the folded content comes from the cache, which drops expired secrets first.
+ */
+class SecretsJournal {
+    static final int COMPACT_AFTER = 1024;
+    static final long COMPACT_INTERVAL_MINUTES = 60;
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+    private static final ScheduledThreadPoolExecutor WRITER = new ScheduledThreadPoolExecutor(1,
+            new CustomThreadFactoryBuilder().setNameFormat("AutoModpackSecretsWriter-%d").setDaemon(true).build());
+
+    static {
+        // a closed journal's compaction task would otherwise keep it reachable until the task was due
+        WRITER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final Path file;
+    private final Path journal;
+    private final Supplier<Jsons.SecretsFields> snapshot;
+    private final Queue<Grant> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledFuture<?> compaction;
+    private int journalEntries; // writer thread only
+
+    private static class Grant {
+        private String key;
+        private Secrets.Secret secret;
+
+        private Grant(String key, Secrets.Secret secret) {
+            this.key = key;
+            this.secret = secret;
+        }
+    }
+
+    /**
+     * @param file     the secrets file
+     * @param snapshot all secrets which should be in the file, called on the writer thread when compacting
+     */
+    SecretsJournal(Path file, Supplier<Jsons.SecretsFields> snapshot) {
+        this.file = file;
+        this.journal = file.resolveSibling(file.getFileName() + ".journal");
+        this.snapshot = snapshot;
+        this.compaction = WRITER.scheduleWithFixedDelay(this::compactIfDirty, COMPACT_INTERVAL_MINUTES, COMPACT_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Applies the journal to the secrets loaded from the file, the latest grant of a key wins.
+     */
+    void replay(Map<String, Secrets.Secret> secrets) {
+        if (!Files.isRegularFile(journal)) {
+            return;
+        }
+
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(journal);
+        } catch (IOException e) {
+            LOGGER.error("Couldn't read secrets journal {}", journal, e);
+            return;
+        }
+
+        int replayed = 0;
+        for (String line : lines) {
+            if (line.isBlank()) {
+                continue;
+            }
+
+            try {
+                Grant grant = GSON.fromJson(line, Grant.class);
+                if (grant != null && grant.key != null && grant.secret != null) {
+                    secrets.put(grant.key, grant.secret);
+                    replayed++;
+                }
+            } catch (JsonParseException e) {
+                // most likely the last line, cut off by a crash
+                LOGGER.warn("Skipping malformed secrets journal entry in {}", journal);
+            }
+        }
+
+        int entries = replayed;
+        WRITER.execute(() -> journalEntries += entries);
+    }
+
+    /**
+     * Queues the secret to be appended to the journal.
+     */
+    void append(String key, Secrets.Secret secret) {
+        pending.add(new Grant(key, secret));
+        if (flushScheduled.compareAndSet(false, true)) {
+            WRITER.execute(this::flushPending);
+        }
+    }
+
+    /**
+     * Waits until everything appended so far is written.
+     */
+    void flush() {
+        try {
+            WRITER.submit(this::flushPending).get(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            LOGGER.error("Couldn't flush secrets journal {}", journal, e);
+        }
+    }
+
+    /**
+     * Stops the periodic compaction and waits until everything appended so far is written.
+     * The journal is left as it is, it's replayed on the next load.
+     */
+    void close() {
+        compaction.cancel(false);
+        flush();
+    }
+
+    // Writes all the queued grants with a single append
+    private void flushPending() {
+        flushScheduled.set(false);
+        StringBuilder lines = new StringBuilder();
+        int count = 0;
+        Grant grant;
+        while ((grant = pending.poll()) != null) {
+            lines.append(GSON.toJson(grant)).append('\n');
+            count++;
+        }
+
+        if (count == 0) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(journal.getParent());
+            Files.writeString(journal, lines, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            journalEntries += count;
+        } catch (IOException e) {
+            LOGGER.error("Couldn't write secrets journal {}", journal, e);
+        }
+
+        if (journalEntries >= COMPACT_AFTER) {
+            compact();
+        }
+    }
+
+    private void compactIfDirty() {
+        if (journalEntries > 0) {
+            compact();
+        }
+    }
+
+    // Rewrites the file from the snapshot and empties the journal. Grants racing with the snapshot are still queued,
+    // so they are appended to the emptied journal again, replaying them twice is harmless.
+    private void compact() {
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(temp, ConfigTools.GSON.toJson(snapshot.get()));
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            Files.deleteIfExists(journal);
+            journalEntries = 0;
+        } catch (IOException e) {
+            LOGGER.error("Couldn't compact secrets journal into {}", file, e);
+        }
+    }
+}
@@ -5,33 +5,87 @@ import com.cufufy.amp.core.config.ConfigTools;
 import com.cufufy.amp.core.config.Jsons;
 
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.LongSupplier;
 
 public class SecretsStore {
-    private static class SecretsCache {
+    static class SecretsCache {
         private final ConcurrentMap<String, Secrets.Secret> cache;
-        private Jsons.SecretsFields db;
+        // secret -> key, secrets are looked up by the value clients send
+        private final ConcurrentMap<String, String> keysBySecret;
+        // oldest first, so expired secrets are evicted without scanning the rest
+        private final ConcurrentSkipListSet<Expiry> expiries;
+        private final SecretsJournal journal;
         private final Path configFile;
+        // seconds a secret is kept for, negative to keep them forever
+        private final LongSupplier lifetime;
+        private volatile boolean loaded;
+
+        private record Expiry(long timestamp, String key) implements Comparable<Expiry> {
+            private static final Expiry FIRST = new Expiry(Long.MIN_VALUE, "");
+
+            @Override
+            public int compareTo(Expiry other) {
+                int result = Long.compare(timestamp, other.timestamp);
+                return result != 0 ? result : key.compareTo(other.key);
+            }
+        }
 
         public SecretsCache(Path configFile) {
+            this(configFile, () -> -1);
+        }
+
+        public SecretsCache(Path configFile, LongSupplier lifetime) {
             this.configFile = configFile;
+            this.lifetime = lifetime;
             this.cache = new ConcurrentHashMap<>();
+            this.keysBySecret = new ConcurrentHashMap<>();
+            this.expiries = new ConcurrentSkipListSet<>();
+            this.journal = new SecretsJournal(configFile, this::snapshot);
         }
 
-        public synchronized void load() {
-            if (db != null)
+        public void load() {
+            if (loaded)
                 return;
-            db = ConfigTools.load(configFile, Jsons.SecretsFields.class);
-            if (db != null && db.secrets != null && !db.secrets.isEmpty()) {
-                cache.putAll(db.secrets);
+            synchronized (this) {
+                if (loaded)
+                    return;
+                Jsons.SecretsFields db = ConfigTools.load(configFile, Jsons.SecretsFields.class);
+                Map<String, Secrets.Secret> secrets = db == null || db.secrets == null ? new HashMap<>() : db.secrets;
+                journal.replay(secrets);
+                secrets.forEach(this::index);
+                loaded = true;
             }
         }
 
-        public synchronized void save() {
-            ConfigTools.save(configFile, db);
+        /**
+         * Waits until all saved secrets are written to the journal.
+         */
+        public void flush() {
+            journal.flush();
+        }
+
+        /**
+         * Writes all saved secrets to the journal and stops compacting it, the cache can't be used afterwards.
+         */
+        public void close() {
+            journal.close();
+        }
+
+        // Content of the compacted file, without the expired secrets
+        private Jsons.SecretsFields snapshot() {
+            long lifetimeSeconds = lifetime.getAsLong();
+            if (lifetimeSeconds >= 0)
+                evictIssuedBefore(System.currentTimeMillis() / 1000 - lifetimeSeconds);
+
+            Jsons.SecretsFields db = new Jsons.SecretsFields();
+            db.secrets.putAll(cache);
+            return db;
         }
 
         public Secrets.Secret get(String key) {
@@ -39,38 +93,95 @@ public class SecretsStore {
             return cache.get(key);
         }
 
-        public void save(String key, Secrets.Secret secret) throws IllegalArgumentException {
+        public Map.Entry<String, Secrets.Secret> getBySecret(String secret) {
+            load();
+            if (secret == null)
+                return null;
+            String key = keysBySecret.get(secret);
+            if (key == null)
+                return null;
+            Secrets.Secret value = cache.get(key);
+            if (value == null || !secret.equals(value.secret()))
+                return null; // replaced in the meantime
+            return Map.entry(key, value);
+        }
+
+        public synchronized void save(String key, Secrets.Secret secret) throws IllegalArgumentException {
             if (key == null || key.isBlank() || secret == null || secret.secret().isBlank())
                 throw new IllegalArgumentException("Key or secret cannot be null or blank");
             load();
-            cache.put(key, secret);
-            if (db == null) {
-                db = new Jsons.SecretsFields();
-            }
-            db.secrets.put(key, secret);
-            save();
+            index(key, secret);
+            journal.append(key, secret);
         }
-    }
 
-    private static final SecretsCache hostSecrets = new SecretsCache(GlobalVariables.serverSecretsFile);
-    private static final SecretsCache clientSecrets = new SecretsCache(GlobalVariables.clientSecretsFile);
+        /**
+         * Forgets secrets issued before the given timestamp, they are removed from the file with the next compaction.
+         */
+        public void evictIssuedBefore(long timestamp) {
+            load();
+            Expiry oldest = expiries.ceiling(Expiry.FIRST);
+            if (oldest == null || oldest.timestamp() >= timestamp)
+                return;
+
+            synchronized (this) {
+                Iterator<Expiry> iterator = expiries.iterator();
+                while (iterator.hasNext()) {
+                    Expiry expiry = iterator.next();
+                    if (expiry.timestamp() >= timestamp)
+                        break;
+                    iterator.remove();
+                    Secrets.Secret secret = cache.remove(expiry.key());
+                    if (secret != null && secret.secret() != null)
+                        keysBySecret.remove(secret.secret(), expiry.key());
+                }
+            }
+        }
 
-    public static Map.Entry<String, Secrets.Secret>  getHostSecret(String secret) {
-        hostSecrets.load();
-        for (var entry : hostSecrets.cache.entrySet()) {
-            var thisSecret = entry.getValue().secret();
-            if (Objects.equals(thisSecret, secret)) {
-                return entry;
+        // guarded by this, a key holds a single secret so the previous one is dropped from the indexes
+        private void index(String key, Secrets.Secret secret) {
+            Secrets.Secret previous = cache.put(key, secret);
+            if (previous != null) {
+                if (previous.secret() != null)
+                    keysBySecret.remove(previous.secret(), key);
+                expiries.remove(new Expiry(timestampOf(previous), key));
             }
+            if (secret.secret() != null)
+                keysBySecret.put(secret.secret(), key);
+            expiries.add(new Expiry(timestampOf(secret), key));
         }
 
-        return null;
+        private static long timestampOf(Secrets.Secret secret) {
+            return secret.timestamp() == null ? 0 : secret.timestamp();
+        }
+    }
+
+    private static final SecretsCache hostSecrets = new SecretsCache(GlobalVariables.serverSecretsFile,
+            () -> GlobalVariables.serverConfig == null ? -1 : GlobalVariables.serverConfig.secretLifetime * 3600);
+    private static final SecretsCache clientSecrets = new SecretsCache(GlobalVariables.clientSecretsFile);
+
+    public static Map.Entry<String, Secrets.Secret> getHostSecret(String secret) {
+        return hostSecrets.getBySecret(secret);
     }
 
     public static void saveHostSecret(String uuid, Secrets.Secret secret) {
         hostSecrets.save(uuid, secret);
     }
 
+    /**
+     * Forgets host secrets issued before the given unix timestamp in seconds.
+     */
+    public static void evictExpiredHostSecrets(long issuedBefore) {
+        hostSecrets.evictIssuedBefore(issuedBefore);
+    }
+
+    /**
+     * Waits until all saved secrets are written, e.g. before shutting down.
+     */
+    public static void flush() {
+        hostSecrets.flush();
+        clientSecrets.flush();
+    }
+
     public static Secrets.Secret getClientSecret(String modpack) {
         return clientSecrets.get(modpack);
     }
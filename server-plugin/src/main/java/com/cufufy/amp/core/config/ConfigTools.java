@@ -2,13 +2,25 @@
 package com.cufufy.amp.core.config;
 
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import com.cufufy.amp.core.utils.AddressHelpers;
 
 import java.lang.reflect.Type;
 import java.net.InetSocketAddress;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import static com.cufufy.amp.core.GlobalVariables.*;
 
@@ -123,25 +135,106 @@ public class ConfigTools {
 
 
     // Modpack content stuff
+    // The content file can hold thousands of items, so it is streamed in both directions instead of going through a String.
     public static Jsons.ModpackContentFields loadModpackContent(Path modpackContentFile) {
-        try {
-            if (Files.isRegularFile(modpackContentFile)) {
-                String json = Files.readString(modpackContentFile);
-                return GSON.fromJson(json, Jsons.ModpackContentFields.class);
+        Set<Jsons.ModpackContentFields.ModpackContentItem> items = new LinkedHashSet<>();
+        Jsons.ModpackContentFields modpackContent = readModpackContent(modpackContentFile, items::add);
+        if (modpackContent != null) {
+            modpackContent.list = items;
+        }
+        return modpackContent;
+    }
+
+    /**
+     * Reads the modpack content file, passing its items to the consumer one by one instead of collecting them.
+     *
+     * @return the other fields of the file, with an empty list, or null if the file doesn't exist or couldn't be read
+     */
+    public static Jsons.ModpackContentFields readModpackContent(Path modpackContentFile, Consumer<Jsons.ModpackContentFields.ModpackContentItem> itemConsumer) {
+        if (!Files.isRegularFile(modpackContentFile)) {
+            return null;
+        }
+
+        TypeAdapter<Jsons.ModpackContentFields.ModpackContentItem> itemAdapter = GSON.getAdapter(Jsons.ModpackContentFields.ModpackContentItem.class);
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(modpackContentFile))) {
+            reader.setLenient(true);
+            Jsons.ModpackContentFields modpackContent = new Jsons.ModpackContentFields();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                switch (name) {
+                    case "modpackName" -> modpackContent.modpackName = reader.nextString();
+                    case "automodpackVersion" -> modpackContent.automodpackVersion = reader.nextString();
+                    case "loader" -> modpackContent.loader = reader.nextString();
+                    case "loaderVersion" -> modpackContent.loaderVersion = reader.nextString();
+                    case "mcVersion" -> modpackContent.mcVersion = reader.nextString();
+                    case "list" -> {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            Jsons.ModpackContentFields.ModpackContentItem item = itemAdapter.read(reader);
+                            if (item != null) {
+                                itemConsumer.accept(item);
+                            }
+                        }
+                        reader.endArray();
+                    }
+                    default -> reader.skipValue();
+                }
             }
+            reader.endObject();
+            return modpackContent;
         } catch (Exception e) {
             LOGGER.error("Couldn't load modpack content! {}", modpackContentFile.toAbsolutePath().normalize(), e);
         }
         return null;
     }
 
+    /**
+     * Writes the modpack content as compact json to a temporary file which then replaces the content file,
+     * so the file is never seen half written. Items are ordered by their file, so the same content always gives the same bytes.
+     */
     public static void saveModpackContent(Path modpackContentFile, Jsons.ModpackContentFields configObject) {
         try {
             if (!Files.isDirectory(modpackContentFile.getParent())) {
                 Files.createDirectories(modpackContentFile.getParent());
             }
 
-            Files.writeString(modpackContentFile, GSON.toJson(configObject), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            Path temp = modpackContentFile.resolveSibling(modpackContentFile.getFileName() + ".tmp");
+            TypeAdapter<Jsons.ModpackContentFields.ModpackContentItem> itemAdapter = GSON.getAdapter(Jsons.ModpackContentFields.ModpackContentItem.class);
+            try {
+                try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(temp))) {
+                    writer.setSerializeNulls(false);
+                    writer.beginObject();
+                    // missing fields are read as empty strings, so a loaded content is saved as the same bytes
+                    writer.name("modpackName").value(Objects.requireNonNullElse(configObject.modpackName, ""));
+                    writer.name("automodpackVersion").value(Objects.requireNonNullElse(configObject.automodpackVersion, ""));
+                    writer.name("loader").value(Objects.requireNonNullElse(configObject.loader, ""));
+                    writer.name("loaderVersion").value(Objects.requireNonNullElse(configObject.loaderVersion, ""));
+                    writer.name("mcVersion").value(Objects.requireNonNullElse(configObject.mcVersion, ""));
+                    List<Jsons.ModpackContentFields.ModpackContentItem> items = new ArrayList<>(configObject.list);
+                    items.sort(Comparator.comparing(item -> item.file, Comparator.nullsFirst(Comparator.naturalOrder())));
+                    writer.name("list").beginArray();
+                    for (Jsons.ModpackContentFields.ModpackContentItem item : items) {
+                        itemAdapter.write(writer, item);
+                    }
+                    writer.endArray();
+                    writer.endObject();
+                }
+
+                try {
+                    Files.move(temp, modpackContentFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, modpackContentFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                // left behind only if writing or moving it failed
+                Files.deleteIfExists(temp);
+            }
         } catch (Exception e) {
             LOGGER.error("Couldn't save modpack content! " + configObject.getClass());
             e.printStackTrace();
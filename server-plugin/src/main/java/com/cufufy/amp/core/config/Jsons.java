@@ -2,11 +2,13 @@
 package com.cufufy.amp.core.config;
 
 import com.cufufy.amp.core.auth.Secrets;
+import com.cufufy.amp.core.loader.LoaderManagerService;
 
 import java.net.InetSocketAddress;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 @SuppressWarnings("unused")
@@ -109,6 +111,7 @@ public class Jsons {
         public boolean disableInternalTLS = false;
         public boolean updateIpsOnEveryStart = false;
         public int bandwidthLimit = 0;
+        public int zstdCompressionLevel = 3; // 1-22, higher is smaller but slower
         public boolean validateSecrets = true;
         public long secretLifetime = 336; // 336 hours = 14 days
         public boolean selfUpdater = false;
@@ -130,6 +133,51 @@ public class Jsons {
         public Map<String, String> hosts; // host, fingerprint
     }
 
+    public static class HashIndexFields {
+        public int DO_NOT_CHANGE_IT = 1; // file version
+        public Map<String, HashIndexEntry> entries = new HashMap<>(); // modpack file, entry
+
+        public static class HashIndexEntry {
+            // stat tuple, if any of these changes the entry is stale
+            public long size;
+            public long lastModified;
+            public String fileKey;
+            // cached results
+            public String sha1;
+            public String murmur;
+            public boolean mod;
+            public String modId;
+            public LoaderManagerService.EnvironmentType environment;
+            public List<ChunkFields> chunks;
+
+            public HashIndexEntry(long size, long lastModified, String fileKey) {
+                this.size = size;
+                this.lastModified = lastModified;
+                this.fileKey = fileKey;
+            }
+        }
+    }
+
+    public static class ChunkFields {
+        public String sha1;
+        public int length;
+
+        public ChunkFields(String sha1, int length) {
+            this.sha1 = sha1;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ChunkFields other && length == other.length && Objects.equals(sha1, other.sha1);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sha1, length);
+        }
+    }
+
     public static class ModpackContentFields {
         public String modpackName = "";
         public String automodpackVersion = "";
@@ -154,6 +202,7 @@ public class Jsons {
             public boolean forceCopy;
             public String sha1;
             public String murmur;
+            public List<ChunkFields> chunks; // only for big files, see ContentChunker
 
             public ModpackContentItem(String file, String size, String type, boolean editable, boolean forceCopy, String sha1, String murmur) {
                 this.file = file;
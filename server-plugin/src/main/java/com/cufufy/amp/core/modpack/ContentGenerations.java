@@ -0,0 +1,250 @@
+package com.cufufy.amp.core.modpack;
+
+import com.cufufy.amp.core.config.Jsons;
+import com.cufufy.amp.core.utils.HashKey;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The most recent saved versions of a modpack content, numbered by a generation counter and identified by the SHA-1
+ * of their content file, so a client holding one of them can be sent only what changed since.
+ */
+public class ContentGenerations {
+    public static final int CAPACITY = 16;
+
+    private final Deque<Generation> ring = new ArrayDeque<>(CAPACITY); // guarded by this, oldest first
+    private long counter;
+
+    private record Generation(long number, HashKey etag, Map<String, Jsons.ModpackContentFields.ModpackContentItem> items) { }
+
+    /**
+     * Records the content as the newest generation, unless it's the same as the current one.
+     * The oldest generation is forgotten once there are more than {@link #CAPACITY}.
+     *
+     * @param etag  the SHA-1 of the saved content file
+     * @param items the items of the content, they have to be left unchanged afterwards
+     * @return the number of the current generation
+     */
+    public synchronized long add(HashKey etag, Collection<Jsons.ModpackContentFields.ModpackContentItem> items) {
+        Generation latest = ring.peekLast();
+        if (latest != null && latest.etag().equals(etag)) {
+            return latest.number();
+        }
+
+        Map<String, Jsons.ModpackContentFields.ModpackContentItem> byFile = new HashMap<>(items.size() * 2);
+        for (Jsons.ModpackContentFields.ModpackContentItem item : items) {
+            byFile.put(item.file, item);
+        }
+
+        if (ring.size() == CAPACITY) {
+            ring.pollFirst();
+        }
+        ring.addLast(new Generation(++counter, etag, Collections.unmodifiableMap(byFile)));
+        return counter;
+    }
+
+    /**
+     * Computes what changed from the generation with the etag to the current one.
+     *
+     * @return the delta, or empty if the etag isn't one of the recent generations
+     */
+    public Optional<Delta> diffSince(HashKey etag) {
+        Generation from = null;
+        Generation to;
+        synchronized (this) {
+            to = ring.peekLast();
+            for (Generation generation : ring) {
+                if (generation.etag().equals(etag)) {
+                    from = generation; // the same content could come back, the latest one is the closest
+                }
+            }
+        }
+
+        if (from == null) {
+            return Optional.empty();
+        }
+
+        List<Jsons.ModpackContentFields.ModpackContentItem> changed = new ArrayList<>();
+        for (Jsons.ModpackContentFields.ModpackContentItem item : to.items().values()) {
+            Jsons.ModpackContentFields.ModpackContentItem previous = from.items().get(item.file);
+            if (previous == null || !sameContent(previous, item)) {
+                changed.add(item);
+            }
+        }
+
+        List<String> removed = new ArrayList<>();
+        for (String file : from.items().keySet()) {
+            if (!to.items().containsKey(file)) {
+                removed.add(file);
+            }
+        }
+
+        return Optional.of(new Delta(from.number(), to.number(), to.etag(), changed, removed));
+    }
+
+    private static boolean sameContent(Jsons.ModpackContentFields.ModpackContentItem a, Jsons.ModpackContentFields.ModpackContentItem b) {
+        return a.editable == b.editable && a.forceCopy == b.forceCopy
+                && Objects.equals(a.sha1, b.sha1) && Objects.equals(a.murmur, b.murmur)
+                && Objects.equals(a.size, b.size) && Objects.equals(a.type, b.type) && Objects.equals(a.chunks, b.chunks);
+    }
+
+    /**
+     * The items added or changed and the files removed between two generations.
+     * <p>
+     * Encoded as {@code [long: from][long: to][20 bytes: etag of to][int: changed count]} followed by each changed item
+     * as {@code [file][size][type][boolean: editable][boolean: forceCopy][sha1][murmur][int: chunk count, -1 for none]}
+     * with each chunk as {@code [sha1][int: length]},
+     * then {@code [int: removed count]} and each removed file. Strings are a presence boolean followed by the modified UTF-8 of the string.
+     */
+    public static class Delta {
+        private final long fromGeneration;
+        private final long toGeneration;
+        private final HashKey etag;
+        private final List<Jsons.ModpackContentFields.ModpackContentItem> changed;
+        private final List<String> removed;
+
+        public Delta(long fromGeneration, long toGeneration, HashKey etag, List<Jsons.ModpackContentFields.ModpackContentItem> changed, List<String> removed) {
+            this.fromGeneration = fromGeneration;
+            this.toGeneration = toGeneration;
+            this.etag = etag;
+            this.changed = changed;
+            this.removed = removed;
+        }
+
+        public long getFromGeneration() {
+            return fromGeneration;
+        }
+
+        public long getToGeneration() {
+            return toGeneration;
+        }
+
+        /**
+         * The SHA-1 of the content file of the newer generation.
+         */
+        public HashKey getEtag() {
+            return etag;
+        }
+
+        public List<Jsons.ModpackContentFields.ModpackContentItem> getChanged() {
+            return changed;
+        }
+
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * Applies the delta to the content of the older generation, keeping its other fields.
+         */
+        public Jsons.ModpackContentFields applyTo(Jsons.ModpackContentFields content) {
+            Map<String, Jsons.ModpackContentFields.ModpackContentItem> byFile = new LinkedHashMap<>();
+            for (Jsons.ModpackContentFields.ModpackContentItem item : content.list) {
+                byFile.put(item.file, item);
+            }
+            removed.forEach(byFile::remove);
+            changed.forEach(item -> byFile.put(item.file, item));
+
+            Jsons.ModpackContentFields updated = new Jsons.ModpackContentFields(new LinkedHashSet<>(byFile.values()));
+            updated.modpackName = content.modpackName;
+            updated.automodpackVersion = content.automodpackVersion;
+            updated.loader = content.loader;
+            updated.loaderVersion = content.loaderVersion;
+            updated.mcVersion = content.mcVersion;
+            return updated;
+        }
+
+        public byte[] encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(fromGeneration);
+            out.writeLong(toGeneration);
+            out.write(etag.toBytes());
+            out.writeInt(changed.size());
+            for (Jsons.ModpackContentFields.ModpackContentItem item : changed) {
+                writeString(out, item.file);
+                writeString(out, item.size);
+                writeString(out, item.type);
+                out.writeBoolean(item.editable);
+                out.writeBoolean(item.forceCopy);
+                writeString(out, item.sha1);
+                writeString(out, item.murmur);
+                out.writeInt(item.chunks == null ? -1 : item.chunks.size());
+                if (item.chunks != null) {
+                    for (Jsons.ChunkFields chunk : item.chunks) {
+                        writeString(out, chunk.sha1);
+                        out.writeInt(chunk.length);
+                    }
+                }
+            }
+            out.writeInt(removed.size());
+            for (String file : removed) {
+                writeString(out, file);
+            }
+            return bytes.toByteArray();
+        }
+
+        public static Delta decode(byte[] encoded) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+            long fromGeneration = in.readLong();
+            long toGeneration = in.readLong();
+            byte[] etag = new byte[HashKey.LENGTH];
+            in.readFully(etag);
+
+            int changedCount = in.readInt();
+            if (changedCount < 0 || changedCount > encoded.length) {
+                throw new IOException("Invalid count of changed items: " + changedCount);
+            }
+            List<Jsons.ModpackContentFields.ModpackContentItem> changed = new ArrayList<>(changedCount);
+            for (int i = 0; i < changedCount; i++) {
+                String file = readString(in);
+                String size = readString(in);
+                String type = readString(in);
+                boolean editable = in.readBoolean();
+                boolean forceCopy = in.readBoolean();
+                String sha1 = readString(in);
+                String murmur = readString(in);
+                var item = new Jsons.ModpackContentFields.ModpackContentItem(file, size, type, editable, forceCopy, sha1, murmur);
+
+                int chunkCount = in.readInt();
+                if (chunkCount < -1 || chunkCount > encoded.length) {
+                    throw new IOException("Invalid count of chunks: " + chunkCount);
+                }
+                if (chunkCount >= 0) {
+                    item.chunks = new ArrayList<>(chunkCount);
+                    for (int j = 0; j < chunkCount; j++) {
+                        item.chunks.add(new Jsons.ChunkFields(readString(in), in.readInt()));
+                    }
+                }
+                changed.add(item);
+            }
+
+            int removedCount = in.readInt();
+            if (removedCount < 0 || removedCount > encoded.length) {
+                throw new IOException("Invalid count of removed files: " + removedCount);
+            }
+            List<String> removed = new ArrayList<>(removedCount);
+            for (int i = 0; i < removedCount; i++) {
+                removed.add(readString(in));
+            }
+
+            return new Delta(fromGeneration, toGeneration, HashKey.fromWire(etag), changed, removed);
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+    }
+}
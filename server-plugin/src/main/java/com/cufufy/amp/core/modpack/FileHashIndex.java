@@ -0,0 +1,115 @@
+package com.cufufy.amp.core.modpack;
+
+import com.cufufy.amp.core.config.ConfigTools;
+import com.cufufy.amp.core.config.Jsons;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.cufufy.amp.core.GlobalVariables.LOGGER;
+
+/**
+ * Persistent index of already computed file hashes and inspection results.
+ * Entries are keyed by the modpack file path (content format) and are only reused while the
+ * (size, last modified time, file key) tuple of the file on disk stays the same,
+ * so that regenerating the modpack re-reads only the files that actually changed.
+ */
+public class FileHashIndex {
+    private static final int INDEX_VERSION = 1;
+    private final Path indexFile;
+    private final ConcurrentMap<String, Jsons.HashIndexFields.HashIndexEntry> entries = new ConcurrentHashMap<>();
+    private final Set<String> touched = ConcurrentHashMap.newKeySet();
+    private boolean loaded = false;
+
+    public FileHashIndex(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    public synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        Jsons.HashIndexFields db = ConfigTools.softLoad(indexFile, Jsons.HashIndexFields.class);
+        if (db == null || db.entries == null) {
+            return;
+        }
+
+        if (db.DO_NOT_CHANGE_IT != INDEX_VERSION) {
+            LOGGER.info("Hash index {} has outdated format, it will be rebuilt", indexFile.getFileName());
+            return;
+        }
+
+        db.entries.forEach((file, entry) -> {
+            if (file != null && entry != null) {
+                entries.put(file, entry);
+            }
+        });
+    }
+
+    public synchronized void save() {
+        if (!loaded) {
+            return;
+        }
+
+        Jsons.HashIndexFields db = new Jsons.HashIndexFields();
+        db.entries.putAll(entries);
+        ConfigTools.save(indexFile, db);
+    }
+
+    /**
+     * Returns the cached entry for the file, or null if there is none or the file changed since it was cached.
+     */
+    public Jsons.HashIndexFields.HashIndexEntry get(String modpackFile, BasicFileAttributes attributes) {
+        load();
+        touched.add(modpackFile);
+
+        Jsons.HashIndexFields.HashIndexEntry entry = entries.get(modpackFile);
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.size != attributes.size() || entry.lastModified != attributes.lastModifiedTime().toMillis() || !Objects.equals(entry.fileKey, fileKey(attributes))) {
+            return null;
+        }
+
+        return entry;
+    }
+
+    public static Jsons.HashIndexFields.HashIndexEntry newEntry(BasicFileAttributes attributes) {
+        return new Jsons.HashIndexFields.HashIndexEntry(attributes.size(), attributes.lastModifiedTime().toMillis(), fileKey(attributes));
+    }
+
+    // inode on unix like systems, null where the filesystem doesn't provide one
+    private static String fileKey(BasicFileAttributes attributes) {
+        return attributes.fileKey() == null ? null : attributes.fileKey().toString();
+    }
+
+    public void put(String modpackFile, Jsons.HashIndexFields.HashIndexEntry entry) {
+        load();
+        touched.add(modpackFile);
+        entries.put(modpackFile, entry);
+    }
+
+    public void remove(String modpackFile) {
+        entries.remove(modpackFile);
+        touched.remove(modpackFile);
+    }
+
+    /**
+     * Starts tracking which files are visited, so stale entries can be pruned with {@link #retainTouched()}.
+     */
+    public void beginGeneration() {
+        load();
+        touched.clear();
+    }
+
+    public void retainTouched() {
+        entries.keySet().retainAll(touched);
+    }
+}
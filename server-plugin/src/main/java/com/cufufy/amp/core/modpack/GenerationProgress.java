@@ -0,0 +1,96 @@
+package com.cufufy.amp.core.modpack;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.cufufy.amp.core.GlobalVariables.LOGGER;
+
+/**
+ * Progress and throughput of a modpack generation, updated by the workers as they finish files.
+ */
+public class GenerationProgress {
+    private static final int REPORT_STEPS = 10;
+
+    private final int totalFiles;
+    private final long totalBytes;
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger doneFiles = new AtomicInteger();
+    private final AtomicLong doneBytes = new AtomicLong();
+    private final AtomicInteger reportedStep = new AtomicInteger();
+    private volatile long endNanos = -1;
+
+    public GenerationProgress(int totalFiles, long totalBytes) {
+        this.totalFiles = totalFiles;
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Counts a finished file, logging the progress every tenth of the files.
+     */
+    public void fileDone(long size) {
+        int files = doneFiles.incrementAndGet();
+        doneBytes.addAndGet(size);
+
+        int step = (int) ((long) files * REPORT_STEPS / Math.max(1, totalFiles));
+        int reported = reportedStep.get();
+        if (step > reported && step < REPORT_STEPS && reportedStep.compareAndSet(reported, step)) {
+            LOGGER.info("Generating modpack: {}", this);
+        }
+    }
+
+    public void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    public boolean isFinished() {
+        return endNanos >= 0;
+    }
+
+    public int getTotalFiles() {
+        return totalFiles;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public int getDoneFiles() {
+        return doneFiles.get();
+    }
+
+    public long getDoneBytes() {
+        return doneBytes.get();
+    }
+
+    /**
+     * @return the finished part of the files, from 0 to 1
+     */
+    public double getFraction() {
+        return totalFiles == 0 ? 1 : (double) getDoneFiles() / totalFiles;
+    }
+
+    public Duration getElapsed() {
+        long end = endNanos;
+        return Duration.ofNanos((end >= 0 ? end : System.nanoTime()) - startNanos);
+    }
+
+    public double getFilesPerSecond() {
+        return getDoneFiles() / seconds();
+    }
+
+    public double getBytesPerSecond() {
+        return getDoneBytes() / seconds();
+    }
+
+    private double seconds() {
+        return Math.max(1, getElapsed().toNanos()) / 1_000_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d files (%.0f%%), %.1f/%.1f MiB in %d ms, %.0f files/s, %.1f MiB/s",
+                getDoneFiles(), totalFiles, getFraction() * 100, getDoneBytes() / 1048576.0, totalBytes / 1048576.0,
+                getElapsed().toMillis(), getFilesPerSecond(), getBytesPerSecond() / 1048576.0);
+    }
+}
@@ -0,0 +1,114 @@
+package com.cufufy.amp.core.modpack;
+
+import com.cufufy.amp.core.utils.AdaptiveReadLimiter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the modpack generation work on a work stealing pool of low priority daemon threads, sized to leave the server
+ * main thread a core of its own. File reads go through an {@link AdaptiveReadLimiter}, so only as many workers read
+ * at once as the disk serves well, while the others hash what was already read.
+ * Counts the queued and running work, which tells whether a generation is in progress.
+ */
+public class GenerationScheduler {
+    // Beyond that the workers mostly wait on the same disk
+    private static final int MAX_PARALLELISM = 16;
+
+    private final ForkJoinPool pool;
+    private final AdaptiveReadLimiter readLimiter;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    public GenerationScheduler() {
+        this(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, MAX_PARALLELISM)));
+    }
+
+    public GenerationScheduler(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism, new CreationThreadFactory(), null, false);
+        this.readLimiter = new AdaptiveReadLimiter(1, parallelism);
+    }
+
+    /**
+     * Runs the task in the pool and waits for its result, counting it as queued work meanwhile.
+     */
+    public <T> T invoke(ForkJoinTask<T> task) {
+        queueDepth.incrementAndGet();
+        try {
+            return pool.invoke(task);
+        } finally {
+            queueDepth.decrementAndGet();
+        }
+    }
+
+    /**
+     * Wraps the work of a single file into a task, counted as queued work from now until it's done.
+     * The task has to be forked or invoked.
+     */
+    public ForkJoinTask<?> newFileTask(Runnable work) {
+        queueDepth.incrementAndGet();
+        return ForkJoinTask.adapt(() -> {
+            try {
+                work.run();
+            } finally {
+                queueDepth.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Runs the work of a single file asynchronously.
+     */
+    public CompletableFuture<Void> runAsync(Runnable work) {
+        queueDepth.incrementAndGet();
+        try {
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    work.run();
+                } finally {
+                    queueDepth.decrementAndGet();
+                }
+            }, pool);
+        } catch (RejectedExecutionException e) {
+            queueDepth.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * @return how many generation tasks are queued or running
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public AdaptiveReadLimiter getReadLimiter() {
+        return readLimiter;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    // Named like the other pools. Unlike the default factory it keeps the context class loader of the creating thread,
+    // which is the plugin's one, not the system one. The priority is only a hint, most platforms ignore it by default
+    private static class CreationThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) { };
+            thread.setName("AutoModpackCreation-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+}
@@ -5,27 +5,36 @@ import com.cufufy.amp.core.config.Jsons;
 import com.cufufy.amp.core.loader.LoaderManagerService;
 import com.cufufy.amp.core.utils.*;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import static com.cufufy.amp.core.GlobalVariables.*;
 import static com.cufufy.amp.core.GlobalVariables.LOGGER;
 
 public class ModpackContent {
     public final Set<Jsons.ModpackContentFields.ModpackContentItem> list = Collections.synchronizedSet(new HashSet<>());
-    public final ObservableMap<String, Path> pathsMap = new ObservableMap<>();
+    public final ObservableMap<HashKey, Path> pathsMap = new ObservableMap<>();
     private final String MODPACK_NAME;
     private final WildCards SYNCED_FILES_CARDS;
     private final WildCards EDITABLE_CARDS;
     private final WildCards FORCE_COPY_FILES_TO_STANDARD_LOCATION;
     private final Path MODPACK_DIR;
-    private final ThreadPoolExecutor CREATION_EXECUTOR;
+    private final GenerationScheduler CREATION_SCHEDULER;
     private final Map<String, String> sha1MurmurMapPreviousContent = new HashMap<>();
+    private final FileHashIndex hashIndex = new FileHashIndex(hostModpackHashIndexFile);
+    private ContentGenerations generations = new ContentGenerations();
+    private volatile GenerationProgress progress;
 
-    public ModpackContent(String modpackName, Path cwd, Path modpackDir, List<String> syncedFiles, List<String> allowEditsInFiles, List<String> forceCopyFilesToStandardLocation, ThreadPoolExecutor CREATION_EXECUTOR) {
+    public ModpackContent(String modpackName, Path cwd, Path modpackDir, List<String> syncedFiles, List<String> allowEditsInFiles, List<String> forceCopyFilesToStandardLocation, GenerationScheduler CREATION_SCHEDULER) {
         this.MODPACK_NAME = modpackName;
         this.MODPACK_DIR = modpackDir;
         Set<Path> directoriesToSearch = new HashSet<>(2);
@@ -38,13 +47,24 @@ public class ModpackContent {
         }
         this.EDITABLE_CARDS = new WildCards(allowEditsInFiles, directoriesToSearch);
         this.FORCE_COPY_FILES_TO_STANDARD_LOCATION = new WildCards(forceCopyFilesToStandardLocation, directoriesToSearch);
-        this.CREATION_EXECUTOR = CREATION_EXECUTOR;
+        this.CREATION_SCHEDULER = CREATION_SCHEDULER;
     }
 
     public String getModpackName() {
         return MODPACK_NAME;
     }
 
+    public ContentGenerations getGenerations() {
+        return generations;
+    }
+
+    /**
+     * Continues the generations of the content this one replaces, so clients holding one of its recent versions still get deltas.
+     */
+    public void continueGenerations(ModpackContent previous) {
+        this.generations = previous.generations;
+    }
+
     public boolean create() {
         try {
             SYNCED_FILES_CARDS.match();
@@ -54,28 +74,20 @@ public class ModpackContent {
 
             pathsMap.clear();
             sha1MurmurMapPreviousContent.clear();
-            getPreviousContent().ifPresent(previousContent -> previousContent.list.forEach(item -> sha1MurmurMapPreviousContent.put(item.sha1, item.murmur)));
-
-            List<CompletableFuture<Void>> creationFutures = Collections.synchronizedList(new ArrayList<>());
+            ModpackContentTools.getModpackContentFile(MODPACK_DIR).ifPresent(file -> ConfigTools.readModpackContent(file, item -> sha1MurmurMapPreviousContent.put(item.sha1, item.murmur)));
+            hashIndex.beginGeneration();
 
-            // host-modpack generation
+            // host-modpack and synced files in one pass
+            List<SizedFile> files = new ArrayList<>();
             if (MODPACK_DIR != null) {
                 LOGGER.info("Syncing {}...", MODPACK_DIR.getFileName());
-                try (var pathStream = Files.walk(MODPACK_DIR)) {
-                    creationFutures.addAll(generateAsync(pathStream.toList()));
-
-                    // Wait till finish
-                    creationFutures.forEach((CompletableFuture::join));
-                    creationFutures.clear();
-                }
+                files.addAll(CREATION_SCHEDULER.invoke(new WalkTask(MODPACK_DIR)));
+            }
+            for (Path file : SYNCED_FILES_CARDS.getWildcardMatches().values()) {
+                files.add(new SizedFile(file, Files.isRegularFile(file) ? Files.size(file) : 0));
             }
 
-            // synced files generation
-            creationFutures.addAll(generateAsync(SYNCED_FILES_CARDS.getWildcardMatches().values().stream().toList()));
-
-            // Wait till finish
-            creationFutures.forEach((CompletableFuture::join));
-            creationFutures.clear();
+            generateAll(files);
 
             if (list.isEmpty()) {
                 LOGGER.warn("Modpack is empty!");
@@ -86,6 +98,9 @@ public class ModpackContent {
             Set<String> dupeSet = new HashSet<>();
             list.removeIf(item -> !dupeSet.add(item.file));
 
+            // Forget files which are no longer there
+            hashIndex.retainTouched();
+
         } catch (Exception e) {
             LOGGER.error("Error while generating modpack!", e);
             return false;
@@ -94,6 +109,7 @@ public class ModpackContent {
         saveModpackContent();
         if (hostServer != null) {
             hostServer.addPaths(pathsMap);
+            hostServer.pruneChunkCache();
         }
 
         return true;
@@ -121,7 +137,11 @@ public class ModpackContent {
                     continue;
                 }
 
-                pathsMap.put(modpackContentItem.sha1, file);
+                try {
+                    pathsMap.put(HashKey.fromHex(modpackContentItem.sha1), file);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warn("File {} has an invalid sha1 {}!", file, modpackContentItem.sha1);
+                }
             }
         }
 
@@ -137,28 +157,98 @@ public class ModpackContent {
 
     // This is important to make it synchronized otherwise it could corrupt the file and crash
     public synchronized void saveModpackContent() {
+        // snapshot the items, so they can change while the file is written
+        Set<Jsons.ModpackContentFields.ModpackContentItem> items;
         synchronized (list) {
-            Jsons.ModpackContentFields modpackContent = new Jsons.ModpackContentFields(list);
+            items = new HashSet<>(list);
+        }
+
+        Jsons.ModpackContentFields modpackContent = new Jsons.ModpackContentFields(items);
 
-            modpackContent.automodpackVersion = AM_VERSION;
-            modpackContent.mcVersion = MC_VERSION;
-            modpackContent.loaderVersion = LOADER_VERSION;
-            modpackContent.loader = LOADER;
-            modpackContent.modpackName = MODPACK_NAME;
+        modpackContent.automodpackVersion = AM_VERSION;
+        modpackContent.mcVersion = MC_VERSION;
+        modpackContent.loaderVersion = LOADER_VERSION;
+        modpackContent.loader = LOADER;
+        modpackContent.modpackName = MODPACK_NAME;
 
-            ConfigTools.saveModpackContent(hostModpackContentFile, modpackContent);
+        ConfigTools.saveModpackContent(hostModpackContentFile, modpackContent);
+        String sha1 = CustomFileUtils.getHash(hostModpackContentFile);
+        if (sha1 != null) {
+            generations.add(HashKey.fromHex(sha1), items);
+        }
+        if (hostServer != null) {
+            hostServer.setContentChunks(ContentChunker.index(items));
+            hostServer.getManifestCache().invalidate();
         }
+
+        hashIndex.save();
     }
 
-    // For every 6 files we generate content in parallel
-    private List<CompletableFuture<Void>> generateAsync(List<Path> files) {
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
-        for (int i = 0; i < files.size(); i += 6) {
-            List<Path> subList = files.subList(i, Math.min(files.size(), i + 6));
-            futures.add(CompletableFuture.runAsync(() -> subList.forEach(this::generate), CREATION_EXECUTOR));
+    public Optional<GenerationProgress> getProgress() {
+        return Optional.ofNullable(progress);
+    }
+
+    private record SizedFile(Path path, long size) { }
+
+    // Generates every file as its own task, largest first, so a big file found last doesn't keep the other workers waiting at the end
+    private void generateAll(List<SizedFile> files) {
+        files.sort(Comparator.comparingLong(SizedFile::size).reversed());
+        long totalBytes = 0;
+        for (SizedFile file : files) {
+            totalBytes += file.size();
         }
 
-        return futures;
+        GenerationProgress progress = new GenerationProgress(files.size(), totalBytes);
+        this.progress = progress;
+        CREATION_SCHEDULER.invoke(ForkJoinTask.adapt(() -> {
+            // idle workers steal from the other end of the queue, which holds the largest files
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(files.size());
+            for (SizedFile file : files) {
+                tasks.add(CREATION_SCHEDULER.newFileTask(() -> {
+                    generate(file.path());
+                    progress.fileDone(file.size());
+                }).fork());
+            }
+            for (int i = tasks.size() - 1; i >= 0; i--) {
+                tasks.get(i).join();
+            }
+        }));
+        progress.finish();
+        LOGGER.info("Generated modpack content: {}", progress);
+    }
+
+    // Lists the regular files under the directory, walking sub-directories in parallel. Symbolic links are not followed.
+    private static class WalkTask extends RecursiveTask<List<SizedFile>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+
+        private WalkTask(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected List<SizedFile> compute() {
+            List<SizedFile> files = new ArrayList<>();
+            List<WalkTask> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        subdirectories.add(new WalkTask(entry));
+                    } else {
+                        files.add(new SizedFile(entry, attributes.size()));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            for (WalkTask subdirectory : invokeAll(subdirectories)) {
+                files.addAll(subdirectory.join());
+            }
+            return files;
+        }
     }
 
     private void generate(Path file) {
@@ -169,7 +259,7 @@ public class ModpackContent {
                 synchronized (list) {
                     list.add(item);
                 }
-                pathsMap.put(item.sha1, file);
+                pathsMap.put(HashKey.fromHex(item.sha1), file);
             }
         } catch (Exception e) {
             LOGGER.error("Error while generating content for: " + file + " generated from: " + MODPACK_DIR, e);
@@ -177,12 +267,69 @@ public class ModpackContent {
     }
 
     public CompletableFuture<Void> replaceAsync(Path file) {
-        return CompletableFuture.runAsync(() -> replace(file), CREATION_EXECUTOR);
+        return CREATION_SCHEDULER.runAsync(() -> replace(file));
+    }
+
+    /**
+     * Applies changes of single files to this content without regenerating the whole modpack.
+     * Only the changed files are read, everything else is kept as is.
+     *
+     * @param changedFiles files which were added or modified
+     * @param removedFiles files which were deleted
+     */
+    public void applyChanges(Collection<Path> changedFiles, Collection<Path> removedFiles) {
+        removedFiles.forEach(this::remove);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Path file : changedFiles) {
+            futures.add(replaceAsync(file));
+        }
+        futures.forEach(CompletableFuture::join);
+
+        saveModpackContent();
+        if (hostServer != null) {
+            hostServer.pruneChunkCache();
+        }
     }
 
+    // New content is generated before the old one is dropped, so the file is always resolvable by one of its hashes
     public void replace(Path file) {
-        remove(file);
-        generate(file);
+        String modpackFile = CustomFileUtils.formatPath(file, MODPACK_DIR);
+
+        Jsons.ModpackContentFields.ModpackContentItem newItem = null;
+        try {
+            newItem = generateContent(file);
+        } catch (Exception e) {
+            LOGGER.error("Error while generating content for: " + file + " generated from: " + MODPACK_DIR, e);
+        }
+
+        synchronized (list) {
+            Jsons.ModpackContentFields.ModpackContentItem oldItem = null;
+            for (Jsons.ModpackContentFields.ModpackContentItem item : this.list) {
+                if (item.file.equals(modpackFile)) {
+                    oldItem = item;
+                    break;
+                }
+            }
+
+            if (newItem != null) {
+                this.list.add(newItem);
+                this.pathsMap.put(HashKey.fromHex(newItem.sha1), file);
+                LOGGER.info("generated content for {}", newItem.file);
+            } else if (!Files.exists(file)) {
+                this.hashIndex.remove(modpackFile);
+            }
+
+            if (oldItem != null) {
+                this.list.remove(oldItem);
+                if (newItem == null || !oldItem.sha1.equals(newItem.sha1)) {
+                    this.pathsMap.remove(HashKey.fromHex(oldItem.sha1));
+                }
+                if (newItem == null) {
+                    LOGGER.info("Removed content for {}", modpackFile);
+                }
+            }
+        }
     }
 
     public void remove(Path file) {
@@ -192,7 +339,8 @@ public class ModpackContent {
         synchronized (list) {
             for (Jsons.ModpackContentFields.ModpackContentItem item : this.list) {
                 if (item.file.equals(modpackFile)) {
-                    this.pathsMap.remove(item.sha1);
+                    this.hashIndex.remove(modpackFile);
+                    this.pathsMap.remove(HashKey.fromHex(item.sha1));
                     this.list.remove(item);
                     LOGGER.info("Removed content for {}", modpackFile);
                     break;
@@ -210,6 +358,10 @@ public class ModpackContent {
             return true;
         }
 
+        if (!isInner && normalizedFilePath.equals(hostModpackHashIndexFile.toAbsolutePath().normalize())) {
+            return true;
+        }
+
         return isInner;
     }
 
@@ -232,7 +384,8 @@ public class ModpackContent {
             return null;
         }
 
-        final String size = String.valueOf(Files.size(file));
+        final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        final String size = String.valueOf(attributes.size());
 
         if (serverConfig.autoExcludeUnnecessaryFiles) {
             if (size.equals("0")) {
@@ -261,16 +414,28 @@ public class ModpackContent {
             }
         }
 
+        // Reuse hashes and mod metadata if the file did not change since last generation
+        Jsons.HashIndexFields.HashIndexEntry indexEntry = hashIndex.get(formattedFile, attributes);
+        if (indexEntry == null) {
+            indexEntry = FileHashIndex.newEntry(attributes);
+            indexEntry.mod = FileInspection.isMod(file);
+            if (indexEntry.mod) {
+                indexEntry.modId = FileInspection.getModID(file);
+                indexEntry.environment = FileInspection.getModEnvironment(file);
+            }
+            hashIndex.put(formattedFile, indexEntry);
+        }
+
         String type;
 
-        if (FileInspection.isMod(file)) {
+        if (indexEntry.mod) {
             type = "mod";
-            if (serverConfig.autoExcludeServerSideMods && Objects.equals(FileInspection.getModEnvironment(file), LoaderManagerService.EnvironmentType.SERVER)) {
+            if (serverConfig.autoExcludeServerSideMods && Objects.equals(indexEntry.environment, LoaderManagerService.EnvironmentType.SERVER)) {
                 LOGGER.info("File {} is server mod! Skipping...", formattedFile);
                 return null;
             }
             // Exclude AutoModpack itself
-            var modId = FileInspection.getModID(file);
+            var modId = indexEntry.modId;
             if ((MOD_ID + "_bootstrap").equals(modId) || (MOD_ID + "-bootstrap").equals(modId) || MOD_ID.equals(modId)) {
                 return null;
             }
@@ -286,18 +451,33 @@ public class ModpackContent {
             type = "other";
         }
 
-        String sha1 = CustomFileUtils.getHash(file);
-
         // For CF API
-        String murmur = null;
-        if (type.equals("mod") || type.equals("shader") || type.equals("resourcepack")) {
+        boolean needsMurmur = type.equals("mod") || type.equals("shader") || type.equals("resourcepack");
+        if (needsMurmur && indexEntry.murmur == null && indexEntry.sha1 != null) {
             // get murmur hash from previousContent.list of item with same sha1
-            murmur = sha1MurmurMapPreviousContent.get(sha1);
-            if (murmur == null) {
-                murmur = CustomFileUtils.getCurseforgeMurmurHash(file);
+            indexEntry.murmur = sha1MurmurMapPreviousContent.get(indexEntry.sha1);
+        }
+
+        // Big files are also cut into chunks, so clients holding an older version download only the changed parts
+        boolean needsChunks = attributes.size() >= ContentChunker.MIN_FILE_SIZE;
+
+        // Compute whatever is still missing with a single read of the file
+        if (indexEntry.sha1 == null || (needsMurmur && indexEntry.murmur == null) || (needsChunks && indexEntry.chunks == null)) {
+            FileHasher.Hashes hashes = FileHasher.hash(file, indexEntry.sha1 == null, needsMurmur && indexEntry.murmur == null, needsChunks && indexEntry.chunks == null, CREATION_SCHEDULER.getReadLimiter());
+            if (hashes.sha1() != null) {
+                indexEntry.sha1 = hashes.sha1();
+            }
+            if (hashes.murmur() != null) {
+                indexEntry.murmur = hashes.murmur();
+            }
+            if (hashes.chunks() != null) {
+                indexEntry.chunks = ContentChunker.toFields(hashes.chunks());
             }
         }
 
+        String sha1 = indexEntry.sha1;
+        String murmur = needsMurmur ? indexEntry.murmur : null;
+
         boolean isEditable = false;
         if (EDITABLE_CARDS.fileMatches(formattedFile, file)) {
             isEditable = true;
@@ -310,7 +490,9 @@ public class ModpackContent {
             LOGGER.info("File {} is forced to copy to standard location!", formattedFile);
         }
 
-        return new Jsons.ModpackContentFields.ModpackContentItem(formattedFile, size, type, isEditable, forcedToCopy, sha1, murmur);
+        var item = new Jsons.ModpackContentFields.ModpackContentItem(formattedFile, size, type, isEditable, forcedToCopy, sha1, murmur);
+        item.chunks = needsChunks ? indexEntry.chunks : null;
+        return item;
 
     }
 }
\ No newline at end of file
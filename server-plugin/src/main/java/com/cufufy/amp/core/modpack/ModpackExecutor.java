@@ -1,25 +1,34 @@
 package com.cufufy.amp.core.modpack;
 
-import com.cufufy.amp.core.utils.*;
+import com.cufufy.amp.core.utils.CustomThreadFactoryBuilder;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Predicate;
 
 import static com.cufufy.amp.core.GlobalVariables.*;
 
 public class ModpackExecutor {
-    private final ThreadPoolExecutor CREATION_EXECUTOR = (ThreadPoolExecutor) Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() * 2), new CustomThreadFactoryBuilder().setNameFormat("AutoModpackCreation-%d").build());
+    private final GenerationScheduler CREATION_SCHEDULER = new GenerationScheduler();
+    // Applies the changes of callers which must not block, like the netty event loop
+    private final ExecutorService UPDATE_EXECUTOR = Executors.newSingleThreadExecutor(
+            new CustomThreadFactoryBuilder().setNameFormat("AutoModpackUpdate-%d").setDaemon(true).build());
     public final Map<String, ModpackContent> modpacks = Collections.synchronizedMap(new HashMap<>());
 
-    private ModpackContent init() {
-        if (isGenerating()) {
-            LOGGER.error("Called generate() twice!");
-            return null;
-        }
+    // Changes which came in while a generation was running, applied once it's done. All guarded by PENDING_LOCK
+    private final Object PENDING_LOCK = new Object();
+    private final Set<Path> pendingChanged = new LinkedHashSet<>();
+    private final Set<Path> pendingRemoved = new LinkedHashSet<>();
+    private final List<CompletableFuture<Boolean>> pendingApplied = new ArrayList<>();
+    private boolean generating;
 
+    private ModpackContent init() {
         try {
             if (!Files.exists(hostContentModpackDir)) {
                 Files.createDirectories(hostContentModpackDir);
@@ -33,43 +42,197 @@ public class ModpackExecutor {
         }
 
         Path cwd = Path.of(System.getProperty("user.dir"));
-        return new ModpackContent(serverConfig.modpackName, cwd, hostContentModpackDir, serverConfig.syncedFiles, serverConfig.allowEditsInFiles, serverConfig.forceCopyFilesToStandardLocation, CREATION_EXECUTOR);
+        return new ModpackContent(serverConfig.modpackName, cwd, hostContentModpackDir, serverConfig.syncedFiles, serverConfig.allowEditsInFiles, serverConfig.forceCopyFilesToStandardLocation, CREATION_SCHEDULER);
     }
 
     public boolean generateNew(ModpackContent content) {
         if (content == null) return false;
-        boolean generated = content.create();
-        modpacks.put(content.getModpackName(), content);
-        return generated;
+        if (!begin()) return false;
+        try {
+            return register(content, ModpackContent::create);
+        } finally {
+            finish();
+        }
     }
 
     public boolean generateNew() {
-        ModpackContent content = init();
-        if (content == null) return false;
-        boolean generated = content.create();
-        modpacks.put(content.getModpackName(), content);
-        return generated;
+        if (!begin()) return false;
+        try {
+            return register(init(), ModpackContent::create);
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * Updates the currently hosted modpack with the changed files only, falls back to full generation if there is no modpack yet.
+     * While a generation is running the changes are queued and applied to its content once it's registered.
+     */
+    public boolean applyChanges(Collection<Path> changedFiles, Collection<Path> removedFiles) {
+        ModpackContent content;
+        synchronized (PENDING_LOCK) {
+            if (generating) {
+                queue(changedFiles, removedFiles);
+                LOGGER.info("Generation in progress, queued changes of {} files", changedFiles.size() + removedFiles.size());
+                return true;
+            }
+            generating = true;
+            content = modpacks.get(serverConfig.modpackName);
+        }
+
+        try {
+            if (content == null) {
+                return register(init(), ModpackContent::create);
+            }
+
+            content.applyChanges(changedFiles, removedFiles);
+            return true;
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * Like {@link #applyChanges}, but returns at once. The changes are always queued, and applied to the hosted modpack
+     * after the running generation or update, or on an own thread if none runs.
+     *
+     * @return completed once the changes are applied, with false if there was no modpack to apply them to or applying them failed
+     */
+    public CompletableFuture<Boolean> applyChangesAsync(Collection<Path> changedFiles, Collection<Path> removedFiles) {
+        CompletableFuture<Boolean> applied = new CompletableFuture<>();
+        boolean idle;
+        synchronized (PENDING_LOCK) {
+            queue(changedFiles, removedFiles);
+            pendingApplied.add(applied);
+            idle = !generating;
+            generating = true;
+        }
+
+        if (idle) {
+            try {
+                UPDATE_EXECUTOR.execute(this::finish);
+            } catch (RejectedExecutionException e) {
+                finish(); // stopped, apply them here
+            }
+        }
+        return applied;
     }
 
     public boolean loadLast() {
-        ModpackContent content = init();
-        if (content == null) return false;
-        boolean generated = content.loadPreviousContent();
+        if (!begin()) return false;
+        try {
+            return register(init(), ModpackContent::loadPreviousContent);
+        } finally {
+            finish();
+        }
+    }
+
+    private boolean register(ModpackContent content, Predicate<ModpackContent> generation) {
+        continueGenerations(content);
+        boolean generated = generation.test(content);
         modpacks.put(content.getModpackName(), content);
         return generated;
     }
 
+    // Only one generation or update of the content runs at a time
+    private boolean begin() {
+        synchronized (PENDING_LOCK) {
+            if (generating) {
+                LOGGER.error("Called generate() twice!");
+                return false;
+            }
+            generating = true;
+            return true;
+        }
+    }
+
+    // Applies the changes queued meanwhile to the registered content, then lets the next generation begin
+    private void finish() {
+        while (true) {
+            List<Path> changedFiles;
+            List<Path> removedFiles;
+            List<CompletableFuture<Boolean>> applied;
+            synchronized (PENDING_LOCK) {
+                if (pendingChanged.isEmpty() && pendingRemoved.isEmpty() && pendingApplied.isEmpty()) {
+                    generating = false;
+                    return;
+                }
+                changedFiles = new ArrayList<>(pendingChanged);
+                removedFiles = new ArrayList<>(pendingRemoved);
+                applied = new ArrayList<>(pendingApplied);
+                pendingChanged.clear();
+                pendingRemoved.clear();
+                pendingApplied.clear();
+            }
+
+            boolean success = false;
+            ModpackContent content = modpacks.get(serverConfig.modpackName);
+            if (content == null) {
+                LOGGER.warn("No modpack content to apply changes of {} files to", changedFiles.size() + removedFiles.size());
+            } else {
+                try {
+                    content.applyChanges(changedFiles, removedFiles);
+                    success = true;
+                } catch (Exception e) {
+                    LOGGER.error("Error while applying queued changes", e);
+                }
+            }
+            for (CompletableFuture<Boolean> future : applied) {
+                future.complete(success);
+            }
+        }
+    }
+
+    // The latest change of a file wins
+    private void queue(Collection<Path> changedFiles, Collection<Path> removedFiles) {
+        for (Path file : removedFiles) {
+            pendingChanged.remove(file);
+            pendingRemoved.add(file);
+        }
+        for (Path file : changedFiles) {
+            pendingRemoved.remove(file);
+            pendingChanged.add(file);
+        }
+    }
+
+    // The replaced content of the same modpack hands over its generations
+    private void continueGenerations(ModpackContent content) {
+        ModpackContent previous = modpacks.get(content.getModpackName());
+        if (previous != null) {
+            content.continueGenerations(previous);
+        }
+    }
+
     public boolean isGenerating() {
-        int activeCount = CREATION_EXECUTOR.getActiveCount();
-        int queueSize = CREATION_EXECUTOR.getQueue().size();
-        return activeCount > 0 || queueSize > 0;
+        synchronized (PENDING_LOCK) {
+            if (generating) {
+                return true;
+            }
+        }
+        return getQueueDepth() > 0;
+    }
+
+    /**
+     * @return how many files are waiting for or in generation
+     */
+    public int getQueueDepth() {
+        return CREATION_SCHEDULER.getQueueDepth();
+    }
+
+    /**
+     * @return the progress of the latest generation of the hosted modpack, empty if it wasn't generated yet
+     */
+    public Optional<GenerationProgress> getProgress() {
+        ModpackContent content = modpacks.get(serverConfig.modpackName);
+        return content == null ? Optional.empty() : content.getProgress();
     }
 
-    public ThreadPoolExecutor getExecutor() {
-        return CREATION_EXECUTOR;
+    public GenerationScheduler getScheduler() {
+        return CREATION_SCHEDULER;
     }
 
     public void stop() {
-        CREATION_EXECUTOR.shutdown();
+        UPDATE_EXECUTOR.shutdown();
+        CREATION_SCHEDULER.shutdown();
     }
-}
\ No newline at end of file
+}
@@ -5,35 +5,95 @@ import static com.cufufy.amp.core.protocol.NetUtils.*;
 
 import java.io.*;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.*;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.IntConsumer;
 import javax.net.ssl.*;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
 import org.apache.hc.client5.http.ssl.DefaultHostnameVerifier;
+import com.cufufy.amp.core.config.ConfigTools;
 import com.cufufy.amp.core.config.Jsons;
+import com.cufufy.amp.core.modpack.ContentGenerations;
 import com.cufufy.amp.core.protocol.compression.CompressionCodec;
 import com.cufufy.amp.core.protocol.compression.CompressionFactory;
+import com.cufufy.amp.core.protocol.compression.ZstdCompression;
+import com.cufufy.amp.core.protocol.netty.NettyServer;
+import com.cufufy.amp.core.protocol.netty.handler.ClientHandshakeHandler;
+import com.cufufy.amp.core.protocol.netty.handler.ClientResponseHandler;
+import com.cufufy.amp.core.protocol.netty.handler.CompressionDecoder;
+import com.cufufy.amp.core.protocol.netty.handler.CompressionEncoder;
+import com.cufufy.amp.core.utils.ContentChunker;
+import com.cufufy.amp.core.utils.CustomFileUtils;
+import com.cufufy.amp.core.utils.CustomThreadFactoryBuilder;
+import com.cufufy.amp.core.utils.HashKey;
 import com.cufufy.amp.core.utils.PlatformUtils;
+import com.cufufy.amp.core.utils.VirtualThreads;
 
 /**
  * A DownloadClient that creates a pool of connections.
  * Each connection performs an initial plain-text handshake by sending the AMMC magic,
  * waiting for the AMOK reply, and then upgrading the same socket to TLSv1.3.
- * Subsequent protocol messages are framed and compressed (using Zstd).
+ * Subsequent protocol messages are framed and compressed with the same codec handlers the server uses.
+ * <p>
+ * Connections are netty channels sharing a few event loop threads, idle connections don't hold a thread.
+ * Requests wait in a bounded queue until a connection is free, callers submitting while the queue is full
+ * block until it drains, both served in arrival order. Returned futures are completed on the task executor,
+ * never on the event loop.
+ * <p>
+ * Blocking work, opening connections, verifying downloaded files and the callers' completion callbacks,
+ * runs on the task executor: a virtual thread per task if the JVM supports them, otherwise a small platform thread pool.
  */
 public class DownloadClient implements AutoCloseable {
 
+    // Files are striped over multiple connections only if each connection gets at least this much
+    private static final long MIN_STRIPE_SIZE = 16L * 1024 * 1024;
+    // Requests waiting for a free connection before submitting blocks
+    private static final int MAX_QUEUED_REQUESTS = 1024;
+
+    private final EventLoopGroup eventLoopGroup;
+    private final ExecutorService taskExecutor;
+    private final Semaphore queuePermits = new Semaphore(MAX_QUEUED_REQUESTS, true);
+    // guarded by this
     private final List<Connection> connections = new ArrayList<>();
-    private InetSocketAddress address = null;
+    private final Deque<Connection> idleConnections = new ArrayDeque<>();
+    private final Deque<QueuedRequest> queuedRequests = new ArrayDeque<>();
+    private int pendingConnections = 0;
+    private boolean closed = false;
+
+    private final Jsons.ModpackAddresses modpackAddresses;
+    private final byte[] secretBytes;
+    private final int poolSize;
+    private final KeyStore keyStore;
+    private volatile InetSocketAddress address = null;
+
+    private record QueuedRequest(Consumer<Connection> dispatch, Consumer<Throwable> reject) { }
 
     /**
      * Creates a new {@link DownloadClient} for the specified address. If the first connection fails with a verification
@@ -46,11 +106,24 @@ public class DownloadClient implements AutoCloseable {
      * @param trustedByUserCallback the callback to determine whether a certificate should be trusted
      */
     public DownloadClient(Jsons.ModpackAddresses modpackAddresses, byte[] secretBytes, int poolSize, Function<X509Certificate, Boolean> trustedByUserCallback) throws IOException {
-        KeyStore keyStore;
+        this(modpackAddresses, secretBytes, poolSize, trustedByUserCallback, VirtualThreads.isSupported());
+    }
+
+    /**
+     * Creates a new {@link DownloadClient} like {@link #DownloadClient(Jsons.ModpackAddresses, byte[], int, Function)},
+     * choosing whether blocking work runs on virtual threads.
+     *
+     * @param virtualThreads whether to use virtual threads, ignored if the JVM doesn't support them
+     */
+    public DownloadClient(Jsons.ModpackAddresses modpackAddresses, byte[] secretBytes, int poolSize, Function<X509Certificate, Boolean> trustedByUserCallback, boolean virtualThreads) throws IOException {
         if (poolSize < 1) {
             throw new IllegalArgumentException("Pool size must be greater than 0");
         }
 
+        this.modpackAddresses = modpackAddresses;
+        this.secretBytes = secretBytes;
+        this.poolSize = poolSize;
+
         try {
             keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
         } catch (KeyStoreException e) {
@@ -62,32 +135,72 @@ public class DownloadClient implements AutoCloseable {
             throw new RuntimeException("Failed to load empty KeyStore", e);
         }
 
-        PreValidationConnection firstConnection = getPreValidationConnection(modpackAddresses, keyStore);
-        if (firstConnection.getSocket() != null && !firstConnection.getSocket().isClosed() && firstConnection.getUnvalidatedCertificate() == null && secretBytes != null) {
-            connections.add(new Connection(firstConnection, secretBytes));
-        } else if (firstConnection.getSocket() != null) {
-            firstConnection.getSocket().close();
+        // TLS and decompression of a whole pool is easily handled by a few threads
+        int ioThreads = Math.min(poolSize, Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+        eventLoopGroup = new NioEventLoopGroup(ioThreads, new CustomThreadFactoryBuilder().setNameFormat("AutoModpack Download IO #%d").setDaemon(true).build());
+        if (virtualThreads && VirtualThreads.isSupported()) {
+            taskExecutor = VirtualThreads.newThreadPerTaskExecutor("AutoModpack Download #");
+        } else {
+            ThreadPoolExecutor threadPool = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new CustomThreadFactoryBuilder().setNameFormat("AutoModpack Download #%d").setDaemon(true).build());
+            threadPool.allowCoreThreadTimeOut(true);
+            taskExecutor = threadPool;
         }
 
-        if (trustedByUserCallback != null && firstConnection.getUnvalidatedCertificate() != null && trustedByUserCallback.apply(firstConnection.getUnvalidatedCertificate())) {
-            try {
-                keyStore.setCertificateEntry(modpackAddresses.hostAddress.getHostString(), firstConnection.getUnvalidatedCertificate());
-            } catch (KeyStoreException e) {
-                throw new RuntimeException("Could not add the trusted certificate to the KeyStore.", e);
+        try {
+            PreValidationConnection firstConnection = getPreValidationConnection();
+            if (firstConnection.getChannel() != null && firstConnection.getChannel().isActive() && firstConnection.getUnvalidatedCertificate() == null && secretBytes != null) {
+                addConnection(new Connection(firstConnection, secretBytes));
+            } else if (firstConnection.getChannel() != null) {
+                firstConnection.getChannel().close();
+            }
+
+            if (trustedByUserCallback != null && firstConnection.getUnvalidatedCertificate() != null && trustedByUserCallback.apply(firstConnection.getUnvalidatedCertificate())) {
+                try {
+                    keyStore.setCertificateEntry(modpackAddresses.hostAddress.getHostString(), firstConnection.getUnvalidatedCertificate());
+                } catch (KeyStoreException e) {
+                    throw new RuntimeException("Could not add the trusted certificate to the KeyStore.", e);
+                }
+            }
+
+            if (secretBytes == null) {
+                return;
             }
+
+            openConnections(poolSize - connections.size());
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Opens the rest of the pool concurrently on the task executor, fails if any of them failed
+    private void openConnections(int count) throws IOException {
+        List<java.util.concurrent.Future<Connection>> opening = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            opening.add(taskExecutor.submit(() -> new Connection(getPreValidationConnection(), secretBytes)));
         }
 
-        if (secretBytes == null) {
-            return;
+        IOException failure = null;
+        for (java.util.concurrent.Future<Connection> future : opening) {
+            try {
+                addConnection(future.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException ioException ? ioException : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while opening connections");
+            }
         }
 
-        for (int i = connections.size(); i < poolSize; i++) {
-            PreValidationConnection preValidationConnection = getPreValidationConnection(modpackAddresses, keyStore);
-            connections.add(new Connection(preValidationConnection, secretBytes));
+        if (failure != null) {
+            throw failure;
         }
     }
 
-    private PreValidationConnection getPreValidationConnection(Jsons.ModpackAddresses modpackAddresses, KeyStore keyStore) throws IOException {
+    private PreValidationConnection getPreValidationConnection() throws IOException {
         PreValidationConnection preValidationConnection;
         try {
             String hostName = modpackAddresses.hostAddress.getHostString();
@@ -99,7 +212,7 @@ public class DownloadClient implements AutoCloseable {
                 address = resolvedInetSocketAddress;
             }
 
-            preValidationConnection = new PreValidationConnection(address, modpackAddresses, keyStore);
+            preValidationConnection = new PreValidationConnection(eventLoopGroup, address, modpackAddresses, keyStore);
         } catch (KeyStoreException e) {
             throw new RuntimeException("Failed to establish connection due to an issue with the generated KeyStore.", e);
         }
@@ -126,20 +239,175 @@ public class DownloadClient implements AutoCloseable {
         }
     }
 
-    private synchronized Connection getFreeConnection() {
-        Iterator<Connection> iterator = connections.iterator();
-        while (iterator.hasNext()) {
-            Connection conn = iterator.next();
-            if (!conn.isBusy()) {
-                if (!conn.isActive()) {
-                    iterator.remove();
-                    return getFreeConnection();
+    private void addConnection(Connection conn) {
+        synchronized (this) {
+            connections.add(conn);
+        }
+        activate(conn);
+    }
+
+    // Starts watching an added connection and hands it to the waiting requests
+    private void activate(Connection conn) {
+        conn.closeFuture().addListener(future -> onConnectionClosed(conn));
+        release(conn, null);
+    }
+
+    private synchronized void onConnectionClosed(Connection conn) {
+        connections.remove(conn);
+        idleConnections.remove(conn);
+        openConnectionIfNeeded();
+    }
+
+    /**
+     * Runs the request on a free connection, or queues it until one is free, blocking if the queue is full.
+     * The connection is handed to the next request once the future returned by the request completes.
+     */
+    private <T> CompletableFuture<T> submit(Function<Connection, CompletableFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            queuePermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        QueuedRequest queuedRequest = new QueuedRequest(conn -> {
+            CompletableFuture<T> future;
+            try {
+                future = request.apply(conn);
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+
+            future.whenComplete((value, throwable) -> {
+                release(conn, throwable);
+                complete(result, value, throwable);
+            });
+        }, throwable -> complete(result, null, throwable));
+
+        Connection conn;
+        synchronized (this) {
+            conn = closed ? null : idleConnections.poll();
+            if (conn == null) {
+                if (closed || (connections.isEmpty() && pendingConnections == 0 && secretBytes == null)) {
+                    queuePermits.release();
+                    result.completeExceptionally(new IOException(closed ? "Download client is closed" : "No available connections"));
+                    return result;
                 }
-                conn.setBusy(true);
-                return conn;
+
+                queuedRequests.add(queuedRequest);
+                openConnectionIfNeeded();
+                return result;
             }
         }
-        throw new IllegalStateException("No available connections");
+
+        queuePermits.release();
+        queuedRequest.dispatch().accept(conn);
+        return result;
+    }
+
+    // Completes futures returned to the callers on the completion pool, so their callbacks can't stall the event loop
+    private <T> void complete(CompletableFuture<T> result, T value, Throwable throwable) {
+        Runnable completion = () -> {
+            if (throwable == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+            }
+        };
+
+        try {
+            taskExecutor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+
+    // Hands the connection to the next queued request or marks it idle
+    private void release(Connection conn, Throwable throwable) {
+        if (throwable != null) {
+            conn.close(); // the position in the stream is unknown after a failure
+            return;
+        }
+
+        QueuedRequest next;
+        synchronized (this) {
+            if (closed || !conn.isActive()) {
+                return;
+            }
+
+            next = queuedRequests.poll();
+            if (next == null) {
+                idleConnections.add(conn);
+                return;
+            }
+        }
+
+        queuePermits.release();
+        next.dispatch().accept(conn);
+    }
+
+    private synchronized List<Connection> takeIdleConnections(int max) {
+        List<Connection> taken = new ArrayList<>();
+        while (taken.size() < max && !idleConnections.isEmpty()) {
+            taken.add(idleConnections.poll());
+        }
+        return taken;
+    }
+
+    // Replaces closed connections while there are requests waiting, guarded by this
+    private void openConnectionIfNeeded() {
+        if (closed || secretBytes == null || queuedRequests.isEmpty() || connections.size() + pendingConnections >= poolSize) {
+            return;
+        }
+
+        pendingConnections++;
+        try {
+            taskExecutor.execute(this::openConnection);
+        } catch (RejectedExecutionException e) {
+            pendingConnections--;
+        }
+    }
+
+    private void openConnection() {
+        Connection conn = null;
+        Exception failure = null;
+        try {
+            PreValidationConnection preValidationConnection = getPreValidationConnection();
+            if (preValidationConnection.getUnvalidatedCertificate() != null) {
+                throw new SSLHandshakeException("Server certificate is not valid");
+            }
+            conn = new Connection(preValidationConnection, secretBytes);
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+
+        List<QueuedRequest> rejected = List.of();
+        synchronized (this) {
+            pendingConnections--;
+            if (conn != null) {
+                if (closed) {
+                    conn.close();
+                    return;
+                }
+                connections.add(conn);
+            } else if (connections.isEmpty() && pendingConnections == 0) {
+                rejected = new ArrayList<>(queuedRequests);
+                queuedRequests.clear();
+            }
+        }
+
+        if (conn != null) {
+            activate(conn);
+            return;
+        }
+
+        LOGGER.warn("Failed to open a download connection: {}", failure.getMessage());
+        for (QueuedRequest request : rejected) {
+            queuePermits.release();
+            request.reject().accept(failure);
+        }
     }
 
     /**
@@ -147,132 +415,375 @@ public class DownloadClient implements AutoCloseable {
      * Returns a CompletableFuture that completes when the download finishes.
      */
     public CompletableFuture<Path> downloadFile(byte[] fileHash, Path destination, IntConsumer chunkCallback) {
-        Connection conn = getFreeConnection();
-        return conn.sendDownloadFile(fileHash, destination, chunkCallback);
+        if (destination == null) {
+            throw new IllegalArgumentException("Destination cannot be null");
+        }
+
+        return submit(conn -> conn.sendDownloadFile(fileHash, destination, chunkCallback));
+    }
+
+    /**
+     * Downloads a file identified by its SHA-1 hash to the given destination through a {@code .part} file, resuming
+     * an earlier interrupted download of it if the server supports ranged requests. The result is verified against the hash.
+     * Returns a CompletableFuture that completes when the download finishes.
+     */
+    public CompletableFuture<Path> downloadFileResumable(byte[] fileHash, Path destination, IntConsumer chunkCallback) {
+        if (destination == null) {
+            throw new IllegalArgumentException("Destination cannot be null");
+        }
+
+        Path part = destination.resolveSibling(destination.getFileName() + ".part");
+        return submit(conn -> conn.sendPartialDownloadFile(fileHash, part, chunkCallback))
+                .thenApplyAsync(downloaded -> verifyAndMove(fileHash, downloaded, destination), taskExecutor);
+    }
+
+    /**
+     * Downloads a large file identified by its SHA-1 hash split into byte range stripes, fetched concurrently over the free
+     * connections of the pool, so a single file isn't limited by what one TLS stream can do on high latency links.
+     * The stripes are written in place into a preallocated {@code <destination>.stripes} file, which is verified against
+     * the hash before it's moved to the destination.
+     * Small files fall back to {@link #downloadFileResumable}, servers without ranged requests send the file at once.
+     *
+     * @param fileSize the size of the file, as listed in the modpack content
+     */
+    public CompletableFuture<Path> downloadFileStriped(byte[] fileHash, long fileSize, Path destination, IntConsumer chunkCallback) {
+        if (fileSize < 2 * MIN_STRIPE_SIZE) {
+            return downloadFileResumable(fileHash, destination, chunkCallback);
+        }
+
+        Path stripes = destination.resolveSibling(destination.getFileName() + ".stripes");
+        return submit(conn -> {
+            if (conn.getProtocolVersion() < PROTOCOL_VERSION_3) {
+                return conn.sendDownloadFile(fileHash, stripes, chunkCallback);
+            }
+
+            // the connection running this request takes the first stripe, the free ones the rest
+            List<Connection> extraConnections = takeIdleConnections((int) Math.min(poolSize, fileSize / MIN_STRIPE_SIZE) - 1);
+            return downloadStripes(conn, extraConnections, fileHash, fileSize, stripes, chunkCallback);
+        }).thenApplyAsync(downloaded -> verifyAndMove(fileHash, downloaded, destination), taskExecutor).whenComplete((path, throwable) -> {
+            if (throwable != null) {
+                deleteQuietly(stripes);
+            }
+        });
+    }
+
+    private CompletableFuture<Path> downloadStripes(Connection conn, List<Connection> extraConnections, byte[] fileHash, long fileSize, Path stripes, IntConsumer chunkCallback) {
+        FileChannel target;
+        try {
+            target = FileChannel.open(stripes, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            target.write(ByteBuffer.allocate(1), fileSize - 1); // preallocate, the file is sparse where the filesystem supports it
+        } catch (IOException e) {
+            extraConnections.forEach(extra -> release(extra, null));
+            return CompletableFuture.failedFuture(e);
+        }
+
+        int count = 1 + extraConnections.size();
+        long[] bounds = stripeBounds(fileSize, count);
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[count];
+        futures[0] = conn.sendDownloadRange(fileHash, bounds[0], bounds[1] - bounds[0], target, chunkCallback);
+        for (int i = 1; i < count; i++) {
+            Connection extra = extraConnections.get(i - 1);
+            futures[i] = extra.sendDownloadRange(fileHash, bounds[i], bounds[i + 1] - bounds[i], target, chunkCallback)
+                    .whenComplete((ignored, throwable) -> release(extra, throwable));
+        }
+
+        LOGGER.debug("Downloading {} in {} stripes of {} bytes", stripes, count, bounds[1]);
+
+        return CompletableFuture.allOf(futures).whenComplete((ignored, throwable) -> {
+            try {
+                target.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close {}", stripes, e);
+            }
+        }).thenApply(ignored -> stripes);
+    }
+
+    // Splits the file into count stripes of the same rounded up size, the last one takes what's left.
+    // Returns the count + 1 stripe boundaries, from 0 to fileSize
+    static long[] stripeBounds(long fileSize, int count) {
+        long stripeSize = (fileSize + count - 1) / count;
+        long[] bounds = new long[count + 1];
+        for (int i = 1; i <= count; i++) {
+            bounds[i] = Math.min(i * stripeSize, fileSize);
+        }
+        return bounds;
+    }
+
+    /**
+     * Downloads a new version of a large file, fetching only the content chunks which the local file doesn't already have.
+     * The local file is cut into chunks the same way the server did it, the chunks found in it are copied into a
+     * preallocated {@code <destination>.chunks} file and the missing ones are requested by their hash in batches (protocol v3).
+     * The result is verified against the hash before it's moved to the destination.
+     * Falls back to {@link #downloadFileResumable} without a chunk list or local file, or if the server can't send a chunk.
+     *
+     * @param chunks the chunks of the file, as listed in the modpack content
+     * @param local  the older version of the file, may be the destination itself
+     */
+    public CompletableFuture<Path> downloadFileChunked(byte[] fileHash, List<Jsons.ChunkFields> chunks, Path local, Path destination, IntConsumer chunkCallback) {
+        if (chunks == null || chunks.isEmpty() || local == null || !Files.isRegularFile(local)) {
+            return downloadFileResumable(fileHash, destination, chunkCallback);
+        }
+
+        Path assembled = destination.resolveSibling(destination.getFileName() + ".chunks");
+        return CompletableFuture.supplyAsync(() -> copyLocalChunks(chunks, local, assembled), taskExecutor)
+                .thenCompose(missing -> submit(conn -> {
+                    if (conn.getProtocolVersion() < PROTOCOL_VERSION_3) {
+                        return conn.sendDownloadFile(fileHash, assembled, chunkCallback);
+                    }
+                    return conn.sendDownloadChunks(missing, assembled, chunkCallback);
+                }))
+                .thenApplyAsync(downloaded -> verifyAndMove(fileHash, downloaded, destination), taskExecutor)
+                .exceptionallyCompose(throwable -> {
+                    deleteQuietly(assembled);
+                    LOGGER.warn("Failed to download {} by chunks, downloading it whole: {}", destination, throwable.getMessage());
+                    return downloadFileResumable(fileHash, destination, chunkCallback);
+                });
+    }
+
+    // Copies the chunks found in the local file to their positions in the assembled file, returns the chunks which are left to download
+    private static List<ContentChunker.Chunk> copyLocalChunks(List<Jsons.ChunkFields> chunks, Path local, Path assembled) {
+        try {
+            List<ContentChunker.Chunk> wanted = ContentChunker.fromFields(chunks);
+            Map<HashKey, ContentChunker.Chunk> available = new HashMap<>();
+            for (ContentChunker.Chunk chunk : ContentChunker.chunk(local)) {
+                available.putIfAbsent(chunk.hash(), chunk);
+            }
+
+            List<ContentChunker.Chunk> missing = new ArrayList<>();
+            long reused = 0;
+            try (FileChannel source = FileChannel.open(local, StandardOpenOption.READ);
+                 FileChannel target = FileChannel.open(assembled, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ContentChunker.Chunk last = wanted.get(wanted.size() - 1);
+                target.write(ByteBuffer.allocate(1), last.offset() + last.length() - 1); // preallocate, the file is sparse where the filesystem supports it
+
+                for (ContentChunker.Chunk chunk : wanted) {
+                    ContentChunker.Chunk localChunk = available.get(chunk.hash());
+                    if (localChunk == null || localChunk.length() != chunk.length()) {
+                        missing.add(chunk);
+                        continue;
+                    }
+
+                    long copied = 0;
+                    while (copied < chunk.length()) {
+                        copied += source.transferTo(localChunk.offset() + copied, chunk.length() - copied, target.position(chunk.offset() + copied));
+                    }
+                    reused += chunk.length();
+                }
+            }
+
+            LOGGER.debug("Reusing {} bytes of {}, downloading {} of {} chunks", reused, local, missing.size(), wanted.size());
+            return missing;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static Path verifyAndMove(byte[] fileHash, Path downloaded, Path destination) {
+        try {
+            String expectedSha1 = new String(fileHash, StandardCharsets.UTF_8);
+            if (!expectedSha1.isBlank() && !expectedSha1.equalsIgnoreCase(CustomFileUtils.getHash(downloaded))) {
+                Files.deleteIfExists(downloaded);
+                throw new IOException("Downloaded file " + destination + " doesn't match its SHA-1 " + expectedSha1);
+            }
+
+            Files.move(downloaded, destination, StandardCopyOption.REPLACE_EXISTING);
+            return destination;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.debug("Failed to delete {}", file, e);
+        }
+    }
+
+    /**
+     * Downloads multiple files identified by their SHA-1 hashes to the destinations at the same index, over one connection.
+     * With protocol v3 the files are requested in batches and streamed back to back, so small files don't each cost a round trip.
+     * Returns a CompletableFuture that completes when all downloads finish.
+     */
+    public CompletableFuture<List<Path>> downloadFiles(List<byte[]> fileHashes, List<Path> destinations, IntConsumer chunkCallback) {
+        if (fileHashes.size() != destinations.size()) {
+            throw new IllegalArgumentException("Each file hash needs a destination");
+        }
+
+        return submit(conn -> conn.sendDownloadFiles(fileHashes, destinations, chunkCallback));
+    }
+
+    /**
+     * Downloads the modpack content file to the destination. On protocol v3 the server is sent the SHA-1 of the file
+     * already at the destination, and leaves it as it is if that is still the current content.
+     * If it is one of the recent versions, only the changed items are sent and applied to the file,
+     * anything going wrong with that downloads the whole file instead.
+     * Returns a CompletableFuture that completes with false if the destination was already up to date.
+     */
+    public CompletableFuture<Boolean> downloadManifest(Path destination) {
+        if (destination == null) {
+            throw new IllegalArgumentException("Destination cannot be null");
+        }
+
+        String currentSha1 = CustomFileUtils.getHash(destination);
+        HashKey etag = currentSha1 == null ? null : HashKey.fromWire(currentSha1.getBytes(StandardCharsets.UTF_8));
+        return submit(conn -> conn.sendManifestRequest(etag, true, destination)).thenComposeAsync(sink -> {
+            byte[] delta = sink.getDelta();
+            if (delta == null) {
+                return CompletableFuture.completedFuture(sink.isModified());
+            }
+
+            if (applyManifestDelta(delta, destination)) {
+                return CompletableFuture.completedFuture(true);
+            }
+
+            LOGGER.warn("Couldn't apply the modpack content delta to {}, downloading all of it", destination);
+            return submit(conn -> conn.sendManifestRequest(null, false, destination)).thenApply(ignored -> true);
+        }, taskExecutor);
+    }
+
+    // Writes the content file updated by the delta next to it, and replaces the file only if the result is exactly the content of the server
+    private static boolean applyManifestDelta(byte[] encodedDelta, Path destination) {
+        try {
+            ContentGenerations.Delta delta = ContentGenerations.Delta.decode(encodedDelta);
+            Jsons.ModpackContentFields content = ConfigTools.loadModpackContent(destination);
+            if (content == null) {
+                return false;
+            }
+
+            Path updated = destination.resolveSibling(destination.getFileName() + ".delta");
+            ConfigTools.saveModpackContent(updated, delta.applyTo(content));
+            if (!delta.getEtag().toHex().equals(CustomFileUtils.getHash(updated))) {
+                deleteQuietly(updated);
+                return false;
+            }
+
+            Files.move(updated, destination, StandardCopyOption.REPLACE_EXISTING);
+            LOGGER.debug("Applied modpack content delta from generation {} to {}: {} changed, {} removed", delta.getFromGeneration(), delta.getToGeneration(), delta.getChanged().size(), delta.getRemoved().size());
+            return true;
+        } catch (IOException e) {
+            LOGGER.debug("Invalid modpack content delta", e);
+            return false;
+        }
     }
 
     /**
      * Sends a refresh request with the given file hashes.
      */
     public CompletableFuture<Path> requestRefresh(byte[][] fileHashes, Path destination) {
-        Connection conn = getFreeConnection();
-        return conn.sendRefreshRequest(fileHashes, destination);
+        return submit(conn -> conn.sendRefreshRequest(fileHashes, destination));
     }
 
     /**
-     * Closes all connections.
+     * Closes all connections, failing requests which are still queued.
      */
     @Override
     public void close() {
-        for (Connection conn : connections) {
+        List<QueuedRequest> rejected;
+        List<Connection> toClose;
+        synchronized (this) {
+            closed = true;
+            rejected = new ArrayList<>(queuedRequests);
+            queuedRequests.clear();
+            toClose = new ArrayList<>(connections);
+            connections.clear();
+            idleConnections.clear();
+        }
+
+        IOException closedException = new IOException("Download client is closed");
+        for (QueuedRequest request : rejected) {
+            queuePermits.release();
+            request.reject().accept(closedException);
+        }
+
+        for (Connection conn : toClose) {
             conn.close();
         }
 
-        connections.clear();
+        eventLoopGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+        taskExecutor.shutdown();
     }
 }
 
 /**
  * A helper class for connecting to the server that allows for retrieving certificates that failed verification.
- * It first performs a plain-text handshake then upgrades the same socket to TLS.
+ * It first performs a plain-text handshake then upgrades the same channel to TLS.
  */
 class PreValidationConnection {
 
-    private final SSLSocket socket;
+    private static final int TIMEOUT_MILLIS = 10000;
+    private final Channel channel;
     private final X509Certificate unvalidatedCertificate;
-    private byte negotiatedProtocolVersion;
-    private byte negotiatedCompressionType;
 
     /**
-     * Creates a new connection by first opening a plain TCP socket,
+     * Creates a new connection by first opening a plain TCP channel,
      * sending the AMMC magic, waiting for the AMOK reply, and then upgrading to TLS.
      *
+     * @param eventLoopGroup   the event loop group of the client
      * @param modpackAddresses the object containing host and server addresses
      * @param keyStore         the keystore containing trusted certificates
      */
-    public PreValidationConnection(InetSocketAddress resolvedHostAddress, Jsons.ModpackAddresses modpackAddresses, KeyStore keyStore) throws IOException, KeyStoreException {
-        // Step 1. Create a plain TCP connection.
-        Socket plainSocket = new Socket();
-        plainSocket.connect(resolvedHostAddress, 10000); // To create socket, we need to pass a resolved socket address
-        plainSocket.setSoTimeout(10000);
-
-        if (!modpackAddresses.requiresMagic) {
-            negotiatedProtocolVersion = PROTOCOL_VERSION_2;
-            negotiatedCompressionType = COMPRESSION_ZSTD;
-
-            LOGGER.debug("Skipping AutoModpack magic handshake as per configuration");
-        } else {
-            try {
-                DataOutputStream plainOut = new DataOutputStream(plainSocket.getOutputStream());
-                DataInputStream plainIn = new DataInputStream(plainSocket.getInputStream());
-
-                byte desiredProtocolVersion = PROTOCOL_VERSION_2;
-                byte desiredCompression = PlatformUtils.isAndroid() ? COMPRESSION_GZIP : COMPRESSION_ZSTD;
-
-                // Step 2. Send the handshake (AMMC magic + protocol version) over the plain socket.
-                plainOut.writeInt(MAGIC_AMMC);
-                plainOut.writeByte(desiredProtocolVersion); // Client supports v2
-                plainOut.writeByte(desiredCompression);
-                plainOut.flush();
-
-                LOGGER.debug("Sent AutoModpack magic handshake to {} - magic: {} desiredProtocolVersion: {} desiredCompression: {}", resolvedHostAddress, MAGIC_AMMC, desiredProtocolVersion, desiredCompression);
-
-                // Step 3. Wait for the server's reply (AMOK magic).
-                int handshakeResponse = plainIn.readInt();
-                if (handshakeResponse != MAGIC_AMOK) {
-                    throw new IOException("Invalid response from server: " + handshakeResponse);
-                }
-
-                LOGGER.debug("Received AutoModpack magic handshake response from {} - readable bytes {}", resolvedHostAddress, plainIn.available());
-
-                // Step 4. Read negotiated protocol version and compression type (v2+ servers send this)
-                if (plainIn.available() >= 2) {
-                    byte serverProtocolVersion = plainIn.readByte();
-                    byte serverCompressionType = plainIn.readByte();
-
-                    if (serverProtocolVersion != PROTOCOL_VERSION_1 && serverProtocolVersion != PROTOCOL_VERSION_2) {
-                        throw new IOException("Unsupported protocol version from server: " + serverProtocolVersion);
-                    }
-
-                    if (serverCompressionType != COMPRESSION_NONE && serverCompressionType != COMPRESSION_ZSTD && serverCompressionType != COMPRESSION_GZIP) {
-                        throw new IOException("Unsupported compression type from server: " + serverCompressionType);
+    public PreValidationConnection(EventLoopGroup eventLoopGroup, InetSocketAddress resolvedHostAddress, Jsons.ModpackAddresses modpackAddresses, KeyStore keyStore) throws IOException, KeyStoreException {
+        Promise<Void> negotiated = eventLoopGroup.next().newPromise();
+        ClientResponseHandler responseHandler = new ClientResponseHandler();
+
+        // Step 1. Create a plain TCP connection, with the magic handshake if required.
+        Bootstrap bootstrap = new Bootstrap()
+                .group(eventLoopGroup)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, TIMEOUT_MILLIS)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        if (modpackAddresses.requiresMagic) {
+                            byte desiredProtocolVersion = PROTOCOL_VERSION_3;
+                            byte desiredCompression = PlatformUtils.isAndroid() ? COMPRESSION_GZIP : COMPRESSION_ZSTD;
+                            ch.pipeline().addLast("handshake", new ClientHandshakeHandler(desiredProtocolVersion, desiredCompression, negotiated));
+                        } else {
+                            ch.attr(NettyServer.PROTOCOL_VERSION).set(PROTOCOL_VERSION_2);
+                            ch.attr(NettyServer.COMPRESSION_TYPE).set(COMPRESSION_ZSTD);
+                            negotiated.trySuccess(null);
+
+                            LOGGER.debug("Skipping AutoModpack magic handshake as per configuration");
+                        }
+                        // Catches errors of the whole pipeline, codec handlers are added in front of it later
+                        ch.pipeline().addLast("response-handler", responseHandler);
                     }
+                });
 
-                    negotiatedProtocolVersion = serverProtocolVersion;
-                    negotiatedCompressionType = serverCompressionType;
-
-                    LOGGER.debug("Negotiated AutoModpack protocol version: {}, compression type: {} with {}", negotiatedProtocolVersion, negotiatedCompressionType, resolvedHostAddress);
-                } else {
-                    // Old server (v1) - doesn't send version/compression info
-                    negotiatedProtocolVersion = PROTOCOL_VERSION_1;
-                    negotiatedCompressionType = COMPRESSION_ZSTD;
-
-                    LOGGER.debug("Old server detected, defaulting AutoModpack protocol version to: {}, compression type: {} with {}", negotiatedProtocolVersion, negotiatedCompressionType, resolvedHostAddress);
-                }
-            } catch (IOException e) {
-                LOGGER.error("AutoModpack magic handshake failed", e);
-                plainSocket.close();
-            }
+        ChannelFuture connectFuture = bootstrap.connect(resolvedHostAddress); // To create a channel, we need to pass a resolved socket address
+        Channel plainChannel = connectFuture.channel();
+        if (!connectFuture.awaitUninterruptibly(TIMEOUT_MILLIS + 1000) || !connectFuture.isSuccess()) {
+            plainChannel.close();
+            throw new IOException("Failed to establish a plain socket connection to " + resolvedHostAddress, connectFuture.cause());
         }
 
-        if (plainSocket.isClosed() || !plainSocket.isConnected()) {
+        // Step 2/3. Wait for the server's reply (AMOK magic) with the negotiated protocol version and compression type.
+        if (!negotiated.awaitUninterruptibly(TIMEOUT_MILLIS) || !negotiated.isSuccess()) {
+            LOGGER.error("AutoModpack magic handshake failed", negotiated.cause());
+            plainChannel.close();
             throw new IOException("Failed to establish a plain socket connection to " + resolvedHostAddress);
         }
 
-        // Step 4. Upgrade the plain socket to TLS using the same underlying connection.
+        // Step 4. Upgrade the plain channel to TLS using the same underlying connection.
         AtomicReference<X509Certificate[]> interceptedCertificateChain = new AtomicReference<>();
 
         SSLContext context = createSSLContext(keyStore, interceptedCertificateChain::set);
-        SSLSocketFactory factory = context.getSocketFactory();
-        // The createSocket(Socket, host, port, autoClose) wraps the existing plain socket.
-        SSLSocket sslSocket = (SSLSocket) factory.createSocket(plainSocket, resolvedHostAddress.getHostString(), resolvedHostAddress.getPort(), true);
-        sslSocket.setEnabledProtocols(new String[]{"TLSv1.3"});
-        sslSocket.setEnabledCipherSuites(new String[]{"TLS_AES_128_GCM_SHA256", "TLS_AES_256_GCM_SHA384", "TLS_CHACHA20_POLY1305_SHA256"});
-        SSLParameters sslParameters = new SSLParameters();
+        SSLEngine sslEngine = context.createSSLEngine(resolvedHostAddress.getHostString(), resolvedHostAddress.getPort());
+        sslEngine.setUseClientMode(true);
+        sslEngine.setEnabledProtocols(new String[]{"TLSv1.3"});
+        sslEngine.setEnabledCipherSuites(new String[]{"TLS_AES_128_GCM_SHA256", "TLS_AES_256_GCM_SHA384", "TLS_CHACHA20_POLY1305_SHA256"});
+        SSLParameters sslParameters = sslEngine.getSSLParameters();
         sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
-        sslSocket.setSSLParameters(sslParameters);
+        sslEngine.setSSLParameters(sslParameters);
+
+        SslHandler sslHandler = new SslHandler(sslEngine);
+        sslHandler.setHandshakeTimeoutMillis(TIMEOUT_MILLIS);
+        plainChannel.pipeline().addFirst("tls", sslHandler); // starts the handshake on the active channel
+        Future<Channel> handshakeFuture = sslHandler.handshakeFuture().awaitUninterruptibly();
 
-        SSLSession session = sslSocket.getSession();
         X509Certificate certificate = null;
         X509Certificate unvalidatedCertificate = null;
         X509Certificate[] serverCertificateChain = interceptedCertificateChain.get();
@@ -281,25 +792,26 @@ class PreValidationConnection {
         }
 
         if (certificate == null) {
+            plainChannel.close();
             throw new IOException("No certificate found in server's response");
         }
 
-        if (!session.isValid()) { // Handshake failed
-            sslSocket.close();
+        if (!handshakeFuture.isSuccess()) { // Handshake failed
+            plainChannel.close();
             unvalidatedCertificate = certificate;
         }
 
         // Check if its valid CA signed certificate for the host domain
         if (!isSelfSigned(certificate)) {
-            if (!session.isValid()) {
+            if (!handshakeFuture.isSuccess()) {
                 String modpackHostDomain = modpackAddresses.hostAddress.getHostString();
                 LOGGER.error("Received a CA-signed certificate, but the TLS handshake failed. This is most likely because the certificate could not be verified against the modpack host domain: {}", modpackHostDomain);
             } else {
                 // Verify that this certificate is also valid for the minecraft server domain
                 DefaultHostnameVerifier hostnameVerifier = new DefaultHostnameVerifier();
                 String minecraftServerDomain = modpackAddresses.serverAddress.getHostString();
-                if (!hostnameVerifier.verify(minecraftServerDomain, session)) {
-                    sslSocket.close();
+                if (!hostnameVerifier.verify(minecraftServerDomain, sslEngine.getSession())) {
+                    plainChannel.close();
                     unvalidatedCertificate = certificate;
                     LOGGER.error("Received a CA-signed certificate, but the TLS handshake failed. This is most likely because the certificate could not be verified against the Minecraft server domain: {}", minecraftServerDomain);
                 } else {
@@ -311,7 +823,7 @@ class PreValidationConnection {
         // The unvalidatedCertificate will be non-null if the certificate failed automated validation and requires manual verification by the client.
         // If null, the certificate was validated successfully.
         this.unvalidatedCertificate = unvalidatedCertificate;
-        this.socket = sslSocket;
+        this.channel = plainChannel;
     }
 
     private static boolean isSelfSigned(X509Certificate certificate) {
@@ -323,8 +835,8 @@ class PreValidationConnection {
         return true;
     }
 
-    protected SSLSocket getSocket() {
-        return socket;
+    protected Channel getChannel() {
+        return channel;
     }
 
     public X509Certificate getUnvalidatedCertificate() {
@@ -332,11 +844,11 @@ class PreValidationConnection {
     }
 
     public byte getNegotiatedProtocolVersion() {
-        return negotiatedProtocolVersion;
+        return channel.attr(NettyServer.PROTOCOL_VERSION).get();
     }
 
     public byte getNegotiatedCompressionType() {
-        return negotiatedCompressionType;
+        return channel.attr(NettyServer.COMPRESSION_TYPE).get();
     }
 
     /**
@@ -366,276 +878,508 @@ class PreValidationConnection {
 
 /**
  * A helper class representing a single connection.
- * Outbound messages are compressed and framed; inbound frames are decompressed and processed.
- * The compression codec is lazily loaded only when compression is actually used.
+ * Outbound messages are compressed and framed by the same handlers the server uses; inbound frames are decompressed
+ * and fed to the {@link ClientResponseHandler}, which writes them to the files of the current request.
+ * A connection runs one request at a time, {@link DownloadClient} hands them out.
  */
 class Connection implements AutoCloseable {
 
     private final byte protocolVersion;
     private final byte compressionType;
-    private CompressionCodec compressionCodec;
     private final byte[] secretBytes;
-    private final SSLSocket socket;
-    private final DataInputStream in;
-    private final DataOutputStream out;
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
-    private final AtomicBoolean busy = new AtomicBoolean(false);
-
-    public boolean isActive() {
-        return !socket.isClosed();
-    }
+    private final Channel channel;
+    private final ClientResponseHandler responses;
+    private volatile boolean open = true;
 
     /**
      * Creates a new connection from a successful {@link PreValidationConnection} instance. Throws an exception if the
      * handshake of the {@link PreValidationConnection} has failed.
      */
     public Connection(PreValidationConnection preValidationConnection, byte[] secretBytes) throws IOException {
-        if (preValidationConnection.getSocket() == null || preValidationConnection.getSocket().isClosed()) {
+        if (preValidationConnection.getChannel() == null || !preValidationConnection.getChannel().isActive()) {
             throw new SSLHandshakeException("Server certificate is not valid, connection got closed");
         }
-        this.socket = preValidationConnection.getSocket();
+        this.channel = preValidationConnection.getChannel();
         this.protocolVersion = preValidationConnection.getNegotiatedProtocolVersion();
         this.compressionType = preValidationConnection.getNegotiatedCompressionType();
-        this.compressionCodec = null;
         this.secretBytes = secretBytes;
+        this.responses = channel.pipeline().get(ClientResponseHandler.class);
 
-        try {
-            // Now use the SSL socket for further communication.
-            this.in = new DataInputStream(this.socket.getInputStream());
-            this.out = new DataOutputStream(this.socket.getOutputStream());
-            LOGGER.debug("Connection established with: {} using protocol v{} with {} compression", this.socket.getInetAddress().getHostAddress(), protocolVersion, compressionType);
-        } catch (IOException e) {
-            throw new IOException("Failed to establish connection", e);
-        }
+        // the codec is shared by the encoder and decoder of this channel, the level only matters for the small requests
+        CompressionCodec codec = CompressionFactory.newChannelCodec(compressionType, ZstdCompression.DEFAULT_LEVEL);
+        channel.pipeline()
+                .addBefore("response-handler", "compression-encoder", new CompressionEncoder(codec))
+                .addBefore("response-handler", "compression-decoder", new CompressionDecoder(codec));
+
+        LOGGER.debug("Connection established with: {} using protocol v{} with {} compression", channel.remoteAddress(), protocolVersion, compressionType);
+    }
+
+    public boolean isActive() {
+        return open && channel.isActive();
     }
 
-    public boolean isBusy() {
-        return busy.get();
+    public byte getProtocolVersion() {
+        return protocolVersion;
     }
 
-    public void setBusy(boolean value) {
-        busy.set(value);
+    public Future<Void> closeFuture() {
+        return channel.closeFuture();
     }
 
     /**
-     * Gets the compression codec, loading it lazily on first access.
-     * This ensures codec classes are only loaded when compression is actually used.
-     *
-     * @return the compression codec
+     * Writes the request and completes once all the expected responses are received.
      */
-    private CompressionCodec getCodec() {
-        if (compressionCodec == null) {
-            compressionCodec = CompressionFactory.getCodec(compressionType);
+    private CompletableFuture<Void> exchange(ByteBuf request, List<? extends ClientResponseHandler.ResponseSink> sinks) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        try {
+            channel.eventLoop().execute(() -> {
+                if (!isActive()) {
+                    request.release();
+                    done.completeExceptionally(new IOException("Connection closed"));
+                    return;
+                }
+
+                responses.expect(sinks, done);
+                // A frame can't hold more than CHUNK_SIZE, bigger requests are split over multiple frames
+                while (request.readableBytes() > CHUNK_SIZE) {
+                    channel.write(request.readRetainedSlice(CHUNK_SIZE));
+                }
+                channel.writeAndFlush(request).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+            });
+        } catch (RejectedExecutionException e) {
+            request.release();
+            done.completeExceptionally(new IOException("Connection closed", e));
+        }
+        return done;
+    }
+
+    // [protocolVersion][type][secret], followed by the payload of the message
+    private ByteBuf request(byte type) {
+        ByteBuf request = Unpooled.buffer();
+        request.writeByte(protocolVersion);
+        request.writeByte(type);
+        request.writeBytes(secretBytes);
+        return request;
+    }
+
+    // Since protocol v3 hashes are sent as the 20 bytes of the SHA-1 instead of its hex, returns null if it isn't a SHA-1
+    private byte[] wireHash(byte[] fileHash) {
+        if (protocolVersion < PROTOCOL_VERSION_3) {
+            return fileHash;
         }
-        return compressionCodec;
+
+        HashKey key = HashKey.fromWire(fileHash);
+        return key == null ? null : key.toBytes();
+    }
+
+    // [protocolVersion][FILE_REQUEST_TYPE][secret][int: fileHash.length][fileHash]
+    private ByteBuf fileRequest(byte[] fileHash) {
+        fileHash = Objects.requireNonNullElse(wireHash(fileHash), fileHash);
+        ByteBuf request = request(FILE_REQUEST_TYPE);
+        request.writeInt(fileHash.length);
+        request.writeBytes(fileHash);
+        return request;
+    }
+
+    // [protocolVersion][FILE_RANGE_REQUEST_TYPE][secret][int: fileHash.length][fileHash][long: offset][long: length, -1 to the end]
+    private ByteBuf rangeRequest(byte[] fileHash, long offset, long length) {
+        fileHash = Objects.requireNonNullElse(wireHash(fileHash), fileHash);
+        ByteBuf request = request(FILE_RANGE_REQUEST_TYPE);
+        request.writeInt(fileHash.length);
+        request.writeBytes(fileHash);
+        request.writeLong(offset);
+        request.writeLong(length);
+        return request;
+    }
+
+    // [protocolVersion][FILE_BATCH_REQUEST_TYPE or REFRESH_REQUEST_TYPE][secret][int: fileHashesCount][int: fileHashLength] then each file hash.
+    private ByteBuf hashesRequest(byte type, List<byte[]> fileHashes) {
+        List<byte[]> wireHashes = new ArrayList<>(fileHashes.size());
+        for (byte[] hash : fileHashes) {
+            wireHashes.add(wireHash(hash));
+        }
+        if (!wireHashes.contains(null)) { // otherwise the lengths could differ
+            fileHashes = wireHashes;
+        }
+
+        ByteBuf request = request(type);
+        request.writeInt(fileHashes.size());
+        if (!fileHashes.isEmpty()) {
+            request.writeInt(fileHashes.get(0).length); // all hashes have the same length
+            for (byte[] hash : fileHashes) {
+                request.writeBytes(hash);
+            }
+        }
+        return request;
     }
 
     /**
      * Sends a file request over this connection.
      */
     public CompletableFuture<Path> sendDownloadFile(byte[] fileHash, Path destination, IntConsumer chunkCallback) {
-        if (destination == null) {
-            throw new IllegalArgumentException("Destination cannot be null");
+        return exchange(fileRequest(fileHash), List.of(new FileSink(destination, false, chunkCallback)))
+                .thenApply(ignored -> destination);
+    }
+
+    /**
+     * Downloads the file into the part file, on protocol v3 continuing from the bytes already in it.
+     * A part the server refuses to continue (e.g. it's longer than the file) is deleted, so the next attempt starts over.
+     * The part is kept when the connection drops, so the next attempt can resume it.
+     */
+    public CompletableFuture<Path> sendPartialDownloadFile(byte[] fileHash, Path part, IntConsumer chunkCallback) {
+        boolean ranged = protocolVersion >= PROTOCOL_VERSION_3;
+        long offset;
+        try {
+            offset = ranged && Files.isRegularFile(part) ? Files.size(part) : 0;
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
         }
 
-        return CompletableFuture.supplyAsync(() -> {
-            Exception exception = null;
-            try {
-                // Build File Request message:
-                // [protocolVersion][FILE_REQUEST_TYPE][secret][int: fileHash.length][fileHash]
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                DataOutputStream dos = new DataOutputStream(baos);
-                dos.writeByte(protocolVersion);
-                dos.writeByte(FILE_REQUEST_TYPE);
-                dos.write(secretBytes);
-                dos.writeInt(fileHash.length);
-                dos.write(fileHash);
-                dos.flush();
-                byte[] payload = baos.toByteArray();
-
-                writeProtocolMessage(payload);
-                return readFileResponse(destination, chunkCallback);
-            } catch (Exception e) {
-                exception = e;
-                throw new CompletionException(e);
-            } finally {
-                finalBlock(exception);
+        if (offset > 0) {
+            LOGGER.debug("Resuming download of {} from byte {}", part, offset);
+            if (chunkCallback != null) { // count the resumed bytes as downloaded
+                for (long left = offset; left > 0; left -= Integer.MAX_VALUE) {
+                    chunkCallback.accept((int) Math.min(left, Integer.MAX_VALUE));
+                }
+            }
+        }
+
+        ByteBuf request = ranged ? rangeRequest(fileHash, offset, -1) : fileRequest(fileHash);
+        return exchange(request, List.of(new FileSink(part, offset > 0, chunkCallback))).whenComplete((ignored, throwable) -> {
+            if (throwable instanceof ServerErrorException || (throwable != null && throwable.getCause() instanceof ServerErrorException)) {
+                try {
+                    Files.deleteIfExists(part);
+                } catch (IOException e) {
+                    LOGGER.debug("Failed to delete {}", part, e);
+                }
             }
-        }, executor);
+        }).thenApply(ignored -> part);
     }
 
     /**
-     * Sends a refresh request over this connection.
+     * Downloads length bytes of the file from offset, writing them to the same position of the target channel (protocol v3).
+     * Multiple connections may write their ranges to the same channel concurrently.
      */
-    public CompletableFuture<Path> sendRefreshRequest(byte[][] fileHashes, Path destination) {
-        return CompletableFuture.supplyAsync(() -> {
-            Exception exception = null;
-            try {
-                // Build Refresh Request message:
-                // [protocolVersion][REFRESH_REQUEST_TYPE][secret][int: fileHashesCount]
-                // [int: fileHashLength] then each file hash.
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                DataOutputStream dos = new DataOutputStream(baos);
-                dos.writeByte(protocolVersion);
-                dos.writeByte(REFRESH_REQUEST_TYPE);
-                dos.write(secretBytes);
-                dos.writeInt(fileHashes.length);
-                if (fileHashes.length > 0) {
-                    dos.writeInt(fileHashes[0].length); // assuming all hashes have same length
-                    for (byte[] hash : fileHashes) {
-                        dos.write(hash);
-                    }
-                }
-                dos.flush();
-                byte[] payload = baos.toByteArray();
-
-                writeProtocolMessage(payload);
-                return readFileResponse(destination, null);
-            } catch (Exception e) {
-                exception = e;
-                throw new CompletionException(e);
-            } finally {
-                finalBlock(exception);
-            }
-        }, executor);
+    public CompletableFuture<Void> sendDownloadRange(byte[] fileHash, long offset, long length, FileChannel target, IntConsumer chunkCallback) {
+        return exchange(rangeRequest(fileHash, offset, length), List.of(new RangeSink(target, offset, length, chunkCallback)));
     }
 
-    private void finalBlock(Exception exception) {
-        // skip any remaining data
+    /**
+     * Downloads the content chunks by their hash, writing each to its offset of the target file (protocol v3).
+     * Up to {@link NetUtils#MAX_BATCH_FILES} chunks go in a single request and the server streams them back to back.
+     * Fails with a {@link ServerErrorException} after the batch holding a chunk the server doesn't have, the file can't be assembled without it.
+     */
+    public CompletableFuture<Path> sendDownloadChunks(List<ContentChunker.Chunk> chunks, Path target, IntConsumer chunkCallback) {
+        FileChannel channel;
         try {
-            while (in.available() > 0) {
-                in.skipBytes(in.available());
-            }
+            channel = FileChannel.open(target, StandardOpenOption.WRITE);
         } catch (IOException e) {
-            if (exception == null) {
-                exception = e;
-                throw new CompletionException(e);
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+        for (int start = 0; start < chunks.size(); start += MAX_BATCH_FILES) {
+            List<ContentChunker.Chunk> batch = chunks.subList(start, Math.min(start + MAX_BATCH_FILES, chunks.size()));
+            List<byte[]> hashes = new ArrayList<>(batch.size());
+            List<BatchSink> sinks = new ArrayList<>(batch.size());
+            for (ContentChunker.Chunk chunk : batch) {
+                hashes.add(chunk.hash().toBytes());
+                sinks.add(new BatchSink(new RangeSink(channel, chunk.offset(), chunk.length(), chunkCallback)));
             }
-        } finally {
-            if (exception == null) {
-                setBusy(false);
+
+            chain = chain.thenCompose(ignored -> exchange(hashesRequest(CHUNK_REQUEST_TYPE, hashes), sinks))
+                    .thenRun(() -> BatchSink.throwIfRefused(sinks, "chunks"));
+        }
+
+        return chain.whenComplete((ignored, throwable) -> {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close {}", target, e);
             }
+        }).thenApply(ignored -> target);
+    }
+
+    /**
+     * Sends file requests for all the files over this connection.
+     * On protocol v3 up to {@link NetUtils#MAX_BATCH_FILES} hashes go in a single batch request and the server streams
+     * the responses back to back, older servers get one request per file.
+     * A file the server doesn't have doesn't stop the others of the batch or the following batches, the returned future
+     * fails with a {@link ServerErrorException} naming the missing files once the others are downloaded.
+     */
+    public CompletableFuture<List<Path>> sendDownloadFiles(List<byte[]> fileHashes, List<Path> destinations, IntConsumer chunkCallback) {
+        boolean batched = protocolVersion >= PROTOCOL_VERSION_3;
+        int batchSize = batched ? MAX_BATCH_FILES : 1;
+        CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+        List<BatchSink> allSinks = new ArrayList<>(fileHashes.size());
+        for (int start = 0; start < fileHashes.size(); start += batchSize) {
+            List<byte[]> batch = fileHashes.subList(start, Math.min(start + batchSize, fileHashes.size()));
+            List<ClientResponseHandler.ResponseSink> sinks = new ArrayList<>(batch.size());
+            for (int i = start; i < start + batch.size(); i++) {
+                FileSink sink = new FileSink(destinations.get(i), false, chunkCallback);
+                if (batched) { // older servers close the connection after an error anyway
+                    BatchSink batchSink = new BatchSink(sink);
+                    allSinks.add(batchSink);
+                    sinks.add(batchSink);
+                } else {
+                    sinks.add(sink);
+                }
+            }
+
+            // One complete response (header, data, EOT) or error per file, in the requested order
+            chain = chain.thenCompose(ignored -> exchange(batched ? hashesRequest(FILE_BATCH_REQUEST_TYPE, batch) : fileRequest(batch.get(0)), sinks));
         }
+        return chain.thenApply(ignored -> {
+            BatchSink.throwIfRefused(allSinks, "files");
+            return List.copyOf(destinations);
+        });
     }
 
     /**
-     * Compresses (if enabled) and writes a protocol message using the negotiated compression algorithm in chunks.
-     * Each chunk is framed individually.
-     * Framing without compression: [int: chunkLength][chunk payload].
-     * Framing with compression: [int: compressedChunkLength][int: originalChunkLength][compressed chunk payload].
+     * Requests the modpack content file over this connection. The server may instead reply that the etag is the SHA-1
+     * of the current one, or with delta set, send the changes since the version with the etag, which are left in the sink.
+     * Servers before protocol v3 always send the file.
+     *
+     * @param etag the SHA-1 of the content file at the destination, null if there is none
      */
-    private void writeProtocolMessage(byte[] payload) throws IOException {
-        int offset = 0;
-        while (offset < payload.length) {
-            int bytesToSend = Math.min(payload.length - offset, CHUNK_SIZE);
-            byte[] chunk = new byte[bytesToSend];
-            System.arraycopy(payload, offset, chunk, 0, bytesToSend);
-            byte[] compressedChunk = getCodec().compress(chunk);
-            out.writeInt(compressedChunk.length);
-            out.writeInt(chunk.length);
-            out.write(compressedChunk);
-            offset += bytesToSend;
+    public CompletableFuture<ManifestSink> sendManifestRequest(HashKey etag, boolean delta, Path destination) {
+        ManifestSink sink = new ManifestSink(destination);
+        if (protocolVersion < PROTOCOL_VERSION_3) {
+            return exchange(fileRequest(new byte[0]), List.of(sink)).thenApply(ignored -> sink);
         }
-        out.flush();
+
+        // [protocolVersion][MANIFEST_REQUEST_TYPE or MANIFEST_DELTA_REQUEST_TYPE][secret][int: etag.length][etag]
+        byte[] etagBytes = etag == null ? new byte[0] : etag.toBytes();
+        ByteBuf request = request(delta && etag != null ? MANIFEST_DELTA_REQUEST_TYPE : MANIFEST_REQUEST_TYPE);
+        request.writeInt(etagBytes.length);
+        request.writeBytes(etagBytes);
+        return exchange(request, List.of(sink)).thenApply(ignored -> sink);
+    }
+
+    /**
+     * Sends a refresh request over this connection.
+     */
+    public CompletableFuture<Path> sendRefreshRequest(byte[][] fileHashes, Path destination) {
+        return exchange(hashesRequest(REFRESH_REQUEST_TYPE, Arrays.asList(fileHashes)), List.of(new FileSink(destination, false, null)))
+                .thenApply(ignored -> destination);
     }
 
     /**
-     * Reads one framed protocol message, decompressing it with the negotiated compression algorithm.
+     * Closes the underlying channel.
      */
-    private byte[] readProtocolMessageFrame() throws IOException {
-        int compressedLength = in.readInt();
-        int originalLength = in.readInt();
+    @Override
+    public void close() {
+        open = false;
+        channel.close();
+    }
+}
+
+/**
+ * Writes a file response to its own file, from its start or appended to what the file already holds.
+ */
+class FileSink implements ClientResponseHandler.ResponseSink {
+    private final Path destination;
+    private final boolean append;
+    private final IntConsumer chunkCallback;
+    private FileChannel channel;
+
+    FileSink(Path destination, boolean append, IntConsumer chunkCallback) {
+        this.destination = destination;
+        this.append = append;
+        this.chunkCallback = chunkCallback;
+    }
+
+    @Override
+    public void start(long size) throws IOException {
+        channel = FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.WRITE, append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+    }
 
-        if (compressedLength < 0 || originalLength < 0) {
-            throw new IllegalArgumentException("Invalid compressed or original length");
+    @Override
+    public void data(ByteBuf data) throws IOException {
+        int length = data.readableBytes();
+        while (data.isReadable()) {
+            data.readBytes(channel, data.readableBytes());
         }
 
-        if (originalLength > CHUNK_SIZE) {
-            throw new IllegalArgumentException("Original length exceeds maximum packet size");
+        if (chunkCallback != null) {
+            chunkCallback.accept(length);
         }
+    }
+
+    @Override
+    public void end() throws IOException {
+        channel.close();
+    }
 
-        byte[] compressed = new byte[compressedLength];
-        in.readFully(compressed);
+    @Override
+    public void abort() {
+        if (channel == null) { // the file couldn't be opened
+            return;
+        }
 
-        return getCodec().decompress(compressed, originalLength);
+        // whatever arrived stays in the file for a resumed download
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.debug("Failed to close {}", destination, e);
+        }
     }
+}
 
-    /**
-     * Processes a file/refresh response according to your protocol.
-     * The response is expected to have:
-     * - A header frame: [protocolVersion][messageType][(if FILE_RESPONSE_TYPE) long expectedFileSize]
-     * - One or more data frames containing file data until the total file size is reached.
-     * - A final frame: [protocolVersion][END_OF_TRANSMISSION]
-     */
-    private Path readFileResponse(Path destination, IntConsumer chunkCallback) throws IOException {
-        // Header frame
-        byte[] headerFrame = readProtocolMessageFrame();
-        try (DataInputStream headerIn = new DataInputStream(new ByteArrayInputStream(headerFrame))) {
-            byte version = headerIn.readByte();
-            byte messageType = headerIn.readByte();
-
-            if (messageType == ERROR) {
-                int errLen = headerIn.readInt();
-                byte[] errBytes = new byte[errLen];
-                headerIn.readFully(errBytes);
-                throw new IOException("Server error: " + new String(errBytes));
-            }
+/**
+ * One response of a batch, which the server may answer with an error in its place while it goes on with the rest of the batch.
+ * Nothing was written for a refused response.
+ */
+class BatchSink implements ClientResponseHandler.ResponseSink {
+    private final ClientResponseHandler.ResponseSink sink;
+    private ServerErrorException refusal;
 
-            long receivedBytes = 0;
-            OutputStream fos = new FileOutputStream(destination.toFile());
+    BatchSink(ClientResponseHandler.ResponseSink sink) {
+        this.sink = sink;
+    }
 
-            if (messageType == END_OF_TRANSMISSION) {
-                fos.close();
-                return destination;
+    // Fails with the refusals of the sinks, if there are any
+    static void throwIfRefused(List<BatchSink> sinks, String what) {
+        int refused = 0;
+        ServerErrorException first = null;
+        for (BatchSink sink : sinks) {
+            if (sink.refusal != null) {
+                refused++;
+                first = first == null ? sink.refusal : first;
             }
+        }
 
-            if (messageType != FILE_RESPONSE_TYPE) {
-                fos.close();
-                throw new IOException("Unexpected message type: " + messageType);
-            }
+        if (first != null) {
+            throw new CompletionException(new ServerErrorException("Server refused " + refused + " of " + sinks.size() + " " + what + ", first: " + first.getMessage()));
+        }
+    }
 
-            long expectedFileSize = headerIn.readLong();
+    @Override
+    public void start(long size) throws IOException {
+        sink.start(size);
+    }
 
-            // Read data frames until the expected file size is received.
-            while (receivedBytes < expectedFileSize) {
-                byte[] dataFrame = readProtocolMessageFrame();
-                int toWrite = Math.min(dataFrame.length, (int) (expectedFileSize - receivedBytes));
+    @Override
+    public void data(ByteBuf data) throws IOException {
+        sink.data(data);
+    }
 
-                fos.write(dataFrame, 0, toWrite);
-                receivedBytes += toWrite;
+    @Override
+    public void end() throws IOException {
+        sink.end();
+    }
 
-                if (chunkCallback != null) {
-                    chunkCallback.accept(toWrite);
-                }
-            }
+    @Override
+    public void refused(ServerErrorException error) {
+        refusal = error;
+    }
 
-            fos.close();
+    @Override
+    public void abort() {
+        sink.abort();
+    }
+}
 
-            // Read EOT frame
-            byte[] eotFrame = readProtocolMessageFrame();
-            try (DataInputStream eotIn = new DataInputStream(new ByteArrayInputStream(eotFrame))) {
-                byte ver = eotIn.readByte();
-                byte eotType = eotIn.readByte();
+/**
+ * Writes the modpack content file, or leaves it as it is if the server replied that it's not modified.
+ * A delta of the content is kept in memory, to be applied off the event loop.
+ */
+class ManifestSink extends FileSink {
+    private boolean modified = true;
+    private ByteArrayOutputStream delta;
 
-                if (ver != version || eotType != END_OF_TRANSMISSION) {
-                    throw new IOException("Invalid end-of-transmission marker. Expected version " + version + " and type " + END_OF_TRANSMISSION + ", got version " + ver + " and type " + eotType);
-                }
-            }
+    ManifestSink(Path destination) {
+        super(destination, false, null);
+    }
 
-            return destination;
+    @Override
+    public void startDelta(long size) throws IOException {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("Modpack content delta too large: " + size);
+        }
+        delta = new ByteArrayOutputStream((int) size);
+    }
+
+    @Override
+    public void data(ByteBuf data) throws IOException {
+        if (delta == null) {
+            super.data(data);
+        } else {
+            data.readBytes(delta, data.readableBytes());
+        }
+    }
+
+    @Override
+    public void end() throws IOException {
+        if (delta == null) {
+            super.end();
+        }
+    }
+
+    @Override
+    public void abort() {
+        if (delta == null) {
+            super.abort();
         }
     }
 
+    @Override
+    public void notModified() {
+        modified = false;
+    }
+
+    boolean isModified() {
+        return modified;
+    }
+
     /**
-     * Closes the underlying socket and shuts down the executor.
+     * The encoded {@link ContentGenerations.Delta} the server answered with, null if it sent the whole file.
      */
+    byte[] getDelta() {
+        return delta == null ? null : delta.toByteArray();
+    }
+}
+
+/**
+ * Writes a ranged file response at its position of a channel shared with the other ranges of the file.
+ */
+class RangeSink implements ClientResponseHandler.ResponseSink {
+    private final FileChannel target;
+    private final long length;
+    private final IntConsumer chunkCallback;
+    private long position;
+
+    RangeSink(FileChannel target, long offset, long length, IntConsumer chunkCallback) {
+        this.target = target;
+        this.position = offset;
+        this.length = length;
+        this.chunkCallback = chunkCallback;
+    }
+
     @Override
-    public void close() {
-        try {
-            socket.close();
-        } catch (Exception e) {
-            // Log or handle as needed.
+    public void start(long size) throws IOException {
+        if (size != length) {
+            throw new IOException("Server sent " + size + " bytes instead of the requested " + length);
         }
-        executor.shutdownNow();
+    }
+
+    @Override
+    public void data(ByteBuf data) throws IOException {
+        int length = data.readableBytes();
+        while (data.isReadable()) {
+            position += data.readBytes(target, position, data.readableBytes());
+        }
+
+        if (chunkCallback != null) {
+            chunkCallback.accept(length);
+        }
+    }
+
+    @Override
+    public void end() {
+    }
+
+    @Override
+    public void abort() {
     }
 }
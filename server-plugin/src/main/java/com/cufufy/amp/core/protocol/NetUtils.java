@@ -31,6 +31,7 @@ public class NetUtils {
     // Protocol versions
     public static final byte PROTOCOL_VERSION_1 = 0x01;
     public static final byte PROTOCOL_VERSION_2 = 0x02;
+    public static final byte PROTOCOL_VERSION_3 = 0x03; // batched and ranged file requests
 
     // Compression types
     public static final byte COMPRESSION_NONE = 0x00;
@@ -43,6 +44,16 @@ public class NetUtils {
     public static final byte REFRESH_REQUEST_TYPE = 0x03;
     public static final byte END_OF_TRANSMISSION = 0x04;
     public static final byte ERROR = 0x05;
+    public static final byte FILE_BATCH_REQUEST_TYPE = 0x06;
+    public static final byte FILE_RANGE_REQUEST_TYPE = 0x07;
+    public static final byte MANIFEST_REQUEST_TYPE = 0x08;
+    public static final byte MANIFEST_NOT_MODIFIED = 0x09;
+    public static final byte MANIFEST_DELTA_REQUEST_TYPE = 0x0A;
+    public static final byte MANIFEST_DELTA_RESPONSE = 0x0B;
+    public static final byte CHUNK_REQUEST_TYPE = 0x0C;
+
+    // Keeps a batch request well within a single CHUNK_SIZE frame
+    public static final int MAX_BATCH_FILES = 256;
 
     public static String getFingerprint(X509Certificate cert) throws CertificateEncodingException {
         byte[] certificate = cert.getEncoded();
@@ -0,0 +1,14 @@
+package com.cufufy.amp.core.protocol;
+
+import java.io.IOException;
+
+/**
+ * An error reported by the server in an ERROR message, as opposed to a failure of the connection itself.
+ */
+public class ServerErrorException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ServerErrorException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,186 @@
+package com.cufufy.amp.core.protocol.compression;
+
+import com.cufufy.amp.core.utils.CustomThreadFactoryBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import static com.cufufy.amp.core.GlobalVariables.LOGGER;
+import static com.cufufy.amp.core.protocol.NetUtils.COMPRESSION_NONE;
+
+/**
+ * Content addressed on-disk cache of already compressed files.
+ * Each cache file holds the whole file as the exact frames {@code [compressedLength][originalLength][data]}
+ * which the compression encoder would produce for it, so it can be streamed to the socket as it is.
+ * Cache files are keyed by (sha1, codec, compression level, chunk size) and built lazily in the background on the first request,
+ * until then the file is compressed on the fly as usual.
+ * A build which failed, e.g. because the file changed since it was hashed, isn't retried for the same size and
+ * modification time of the file until the next {@link #retain}.
+ */
+public class CompressedChunkCache {
+    private static final String SUFFIX = ".frames";
+    private final Path cacheDir;
+    private final int chunkSize;
+    private final Set<String> building = ConcurrentHashMap.newKeySet();
+    // cache file names with the size and modification time of the source they failed to build from
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+    private final Executor executor;
+
+    public CompressedChunkCache(Path cacheDir, int chunkSize) {
+        this(cacheDir, chunkSize, Executors.newSingleThreadExecutor(
+                new CustomThreadFactoryBuilder().setNameFormat("AutoModpackChunkCache-%d").setDaemon(true).setPriority(Thread.MIN_PRIORITY).build()));
+    }
+
+    CompressedChunkCache(Path cacheDir, int chunkSize, Executor executor) {
+        this.cacheDir = cacheDir;
+        this.chunkSize = chunkSize;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the cached frames of the file, or schedules building them and returns empty if they aren't cached yet.
+     *
+     * @param sha1   sha1 of the file content
+     * @param source the file itself, used to build the cache
+     * @param codec  codec the frames are compressed with
+     */
+    public Optional<Path> getOrSchedule(String sha1, Path source, CompressionCodec codec) {
+        if (codec.getCompressionType() == COMPRESSION_NONE || sha1 == null || sha1.isBlank()) {
+            return Optional.empty();
+        }
+
+        Path cacheFile = cacheFile(sha1, codec);
+        if (Files.isRegularFile(cacheFile)) {
+            return Optional.of(cacheFile);
+        }
+
+        String key = cacheFile.getFileName().toString();
+        String attempt = key + "@" + stamp(source);
+        if (failed.contains(attempt)) {
+            return Optional.empty();
+        }
+
+        if (building.add(key)) {
+            executor.execute(() -> {
+                // the channel's codec instance belongs to its event loop, use an own one
+                CompressionCodec builderCodec = CompressionFactory.newChannelCodec(codec.getCompressionType(), codec.getCompressionLevel());
+                boolean built = false;
+                try {
+                    built = build(sha1, source, builderCodec, cacheFile);
+                } catch (Exception e) {
+                    LOGGER.warn("Failed to build compressed cache of {}", source, e);
+                } finally {
+                    if (!built) {
+                        failed.add(attempt);
+                    }
+                    if (builderCodec instanceof DirectCompressionCodec directCodec) {
+                        directCodec.release();
+                    }
+                    building.remove(key);
+                }
+            });
+        }
+
+        return Optional.empty();
+    }
+
+    Path cacheFile(String sha1, CompressionCodec codec) {
+        return cacheDir.resolve(sha1 + "-" + codec.getCompressionType() + "-" + codec.getCompressionLevel() + "-" + chunkSize + SUFFIX);
+    }
+
+    // Size and modification time of the file, a file which can't be read has none
+    private static String stamp(Path source) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+            return attributes.size() + "-" + attributes.lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            return "unreadable";
+        }
+    }
+
+    // Returns false if the file didn't match the sha1, nothing is cached then
+    boolean build(String sha1, Path source, CompressionCodec codec, Path cacheFile) throws IOException {
+        Files.createDirectories(cacheDir);
+        Path temp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        MessageDigest digest = sha1Digest();
+
+        try (InputStream in = Files.newInputStream(source);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 256 * 1024))) {
+            byte[] chunk = new byte[chunkSize];
+            int read;
+            while ((read = in.readNBytes(chunk, 0, chunkSize)) > 0) {
+                byte[] input = read == chunkSize ? chunk : Arrays.copyOf(chunk, read);
+                digest.update(input);
+                byte[] compressed = codec.compress(input);
+                out.writeInt(compressed.length);
+                out.writeInt(read);
+                out.write(compressed);
+            }
+        }
+
+        // the file could have changed since it was hashed, don't cache other content under this sha1
+        if (!sha1.equals(HexFormat.of().formatHex(digest.digest()))) {
+            Files.deleteIfExists(temp);
+            LOGGER.debug("Not caching {}, its content doesn't match sha1 {}", source, sha1);
+            return false;
+        }
+
+        try {
+            Files.move(temp, cacheFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return true;
+    }
+
+    /**
+     * Deletes cached files of content which is no longer hosted, and lets failed builds be tried again.
+     */
+    public void retain(Set<String> hostedSha1s) {
+        failed.clear();
+        executor.execute(() -> {
+            if (!Files.isDirectory(cacheDir)) {
+                return;
+            }
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDir)) {
+                for (Path file : stream) {
+                    String name = file.getFileName().toString();
+                    int dash = name.indexOf('-');
+                    if (dash > 0 && hostedSha1s.contains(name.substring(0, dash)) && name.endsWith(SUFFIX)) {
+                        continue;
+                    }
+
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Failed to clean compressed cache", e);
+            }
+        });
+    }
+
+    private static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+}
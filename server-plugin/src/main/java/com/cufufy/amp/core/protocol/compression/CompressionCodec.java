@@ -27,6 +27,15 @@ public interface CompressionCodec {
      */
     byte[] decompress(byte[] compressed, int originalLength) throws IOException;
 
+    /**
+     * Gets the compression level used by this codec, 0 if the codec has no levels.
+     *
+     * @return the compression level
+     */
+    default int getCompressionLevel() {
+        return 0;
+    }
+
     /**
      * Gets the compression type identifier for this codec.
      *
@@ -25,6 +25,23 @@ public class CompressionFactory {
         };
     }
 
+    /**
+     * Gets a compression codec for use by a single channel.
+     * Codecs which keep per stream state (Deflater/Inflater, Zstd contexts) get a fresh instance, the others are shared.
+     *
+     * @param compressionType the compression type constant from NetUtils
+     * @param zstdLevel the Zstd compression level
+     * @return the compression codec
+     * @throws IllegalArgumentException if the compression type is not supported
+     */
+    public static CompressionCodec newChannelCodec(byte compressionType, int zstdLevel) {
+        return switch (compressionType) {
+            case COMPRESSION_ZSTD -> new ZstdCompression(zstdLevel, true);
+            case COMPRESSION_GZIP -> new GzipCompression();
+            default -> getCodec(compressionType);
+        };
+    }
+
     private static class Zstd {
         private static final ZstdCompression CODEC = new ZstdCompression();
     }
@@ -0,0 +1,58 @@
+package com.cufufy.amp.core.protocol.compression;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+/**
+ * Compression codec which can work straight on direct netty buffers, so data doesn't have to be copied to byte arrays.
+ * Implementations may keep native state (e.g. Deflater), instances should be obtained per channel with
+ * {@link CompressionFactory#newChannelCodec(byte, int)}, used only from the channel event loop and released with the channel.
+ */
+public interface DirectCompressionCodec extends CompressionCodec {
+
+    /**
+     * Gets the maximum size the compressed data of the given length can take.
+     *
+     * @param length the length of the uncompressed data
+     * @return the worst case compressed length
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * Compresses all readable bytes of the source into the destination, advancing both reader and writer index.
+     * Both buffers have to be direct with a single nio buffer, destination needs at least
+     * {@link #maxCompressedLength(int)} writable bytes.
+     *
+     * @param src the data to compress
+     * @param dst the buffer to write the compressed data to
+     * @return the compressed length
+     * @throws IOException if compression fails
+     */
+    int compress(ByteBuf src, ByteBuf dst) throws IOException;
+
+    /**
+     * Decompresses the given number of bytes of the source into the destination, advancing both reader and writer index.
+     * Both buffers have to be direct with a single nio buffer, destination needs at least originalLength writable bytes.
+     *
+     * @param src the compressed data
+     * @param compressedLength the length of the compressed data
+     * @param dst the buffer to write the decompressed data to
+     * @param originalLength the expected length of the decompressed data
+     * @throws IOException if decompression fails
+     */
+    void decompress(ByteBuf src, int compressedLength, ByteBuf dst, int originalLength) throws IOException;
+
+    /**
+     * Frees native state held by this codec instance, if any.
+     */
+    default void release() {
+    }
+
+    /**
+     * Checks whether the buffer can be passed to the direct methods.
+     */
+    static boolean isDirect(ByteBuf buf) {
+        return buf.isDirect() && buf.nioBufferCount() == 1;
+    }
+}
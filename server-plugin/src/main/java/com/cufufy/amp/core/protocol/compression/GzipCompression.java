@@ -1,17 +1,36 @@
 package com.cufufy.amp.core.protocol.compression;
 
+import io.netty.buffer.ByteBuf;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
 
 import static com.cufufy.amp.core.protocol.NetUtils.COMPRESSION_GZIP;
 
 /**
  * GZIP compression codec implementation.
+ * The direct buffer methods reuse one Deflater/Inflater per instance and write the gzip header and trailer by hand,
+ * producing the same format as GZIPOutputStream.
  */
-public class GzipCompression implements CompressionCodec {
+public class GzipCompression implements DirectCompressionCodec {
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int TRAILER_LENGTH = 8;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final CRC32 crc = new CRC32();
+    private Deflater deflater;
+    private Inflater inflater;
 
     @Override
     public byte[] compress(byte[] input) throws IOException {
@@ -48,6 +67,130 @@ public class GzipCompression implements CompressionCodec {
         }
     }
 
+    @Override
+    public int maxCompressedLength(int length) {
+        // stored blocks in the worst case, 5 bytes of overhead per 16 KB block
+        return HEADER.length + length + 5 * (length / 16383 + 1) + TRAILER_LENGTH;
+    }
+
+    @Override
+    public int compress(ByteBuf src, ByteBuf dst) throws IOException {
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+
+        int length = src.readableBytes();
+        int start = dst.writerIndex();
+        dst.writeBytes(HEADER);
+
+        ByteBuffer input = src.internalNioBuffer(src.readerIndex(), length);
+        int inputPosition = input.position();
+        crc.reset();
+        crc.update(input);
+        input.position(inputPosition);
+
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+
+        ByteBuffer output = dst.internalNioBuffer(dst.writerIndex(), dst.writableBytes());
+        int outputPosition = output.position();
+        while (!deflater.finished()) {
+            if (deflater.deflate(output) == 0 && !output.hasRemaining()) {
+                throw new IOException("Failed to compress data with GZIP, output buffer too small");
+            }
+        }
+
+        dst.writerIndex(dst.writerIndex() + output.position() - outputPosition);
+        dst.writeIntLE((int) crc.getValue());
+        dst.writeIntLE(length);
+        src.skipBytes(length);
+        return dst.writerIndex() - start;
+    }
+
+    @Override
+    public void decompress(ByteBuf src, int compressedLength, ByteBuf dst, int originalLength) throws IOException {
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+
+        int end = src.readerIndex() + compressedLength;
+        int index = readHeader(src, end);
+        if (end - index < TRAILER_LENGTH) {
+            throw new IOException("Failed to decompress data with GZIP, data truncated");
+        }
+
+        inflater.reset();
+        inflater.setInput(src.internalNioBuffer(index, end - index - TRAILER_LENGTH));
+
+        ByteBuffer output = dst.internalNioBuffer(dst.writerIndex(), originalLength);
+        int outputPosition = output.position();
+        try {
+            while (!inflater.finished()) {
+                if (inflater.inflate(output) == 0 && (inflater.needsInput() || !output.hasRemaining() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Failed to decompress data with GZIP", e);
+        }
+
+        int totalRead = output.position() - outputPosition;
+        if (!inflater.finished() || totalRead != originalLength) {
+            throw new IOException("Decompressed length (" + totalRead + ") does not match expected length (" + originalLength + ")");
+        }
+
+        output.position(outputPosition);
+        crc.reset();
+        crc.update(output);
+        if ((int) crc.getValue() != src.getIntLE(end - TRAILER_LENGTH)) {
+            throw new IOException("Failed to decompress data with GZIP, CRC mismatch");
+        }
+
+        dst.writerIndex(dst.writerIndex() + originalLength);
+        src.readerIndex(end);
+    }
+
+    // Returns index of the deflate data following the gzip header
+    private static int readHeader(ByteBuf src, int end) throws IOException {
+        int index = src.readerIndex();
+        if (end - index < HEADER.length || src.getUnsignedShortLE(index) != 0x8b1f || src.getByte(index + 2) != Deflater.DEFLATED) {
+            throw new IOException("Failed to decompress data with GZIP, not in GZIP format");
+        }
+
+        int flags = src.getUnsignedByte(index + 3);
+        index += HEADER.length;
+        if ((flags & FEXTRA) != 0) {
+            index += 2 + src.getUnsignedShortLE(index);
+        }
+        if ((flags & FNAME) != 0) {
+            index = src.indexOf(index, end, (byte) 0) + 1;
+        }
+        if ((flags & FCOMMENT) != 0) {
+            index = src.indexOf(index, end, (byte) 0) + 1;
+        }
+        if ((flags & FHCRC) != 0) {
+            index += 2;
+        }
+
+        if (index <= 0 || index > end) {
+            throw new IOException("Failed to decompress data with GZIP, invalid header");
+        }
+        return index;
+    }
+
+    @Override
+    public void release() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
     @Override
     public byte getCompressionType() {
         return COMPRESSION_GZIP;
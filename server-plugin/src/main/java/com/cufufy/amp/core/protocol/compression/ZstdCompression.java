@@ -1,12 +1,15 @@
 package com.cufufy.amp.core.protocol.compression;
 
+import io.netty.buffer.ByteBuf;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
-import java.lang.reflect.Method;
+import java.lang.invoke.MethodType;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -15,41 +18,126 @@ import static com.cufufy.amp.core.protocol.NetUtils.COMPRESSION_ZSTD;
 
 /**
  * Zstandard compression codec implementation.
- * Loads the embedded /META-INF/jarjar/zstd-jni.jar from inside the automodpack jar
+ * Loads the embedded /META-INF/jarjar/zstd-jni.jar from inside the automodpack jar,
+ * or zstd-jni from the own classpath if it isn't embedded.
+ * <p>
+ * Instances created with {@link #ZstdCompression(int, boolean)} reusing contexts keep a native
+ * ZstdCompressCtx/ZstdDecompressCtx pair, so they must be used by a single channel only and released with it.
+ * Other instances use the stateless one-shot api and can be shared.
  */
-public class ZstdCompression implements CompressionCodec {
+public class ZstdCompression implements DirectCompressionCodec {
+
+    public static final int DEFAULT_LEVEL = 3;
+    public static final int MIN_LEVEL = 1;
+    public static final int MAX_LEVEL = 22;
 
+    // one-shot api
     private static final MethodHandle compressMethodHandle;
     private static final MethodHandle decompressMethodHandle;
+    private static final MethodHandle compressDirectMethodHandle;
+    private static final MethodHandle decompressDirectMethodHandle;
+    private static final MethodHandle compressBoundMethodHandle;
+    private static final MethodHandle isErrorMethodHandle;
+    private static final MethodHandle getErrorNameMethodHandle;
+    // context api, receivers are typed as Object since the classes live in another class loader
+    private static final MethodHandle newCompressCtxMethodHandle;
+    private static final MethodHandle setLevelMethodHandle;
+    private static final MethodHandle ctxCompressMethodHandle;
+    private static final MethodHandle ctxCompressDirectMethodHandle;
+    private static final MethodHandle closeCompressCtxMethodHandle;
+    private static final MethodHandle newDecompressCtxMethodHandle;
+    private static final MethodHandle ctxDecompressMethodHandle;
+    private static final MethodHandle ctxDecompressDirectMethodHandle;
+    private static final MethodHandle closeDecompressCtxMethodHandle;
 
     static {
         try {
-            Path tempJar = Files.createTempFile("zstd-jni-", ".jar");
-            try (InputStream in = ZstdCompression.class.getResourceAsStream("/META-INF/jarjar/zstd-jni.jar")) {
-                if (in == null) {
-                    throw new IOException("Failed to open stream to embedded /META-INF/jarjar/zstd-jni.jar");
-                }
-                Files.copy(in, tempJar, StandardCopyOption.REPLACE_EXISTING);
-            }
-            tempJar.toFile().deleteOnExit();
-
-            URLClassLoader loader = new URLClassLoader(new URL[]{tempJar.toUri().toURL()}, ZstdCompression.class.getClassLoader());
+            ClassLoader loader = zstdClassLoader();
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
 
             Class<?> zstdClass = Class.forName("com.github.luben.zstd.Zstd", true, loader);
-            Method compressMethod = zstdClass.getMethod("compress", byte[].class);
-            Method decompressMethod = zstdClass.getMethod("decompress", byte[].class, int.class);
+            compressMethodHandle = lookup.unreflect(zstdClass.getMethod("compress", byte[].class, int.class));
+            decompressMethodHandle = lookup.unreflect(zstdClass.getMethod("decompress", byte[].class, int.class));
+
+            // direct buffer api, (dst, dstOffset, dstSize, src, srcOffset, srcSize[, level])
+            compressDirectMethodHandle = lookup.unreflect(zstdClass.getMethod("compressDirectByteBuffer",
+                    ByteBuffer.class, int.class, int.class, ByteBuffer.class, int.class, int.class, int.class));
+            decompressDirectMethodHandle = lookup.unreflect(zstdClass.getMethod("decompressDirectByteBuffer",
+                    ByteBuffer.class, int.class, int.class, ByteBuffer.class, int.class, int.class));
+            compressBoundMethodHandle = lookup.unreflect(zstdClass.getMethod("compressBound", long.class));
+            isErrorMethodHandle = lookup.unreflect(zstdClass.getMethod("isError", long.class));
+            getErrorNameMethodHandle = lookup.unreflect(zstdClass.getMethod("getErrorName", long.class));
+
+            Class<?> compressCtxClass = Class.forName("com.github.luben.zstd.ZstdCompressCtx", true, loader);
+            newCompressCtxMethodHandle = lookup.findConstructor(compressCtxClass, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            setLevelMethodHandle = lookup.unreflect(compressCtxClass.getMethod("setLevel", int.class))
+                    .asType(MethodType.methodType(void.class, Object.class, int.class));
+            ctxCompressMethodHandle = lookup.unreflect(compressCtxClass.getMethod("compress", byte[].class))
+                    .asType(MethodType.methodType(byte[].class, Object.class, byte[].class));
+            ctxCompressDirectMethodHandle = lookup.unreflect(compressCtxClass.getMethod("compressDirectByteBuffer",
+                            ByteBuffer.class, int.class, int.class, ByteBuffer.class, int.class, int.class))
+                    .asType(MethodType.methodType(int.class, Object.class, ByteBuffer.class, int.class, int.class, ByteBuffer.class, int.class, int.class));
+            closeCompressCtxMethodHandle = lookup.unreflect(compressCtxClass.getMethod("close"))
+                    .asType(MethodType.methodType(void.class, Object.class));
 
-            compressMethodHandle = MethodHandles.lookup().unreflect(compressMethod);
-            decompressMethodHandle = MethodHandles.lookup().unreflect(decompressMethod);
+            Class<?> decompressCtxClass = Class.forName("com.github.luben.zstd.ZstdDecompressCtx", true, loader);
+            newDecompressCtxMethodHandle = lookup.findConstructor(decompressCtxClass, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            ctxDecompressMethodHandle = lookup.unreflect(decompressCtxClass.getMethod("decompress", byte[].class, int.class))
+                    .asType(MethodType.methodType(byte[].class, Object.class, byte[].class, int.class));
+            ctxDecompressDirectMethodHandle = lookup.unreflect(decompressCtxClass.getMethod("decompressDirectByteBuffer",
+                            ByteBuffer.class, int.class, int.class, ByteBuffer.class, int.class, int.class))
+                    .asType(MethodType.methodType(int.class, Object.class, ByteBuffer.class, int.class, int.class, ByteBuffer.class, int.class, int.class));
+            closeDecompressCtxMethodHandle = lookup.unreflect(decompressCtxClass.getMethod("close"))
+                    .asType(MethodType.methodType(void.class, Object.class));
         } catch (Exception e) {
             throw new RuntimeException("Failed to initialize embedded zstd-jni", e);
         }
     }
 
+    private static ClassLoader zstdClassLoader() throws IOException {
+        try (InputStream in = ZstdCompression.class.getResourceAsStream("/META-INF/jarjar/zstd-jni.jar")) {
+            if (in == null) {
+                // not embedded, e.g. shaded into the plugin jar
+                return ZstdCompression.class.getClassLoader();
+            }
+
+            Path tempJar = Files.createTempFile("zstd-jni-", ".jar");
+            Files.copy(in, tempJar, StandardCopyOption.REPLACE_EXISTING);
+            tempJar.toFile().deleteOnExit();
+            return new URLClassLoader(new URL[]{tempJar.toUri().toURL()}, ZstdCompression.class.getClassLoader());
+        }
+    }
+
+    private final int level;
+    private final boolean reuseContexts;
+    private Object compressCtx;
+    private Object decompressCtx;
+
+    /**
+     * Creates a stateless codec using the default compression level.
+     */
+    public ZstdCompression() {
+        this(DEFAULT_LEVEL, false);
+    }
+
+    /**
+     * @param level         compression level, clamped to {@link #MIN_LEVEL}..{@link #MAX_LEVEL}
+     * @param reuseContexts whether to keep native contexts between calls, the instance is then bound to a single channel
+     */
+    public ZstdCompression(int level, boolean reuseContexts) {
+        this.level = Math.max(MIN_LEVEL, Math.min(MAX_LEVEL, level));
+        this.reuseContexts = reuseContexts;
+    }
+
     @Override
     public byte[] compress(byte[] input) throws IOException {
         try {
-            return (byte[]) compressMethodHandle.invokeExact(input);
+            if (reuseContexts) {
+                return (byte[]) ctxCompressMethodHandle.invokeExact(compressCtx(), input);
+            }
+            return (byte[]) compressMethodHandle.invokeExact(input, level);
         } catch (Throwable e) {
             throw new IOException("Zstd compression failed", e);
         }
@@ -58,7 +146,12 @@ public class ZstdCompression implements CompressionCodec {
     @Override
     public byte[] decompress(byte[] compressed, int originalLength) throws IOException {
         try {
-            byte[] decompressed = (byte[]) decompressMethodHandle.invokeExact(compressed, originalLength);
+            byte[] decompressed;
+            if (reuseContexts) {
+                decompressed = (byte[]) ctxDecompressMethodHandle.invokeExact(decompressCtx(), compressed, originalLength);
+            } else {
+                decompressed = (byte[]) decompressMethodHandle.invokeExact(compressed, originalLength);
+            }
             if (decompressed.length != originalLength) {
                 throw new IOException("Unexpected decompressed length: " + decompressed.length + " (expected " + originalLength + ")");
             }
@@ -68,6 +161,115 @@ public class ZstdCompression implements CompressionCodec {
         }
     }
 
+    @Override
+    public int maxCompressedLength(int length) {
+        try {
+            return (int) (long) compressBoundMethodHandle.invokeExact((long) length);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Zstd compressBound failed", e);
+        }
+    }
+
+    @Override
+    public int compress(ByteBuf src, ByteBuf dst) throws IOException {
+        int length = src.readableBytes();
+        ByteBuffer input = src.internalNioBuffer(src.readerIndex(), length);
+        ByteBuffer output = dst.internalNioBuffer(dst.writerIndex(), dst.writableBytes());
+
+        long result;
+        try {
+            if (reuseContexts) {
+                result = (int) ctxCompressDirectMethodHandle.invokeExact(compressCtx(), output, output.position(), output.remaining(), input, input.position(), length);
+            } else {
+                result = (long) compressDirectMethodHandle.invokeExact(output, output.position(), output.remaining(), input, input.position(), length, level);
+            }
+        } catch (Throwable e) {
+            throw new IOException("Zstd compression failed", e);
+        }
+        checkError(result, "compression");
+
+        src.skipBytes(length);
+        dst.writerIndex(dst.writerIndex() + (int) result);
+        return (int) result;
+    }
+
+    @Override
+    public void decompress(ByteBuf src, int compressedLength, ByteBuf dst, int originalLength) throws IOException {
+        ByteBuffer input = src.internalNioBuffer(src.readerIndex(), compressedLength);
+        ByteBuffer output = dst.internalNioBuffer(dst.writerIndex(), originalLength);
+
+        long result;
+        try {
+            if (reuseContexts) {
+                result = (int) ctxDecompressDirectMethodHandle.invokeExact(decompressCtx(), output, output.position(), originalLength, input, input.position(), compressedLength);
+            } else {
+                result = (long) decompressDirectMethodHandle.invokeExact(output, output.position(), originalLength, input, input.position(), compressedLength);
+            }
+        } catch (Throwable e) {
+            throw new IOException("Zstd decompression failed", e);
+        }
+        checkError(result, "decompression");
+
+        if (result != originalLength) {
+            throw new IOException("Unexpected decompressed length: " + result + " (expected " + originalLength + ")");
+        }
+
+        src.skipBytes(compressedLength);
+        dst.writerIndex(dst.writerIndex() + originalLength);
+    }
+
+    private Object compressCtx() throws Throwable {
+        if (compressCtx == null) {
+            Object ctx = newCompressCtxMethodHandle.invokeExact();
+            setLevelMethodHandle.invokeExact(ctx, level);
+            compressCtx = ctx;
+        }
+        return compressCtx;
+    }
+
+    private Object decompressCtx() throws Throwable {
+        if (decompressCtx == null) {
+            decompressCtx = newDecompressCtxMethodHandle.invokeExact();
+        }
+        return decompressCtx;
+    }
+
+    private static void checkError(long result, String operation) throws IOException {
+        boolean error;
+        String errorName;
+        try {
+            error = (boolean) isErrorMethodHandle.invokeExact(result);
+            errorName = error ? (String) getErrorNameMethodHandle.invokeExact(result) : null;
+        } catch (Throwable e) {
+            throw new IOException("Zstd " + operation + " failed", e);
+        }
+
+        if (error) {
+            throw new IOException("Zstd " + operation + " failed: " + errorName);
+        }
+    }
+
+    @Override
+    public void release() {
+        try {
+            if (compressCtx != null) {
+                closeCompressCtxMethodHandle.invokeExact(compressCtx);
+            }
+            if (decompressCtx != null) {
+                closeDecompressCtxMethodHandle.invokeExact(decompressCtx);
+            }
+        } catch (Throwable ignored) {
+        } finally {
+            compressCtx = null;
+            decompressCtx = null;
+        }
+    }
+
+    @Override
+    public int getCompressionLevel() {
+        return level;
+    }
+
     @Override
     public byte getCompressionType() {
         return COMPRESSION_ZSTD;
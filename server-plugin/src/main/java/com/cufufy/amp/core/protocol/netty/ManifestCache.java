@@ -0,0 +1,122 @@
+package com.cufufy.amp.core.protocol.netty;
+
+import com.cufufy.amp.core.protocol.compression.CompressionCodec;
+import com.cufufy.amp.core.utils.HashKey;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the modpack content file in memory, so the first request of every client doesn't read and compress it again.
+ * The content is identified by its SHA-1, which clients holding the same file can send to skip downloading it.
+ * Has to be invalidated whenever the file is written.
+ */
+public class ManifestCache {
+    private final Path file;
+    private final int chunkSize;
+    private volatile Manifest current;
+
+    /**
+     * @param file      the modpack content file
+     * @param chunkSize the maximum length of uncompressed data in a frame
+     */
+    public ManifestCache(Path file, int chunkSize) {
+        this.file = file;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * One version of the modpack content file.
+     */
+    public class Manifest {
+        private final byte[] content;
+        private final HashKey etag;
+        // compression type and level -> the content as ready to send frames
+        private final Map<Integer, byte[]> frames = new ConcurrentHashMap<>();
+
+        private Manifest(byte[] content, HashKey etag) {
+            this.content = content;
+            this.etag = etag;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        /**
+         * The SHA-1 of the content.
+         */
+        public HashKey getEtag() {
+            return etag;
+        }
+
+        /**
+         * Gets the content compressed with the codec, as consecutive {@code [compressedLength][originalLength][data]} frames.
+         * Compressed once per codec and level, the codec has to be usable from the calling thread.
+         */
+        public byte[] getFrames(CompressionCodec codec) throws IOException {
+            int key = (codec.getCompressionType() & 0xFF) << 8 | codec.getCompressionLevel() & 0xFF;
+            byte[] cached = frames.get(key);
+            if (cached != null) {
+                return cached;
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 2 + 8);
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (int position = 0; position < content.length; position += chunkSize) {
+                byte[] chunk = Arrays.copyOfRange(content, position, Math.min(content.length, position + chunkSize));
+                byte[] compressed = codec.compress(chunk);
+                out.writeInt(compressed.length);
+                out.writeInt(chunk.length);
+                out.write(compressed);
+            }
+
+            byte[] compressedFrames = bytes.toByteArray();
+            frames.putIfAbsent(key, compressedFrames);
+            return compressedFrames;
+        }
+    }
+
+    /**
+     * Gets the current content, reading the file again if it was invalidated.
+     *
+     * @return the content, or null if there is no modpack content file
+     */
+    public Manifest get() throws IOException {
+        Manifest manifest = current;
+        if (manifest != null) {
+            return manifest;
+        }
+
+        synchronized (this) {
+            if (current == null && Files.isRegularFile(file)) {
+                byte[] content = Files.readAllBytes(file);
+                current = new Manifest(content, HashKey.fromWire(sha1(content)));
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Forgets the cached content, the next request reads the file again.
+     */
+    public synchronized void invalidate() {
+        current = null;
+    }
+
+    private static byte[] sha1(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -20,35 +20,40 @@ import java.nio.file.Path;
 import java.security.KeyPair;
 import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import com.cufufy.amp.core.config.ConfigTools;
 import com.cufufy.amp.core.protocol.NetUtils;
+import com.cufufy.amp.core.protocol.compression.CompressedChunkCache;
 import com.cufufy.amp.core.protocol.netty.handler.ProtocolServerHandler;
 import com.cufufy.amp.core.utils.AddressHelpers;
 import com.cufufy.amp.core.utils.CustomThreadFactoryBuilder;
+import com.cufufy.amp.core.utils.ContentChunker;
+import com.cufufy.amp.core.utils.HashKey;
 import com.cufufy.amp.core.utils.ObservableMap;
 
 public class NettyServer {
 
     public static final AttributeKey<Byte> COMPRESSION_TYPE = AttributeKey.valueOf("compressionType");
     public static final AttributeKey<Byte> PROTOCOL_VERSION = AttributeKey.valueOf("protocolVersion");
-    private final Map<Channel, String> connections = Collections.synchronizedMap(new HashMap<>());
-    private final Map<String, Path> paths = Collections.synchronizedMap(new HashMap<>());
+    private final Map<Channel, String> connections = new ConcurrentHashMap<>();
+    // sha1 -> path of the hosted files, replaced as a whole by every generation so file requests never wait for it
+    private volatile Map<HashKey, Path> paths = new ConcurrentHashMap<>();
+    // content chunk sha1 -> where to read it from, replaced as a whole on every save of the modpack content
+    private volatile Map<HashKey, ContentChunker.FileChunk> contentChunks = Map.of();
     private MultithreadEventLoopGroup eventLoopGroup;
     private ChannelFuture serverChannel;
     private Boolean shouldHost = false; // needed for stop modpack hosting for minecraft port
     private String certificateFingerprint;
     private SslContext sslCtx;
+    private CompressedChunkCache chunkCache;
+    private ManifestCache manifestCache;
 
     public void addConnection(Channel channel, String secret) {
-        synchronized (connections) {
-            connections.put(channel, secret);
-        }
+        connections.put(channel, secret);
     }
 
     public void removeConnection(Channel channel) {
-        synchronized (connections) {
-            connections.remove(channel);
-        }
+        connections.remove(channel);
     }
 
     public Map<Channel, String> getConnections() {
@@ -59,20 +64,58 @@ public class NettyServer {
         return certificateFingerprint;
     }
 
-    public void addPaths(ObservableMap<String, Path> paths) {
-        this.paths.putAll(paths.getMap());
-        paths.addOnPutCallback(this.paths::put);
-        paths.addOnRemoveCallback(this.paths::remove);
+    /**
+     * Publishes the paths of a newly generated modpack, replacing the previously hosted ones at once.
+     * Single file changes made to the map afterwards are applied to the published paths until the next generation.
+     */
+    public void addPaths(ObservableMap<HashKey, Path> paths) {
+        ConcurrentHashMap<HashKey, Path> generation;
+        synchronized (paths) { // no changes between copying and registering the callbacks
+            generation = new ConcurrentHashMap<>(paths.getMap());
+            paths.addOnPutCallback(generation::put);
+            paths.addOnRemoveCallback((hash, path) -> generation.remove(hash));
+        }
+        this.paths = generation;
     }
 
-    public void removePaths(ObservableMap<String, Path> paths) {
-        paths.getMap().forEach(this.paths::remove);
+    public void removePaths(ObservableMap<HashKey, Path> paths) {
+        paths.getMap().keySet().forEach(this.paths::remove);
     }
 
-    public Optional<Path> getPath(String hash) {
+    public Optional<Path> getPath(HashKey hash) {
         return Optional.ofNullable(paths.get(hash));
     }
 
+    public void setContentChunks(Map<HashKey, ContentChunker.FileChunk> contentChunks) {
+        this.contentChunks = contentChunks;
+    }
+
+    public Optional<ContentChunker.FileChunk> getContentChunk(HashKey hash) {
+        return Optional.ofNullable(contentChunks.get(hash));
+    }
+
+    // Created lazily, the cache directory is known only after paths are set up
+    public synchronized CompressedChunkCache getChunkCache() {
+        if (chunkCache == null) {
+            chunkCache = new CompressedChunkCache(hostChunkCacheDir, NetUtils.CHUNK_SIZE);
+        }
+        return chunkCache;
+    }
+
+    public synchronized ManifestCache getManifestCache() {
+        if (manifestCache == null) {
+            manifestCache = new ManifestCache(hostModpackContentFile, NetUtils.CHUNK_SIZE);
+        }
+        return manifestCache;
+    }
+
+    // Drops cached compressed files of content which is no longer hosted
+    public void pruneChunkCache() {
+        Set<String> hosted = new HashSet<>();
+        paths.keySet().forEach(hash -> hosted.add(hash.toHex()));
+        getChunkCache().retain(hosted);
+    }
+
     public Optional<ChannelFuture> start() {
         if (!serverConfig.modpackHost) {
             LOGGER.warn("Modpack hosting is disabled in config");
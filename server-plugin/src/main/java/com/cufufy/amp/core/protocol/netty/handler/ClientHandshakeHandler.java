@@ -0,0 +1,96 @@
+package com.cufufy.amp.core.protocol.netty.handler;
+
+import static com.cufufy.amp.core.GlobalVariables.LOGGER;
+import static com.cufufy.amp.core.protocol.NetUtils.*;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.concurrent.Promise;
+import com.cufufy.amp.core.protocol.netty.NettyServer;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Client side of the plain-text AutoModpack handshake. Sends the AMMC magic with the desired protocol version and compression,
+ * waits for the AMOK reply and stores the negotiated values in the same channel attributes {@link ProtocolServerHandler} uses.
+ * Removes itself afterwards and completes the promise, or fails it if the server replied with something else.
+ */
+public class ClientHandshakeHandler extends ByteToMessageDecoder {
+
+    private final byte desiredProtocolVersion;
+    private final byte desiredCompression;
+    private final Promise<Void> negotiated;
+
+    public ClientHandshakeHandler(byte desiredProtocolVersion, byte desiredCompression, Promise<Void> negotiated) {
+        this.desiredProtocolVersion = desiredProtocolVersion;
+        this.desiredCompression = desiredCompression;
+        this.negotiated = negotiated;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        ByteBuf handshake = ctx.alloc().buffer(6);
+        handshake.writeInt(MAGIC_AMMC);
+        handshake.writeByte(desiredProtocolVersion);
+        handshake.writeByte(desiredCompression);
+        ctx.writeAndFlush(handshake);
+
+        LOGGER.debug("Sent AutoModpack magic handshake to {} - magic: {} desiredProtocolVersion: {} desiredCompression: {}", ctx.channel().remoteAddress(), MAGIC_AMMC, desiredProtocolVersion, desiredCompression);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        if (in.readableBytes() < 4) {
+            return;
+        }
+
+        int handshakeResponse = in.readInt();
+        if (handshakeResponse != MAGIC_AMOK) {
+            throw new IOException("Invalid response from server: " + handshakeResponse);
+        }
+
+        byte negotiatedProtocolVersion;
+        byte negotiatedCompressionType;
+        // v2+ servers send the negotiated protocol version and compression type along with the magic
+        if (in.readableBytes() >= 2) {
+            negotiatedProtocolVersion = in.readByte();
+            negotiatedCompressionType = in.readByte();
+
+            if (negotiatedProtocolVersion < PROTOCOL_VERSION_1 || negotiatedProtocolVersion > PROTOCOL_VERSION_3) {
+                throw new IOException("Unsupported protocol version from server: " + negotiatedProtocolVersion);
+            }
+
+            if (negotiatedCompressionType != COMPRESSION_NONE && negotiatedCompressionType != COMPRESSION_ZSTD && negotiatedCompressionType != COMPRESSION_GZIP) {
+                throw new IOException("Unsupported compression type from server: " + negotiatedCompressionType);
+            }
+
+            LOGGER.debug("Negotiated AutoModpack protocol version: {}, compression type: {} with {}", negotiatedProtocolVersion, negotiatedCompressionType, ctx.channel().remoteAddress());
+        } else {
+            // Old server (v1) - doesn't send version/compression info
+            negotiatedProtocolVersion = PROTOCOL_VERSION_1;
+            negotiatedCompressionType = COMPRESSION_ZSTD;
+
+            LOGGER.debug("Old server detected, defaulting AutoModpack protocol version to: {}, compression type: {} with {}", negotiatedProtocolVersion, negotiatedCompressionType, ctx.channel().remoteAddress());
+        }
+
+        ctx.channel().attr(NettyServer.PROTOCOL_VERSION).set(negotiatedProtocolVersion);
+        ctx.channel().attr(NettyServer.COMPRESSION_TYPE).set(negotiatedCompressionType);
+        ctx.pipeline().remove(this);
+        negotiated.trySuccess(null);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        negotiated.tryFailure(new IOException("Connection closed during the handshake"));
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        negotiated.tryFailure(cause.getCause() instanceof IOException ioException ? ioException : cause);
+        ctx.close();
+    }
+}
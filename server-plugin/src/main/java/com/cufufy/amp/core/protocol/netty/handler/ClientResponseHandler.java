@@ -0,0 +1,232 @@
+package com.cufufy.amp.core.protocol.netty.handler;
+
+import static com.cufufy.amp.core.GlobalVariables.LOGGER;
+import static com.cufufy.amp.core.protocol.NetUtils.*;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.CharsetUtil;
+import com.cufufy.amp.core.protocol.ServerErrorException;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Client side handler which feeds the decompressed frames of file responses to {@link ResponseSink}s.
+ * Every exchange expects one or more responses in order, each being a header frame {@code [version][FILE_RESPONSE or MANIFEST_DELTA_RESPONSE][long size]},
+ * data frames until size bytes arrived and an end of transmission frame, or a bare {@code [version][MANIFEST_NOT_MODIFIED]} frame,
+ * and completes once the last one has ended.
+ * A server error in place of a response goes to its sink, which may accept it when the server goes on with the following responses,
+ * e.g. for a file of a batch it doesn't host. Any other failure fails the exchange and closes the channel, as the position in the stream is lost.
+ */
+public class ClientResponseHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+    /**
+     * Receives one file response. All methods are called on the event loop of the channel.
+     */
+    public interface ResponseSink {
+        /**
+         * Called with the size from the response header, before any data.
+         */
+        void start(long size) throws IOException;
+
+        /**
+         * Called with the data of the response in order, the buffer is only valid during the call.
+         */
+        void data(ByteBuf data) throws IOException;
+
+        /**
+         * Called once the end of transmission of the response arrived.
+         */
+        void end() throws IOException;
+
+        /**
+         * Called instead of {@link #start(long)} if the server answered with a modpack content delta instead of a file.
+         */
+        default void startDelta(long size) throws IOException {
+            throw new IOException("Unexpected modpack content delta");
+        }
+
+        /**
+         * Called instead of any other method if the server replied that the content the request named is still current.
+         */
+        default void notModified() throws IOException {
+            throw new IOException("Unexpected not modified reply");
+        }
+
+        /**
+         * Called instead of any other method if the server answered with an error in place of this response.
+         * Fails the exchange by default, sinks of batches accept it as the server goes on with the next response.
+         */
+        default void refused(ServerErrorException error) throws IOException {
+            throw error;
+        }
+
+        /**
+         * Called instead of {@link #end()} if the response failed, which may be before or while it was started.
+         */
+        void abort();
+    }
+
+    private enum State { HEADER, DATA, END }
+
+    private final Deque<ResponseSink> expected = new ArrayDeque<>();
+    private CompletableFuture<Void> exchange;
+    private ResponseSink current;
+    private State state = State.HEADER;
+    private byte version;
+    private long remaining;
+
+    /**
+     * Starts a new exchange. Has to be called on the event loop, before the request of the exchange is written.
+     *
+     * @param responses the responses the request is answered with, in order
+     * @param done      completed once all responses ended
+     */
+    public void expect(List<? extends ResponseSink> responses, CompletableFuture<Void> done) {
+        if (exchange != null) {
+            done.completeExceptionally(new IllegalStateException("Another request is still in progress on this connection"));
+            return;
+        }
+
+        expected.addAll(responses);
+        exchange = done;
+        state = State.HEADER;
+        if (expected.isEmpty()) {
+            next();
+        }
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) throws Exception {
+        if (exchange == null) {
+            throw new IOException("Unexpected frame without a request");
+        }
+
+        switch (state) {
+            case HEADER -> readHeader(frame);
+            case DATA -> readData(frame);
+            case END -> readEndOfTransmission(frame);
+        }
+    }
+
+    private void readHeader(ByteBuf frame) throws IOException {
+        version = frame.readByte();
+        byte messageType = frame.readByte();
+
+        if (messageType == ERROR) {
+            int errLen = frame.readInt();
+            ServerErrorException error = new ServerErrorException("Server error: " + frame.readCharSequence(errLen, CharsetUtil.UTF_8));
+            ResponseSink refused = expected.poll();
+            if (refused == null) {
+                throw error;
+            }
+            refused.refused(error);
+            next();
+            return;
+        }
+
+        current = expected.poll();
+        if (current == null) {
+            throw new IOException("Unexpected response");
+        }
+
+        if (messageType == MANIFEST_NOT_MODIFIED) {
+            ResponseSink notModified = current;
+            current = null;
+            notModified.notModified();
+            next();
+            return;
+        }
+
+        if (messageType == END_OF_TRANSMISSION) {
+            current.start(0);
+            current.end();
+            current = null;
+            next();
+            return;
+        }
+
+        if (messageType != FILE_RESPONSE_TYPE && messageType != MANIFEST_DELTA_RESPONSE) {
+            throw new IOException("Unexpected message type: " + messageType);
+        }
+
+        remaining = frame.readLong();
+        if (messageType == MANIFEST_DELTA_RESPONSE) {
+            current.startDelta(remaining);
+        } else {
+            current.start(remaining);
+        }
+        state = remaining > 0 ? State.DATA : State.END;
+    }
+
+    private void readData(ByteBuf frame) throws IOException {
+        int length = (int) Math.min(frame.readableBytes(), remaining);
+        current.data(frame.readSlice(length));
+        remaining -= length;
+        if (remaining == 0) {
+            state = State.END;
+        }
+    }
+
+    private void readEndOfTransmission(ByteBuf frame) throws IOException {
+        byte ver = frame.readByte();
+        byte eotType = frame.readByte();
+
+        if (ver != version || eotType != END_OF_TRANSMISSION) {
+            throw new IOException("Invalid end-of-transmission marker. Expected version " + version + " and type " + END_OF_TRANSMISSION + ", got version " + ver + " and type " + eotType);
+        }
+
+        current.end();
+        current = null;
+        next();
+    }
+
+    private void next() {
+        state = State.HEADER;
+        if (expected.isEmpty()) {
+            CompletableFuture<Void> done = exchange;
+            exchange = null;
+            done.complete(null);
+        }
+    }
+
+    private void fail(Throwable cause) {
+        ResponseSink aborted = current;
+        current = null;
+        try {
+            if (aborted != null) {
+                aborted.abort();
+            }
+        } finally {
+            expected.clear();
+            state = State.HEADER;
+
+            if (exchange != null) {
+                CompletableFuture<Void> done = exchange;
+                exchange = null;
+                done.completeExceptionally(cause);
+            }
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        fail(new IOException("Connection closed"));
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        LOGGER.debug("Error occurred in connection to server at address {}: {}", ctx.channel().remoteAddress(), cause.getMessage());
+        try {
+            fail(cause);
+        } finally {
+            ctx.close();
+        }
+    }
+}
@@ -5,6 +5,7 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import com.cufufy.amp.core.protocol.NetUtils;
 import com.cufufy.amp.core.protocol.compression.CompressionCodec;
+import com.cufufy.amp.core.protocol.compression.DirectCompressionCodec;
 
 import java.util.List;
 
@@ -53,6 +54,26 @@ public class CompressionDecoder extends ByteToMessageDecoder {
             return;
         }
 
+        if (codec.getCompressionType() == NetUtils.COMPRESSION_NONE) {
+            if (compressedLength != originalLength) {
+                throw new IllegalArgumentException("Uncompressed frame lengths differ");
+            }
+            out.add(in.readRetainedSlice(compressedLength));
+            return;
+        }
+
+        if (codec instanceof DirectCompressionCodec directCodec && DirectCompressionCodec.isDirect(in)) {
+            ByteBuf decompressedBuf = ctx.alloc().directBuffer(originalLength);
+            try {
+                directCodec.decompress(in, compressedLength, decompressedBuf, originalLength);
+            } catch (Exception e) {
+                decompressedBuf.release();
+                throw e;
+            }
+            out.add(decompressedBuf);
+            return;
+        }
+
         // Read compressed data
         byte[] compressed = new byte[compressedLength];
         in.readBytes(compressed);
@@ -66,6 +87,13 @@ public class CompressionDecoder extends ByteToMessageDecoder {
         out.add(decompressedBuf);
     }
 
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        if (codec instanceof DirectCompressionCodec directCodec) {
+            directCodec.release();
+        }
+    }
+
     /**
      * Gets the compression codec used by this decoder.
      *
@@ -1,9 +1,12 @@
 package com.cufufy.amp.core.protocol.netty.handler;
 
+import static com.cufufy.amp.core.protocol.NetUtils.COMPRESSION_NONE;
+
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 import com.cufufy.amp.core.protocol.compression.CompressionCodec;
+import com.cufufy.amp.core.protocol.compression.DirectCompressionCodec;
 
 /**
  * Generic compression encoder that uses a CompressionCodec for encoding.
@@ -27,6 +30,25 @@ public class CompressionEncoder extends MessageToByteEncoder<ByteBuf> {
 
     @Override
     protected void encode(ChannelHandlerContext ctx, ByteBuf msg, ByteBuf out) throws Exception {
+        if (codec.getCompressionType() == COMPRESSION_NONE) {
+            // Nothing to compress, frame the bytes without copying them through a heap array
+            int length = msg.readableBytes();
+            out.writeInt(length);
+            out.writeInt(length);
+            out.writeBytes(msg);
+            return;
+        }
+
+        if (codec instanceof DirectCompressionCodec directCodec && DirectCompressionCodec.isDirect(msg) && DirectCompressionCodec.isDirect(out)) {
+            // Compress straight into the output buffer, the compressed length is filled in afterwards
+            int frameStart = out.writerIndex();
+            out.writeInt(0);
+            out.writeInt(msg.readableBytes());
+            int compressedLength = directCodec.compress(msg, out);
+            out.setInt(frameStart, compressedLength);
+            return;
+        }
+
         // Read the input data
         byte[] input = new byte[msg.readableBytes()];
         msg.readBytes(input);
@@ -40,6 +62,22 @@ public class CompressionEncoder extends MessageToByteEncoder<ByteBuf> {
         out.writeBytes(compressed);
     }
 
+    @Override
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, ByteBuf msg, boolean preferDirect) {
+        // Sized for the worst case, so the codec never has to grow it
+        int length = msg.readableBytes();
+        int maxLength = codec instanceof DirectCompressionCodec directCodec ? directCodec.maxCompressedLength(length) : length;
+        return ctx.alloc().directBuffer(8 + maxLength);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        if (codec instanceof DirectCompressionCodec directCodec) {
+            directCodec.release();
+        }
+        super.handlerRemoved(ctx);
+    }
+
     /**
      * Gets the compression codec used by this encoder.
      *
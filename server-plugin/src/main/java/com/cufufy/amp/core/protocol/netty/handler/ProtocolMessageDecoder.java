@@ -4,9 +4,14 @@ import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import com.cufufy.amp.core.protocol.NetUtils;
+import com.cufufy.amp.core.protocol.netty.message.ChunkRequestMessage;
 import com.cufufy.amp.core.protocol.netty.message.EchoMessage;
+import com.cufufy.amp.core.protocol.netty.message.FileBatchRequestMessage;
+import com.cufufy.amp.core.protocol.netty.message.FileRangeRequestMessage;
 import com.cufufy.amp.core.protocol.netty.message.FileRequestMessage;
 import com.cufufy.amp.core.protocol.netty.message.FileResponseMessage;
+import com.cufufy.amp.core.protocol.netty.message.ManifestDeltaRequestMessage;
+import com.cufufy.amp.core.protocol.netty.message.ManifestRequestMessage;
 import com.cufufy.amp.core.protocol.netty.message.RefreshRequestMessage;
 
 import java.util.List;
@@ -52,6 +57,54 @@ public class ProtocolMessageDecoder extends ByteToMessageDecoder {
                 }
                 out.add(new RefreshRequestMessage(version, secret, fileHashesList));
                 break;
+            case FILE_BATCH_REQUEST_TYPE:
+                int batchCount = in.readInt();
+                int batchHashLength = in.readInt();
+                if (batchCount < 0 || batchCount > MAX_BATCH_FILES) {
+                    throw new IllegalArgumentException("Invalid batch size: " + batchCount);
+                }
+                byte[][] batchHashes = new byte[batchCount][];
+                for (int i = 0; i < batchCount; i++) {
+                    byte[] batchHash = new byte[batchHashLength];
+                    in.readBytes(batchHash);
+                    batchHashes[i] = batchHash;
+                }
+                out.add(new FileBatchRequestMessage(version, secret, batchHashes));
+                break;
+            case FILE_RANGE_REQUEST_TYPE:
+                int rangeHashLength = in.readInt();
+                byte[] rangeHash = new byte[rangeHashLength];
+                in.readBytes(rangeHash);
+                long offset = in.readLong();
+                long length = in.readLong();
+                out.add(new FileRangeRequestMessage(version, secret, rangeHash, offset, length));
+                break;
+            case MANIFEST_REQUEST_TYPE:
+                int etagLength = in.readInt();
+                byte[] etag = new byte[etagLength];
+                in.readBytes(etag);
+                out.add(new ManifestRequestMessage(version, secret, etag));
+                break;
+            case MANIFEST_DELTA_REQUEST_TYPE:
+                int deltaEtagLength = in.readInt();
+                byte[] deltaEtag = new byte[deltaEtagLength];
+                in.readBytes(deltaEtag);
+                out.add(new ManifestDeltaRequestMessage(version, secret, deltaEtag));
+                break;
+            case CHUNK_REQUEST_TYPE:
+                int chunkCount = in.readInt();
+                int chunkHashLength = in.readInt();
+                if (chunkCount < 0 || chunkCount > MAX_BATCH_FILES) {
+                    throw new IllegalArgumentException("Invalid chunk batch size: " + chunkCount);
+                }
+                byte[][] chunkHashes = new byte[chunkCount][];
+                for (int i = 0; i < chunkCount; i++) {
+                    byte[] chunkHash = new byte[chunkHashLength];
+                    in.readBytes(chunkHash);
+                    chunkHashes[i] = chunkHash;
+                }
+                out.add(new ChunkRequestMessage(version, secret, chunkHashes));
+                break;
             default:
                 throw new IllegalArgumentException("Unknown message type: " + type);
         }
@@ -38,6 +38,39 @@ public class ProtocolMessageEncoder extends MessageToByteEncoder<ProtocolMessage
                     out.writeBytes(fileHash);
                 }
                 break;
+            case FILE_BATCH_REQUEST_TYPE:
+                FileBatchRequestMessage fileBatchRequestMessage = (FileBatchRequestMessage) msg;
+                out.writeInt(fileBatchRequestMessage.getFileHashesCount());
+                out.writeInt(fileBatchRequestMessage.getFileHashesLength());
+                for (byte[] fileHash : fileBatchRequestMessage.getFileHashesList()) {
+                    out.writeBytes(fileHash);
+                }
+                break;
+            case FILE_RANGE_REQUEST_TYPE:
+                FileRangeRequestMessage fileRangeRequestMessage = (FileRangeRequestMessage) msg;
+                out.writeInt(fileRangeRequestMessage.getFileHashLength());
+                out.writeBytes(fileRangeRequestMessage.getFileHash());
+                out.writeLong(fileRangeRequestMessage.getOffset());
+                out.writeLong(fileRangeRequestMessage.getLength());
+                break;
+            case MANIFEST_REQUEST_TYPE:
+                ManifestRequestMessage manifestRequestMessage = (ManifestRequestMessage) msg;
+                out.writeInt(manifestRequestMessage.getEtagLength());
+                out.writeBytes(manifestRequestMessage.getEtag());
+                break;
+            case MANIFEST_DELTA_REQUEST_TYPE:
+                ManifestDeltaRequestMessage manifestDeltaRequestMessage = (ManifestDeltaRequestMessage) msg;
+                out.writeInt(manifestDeltaRequestMessage.getEtagLength());
+                out.writeBytes(manifestDeltaRequestMessage.getEtag());
+                break;
+            case CHUNK_REQUEST_TYPE:
+                ChunkRequestMessage chunkRequestMessage = (ChunkRequestMessage) msg;
+                out.writeInt(chunkRequestMessage.getChunkHashesCount());
+                out.writeInt(chunkRequestMessage.getChunkHashesLength());
+                for (byte[] chunkHash : chunkRequestMessage.getChunkHashesList()) {
+                    out.writeBytes(chunkHash);
+                }
+                break;
             default:
                 throw new IllegalArgumentException("Unknown message type: " + msg.getType());
         }
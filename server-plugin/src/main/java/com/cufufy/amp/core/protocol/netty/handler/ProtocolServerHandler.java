@@ -47,8 +47,8 @@ public class ProtocolServerHandler extends ByteToMessageDecoder {
 
                 LOGGER.debug("Client protocol version: {}, Client compression type: {}", clientProtocolVersion, clientCompressionType);
 
-                // Negotiate protocol version (prefer v2 if both support it)
-                negotiatedProtocolVersion = (clientProtocolVersion >= PROTOCOL_VERSION_2) ? PROTOCOL_VERSION_2 : PROTOCOL_VERSION_1;
+                // Negotiate protocol version (prefer the newest both support)
+                negotiatedProtocolVersion = (byte) Math.max(PROTOCOL_VERSION_1, Math.min(clientProtocolVersion, PROTOCOL_VERSION_3));
                 
                 // Check if we support the client's compression type
                 if (PlatformUtils.isAndroid() && clientCompressionType == COMPRESSION_ZSTD) { // Zstd unsupported on Android
@@ -119,10 +119,11 @@ public class ProtocolServerHandler extends ByteToMessageDecoder {
             LOGGER.debug("No TLS handler added to the pipeline");
         }
 
-        // get the compression codec
-        CompressionCodec codec = CompressionFactory.getCodec(compressionType);
+        // get the compression codec, shared by the encoder and decoder of this channel
+        CompressionCodec codec = CompressionFactory.newChannelCodec(compressionType, serverConfig.zstdCompressionLevel);
 
         ctx.pipeline() // Add the rest
+            .addLast("raw-chunked-write", new ChunkedWriteHandler()) // for already framed data written past the compression encoder
             .addLast("compression-encoder", new CompressionEncoder(codec))
             .addLast("compression-decoder", new CompressionDecoder(codec))
             .addLast("chunked-write", new ChunkedWriteHandler())
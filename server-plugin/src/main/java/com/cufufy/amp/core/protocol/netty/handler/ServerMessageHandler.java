@@ -5,31 +5,47 @@ import static com.cufufy.amp.core.protocol.NetUtils.*;
 import static com.cufufy.amp.core.protocol.NetUtils.CHUNK_SIZE;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultFileRegion;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.handler.stream.ChunkedFile;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedNioFile;
 import io.netty.util.CharsetUtil;
 import com.cufufy.amp.core.auth.Secrets;
+import com.cufufy.amp.core.modpack.ContentGenerations;
 import com.cufufy.amp.core.modpack.ModpackContent;
+import com.cufufy.amp.core.protocol.compression.CompressionCodec;
+import com.cufufy.amp.core.protocol.netty.ManifestCache;
 import com.cufufy.amp.core.protocol.netty.NettyServer;
+import com.cufufy.amp.core.protocol.netty.message.ChunkRequestMessage;
 import com.cufufy.amp.core.protocol.netty.message.EchoMessage;
+import com.cufufy.amp.core.protocol.netty.message.FileBatchRequestMessage;
+import com.cufufy.amp.core.protocol.netty.message.FileRangeRequestMessage;
 import com.cufufy.amp.core.protocol.netty.message.FileRequestMessage;
+import com.cufufy.amp.core.protocol.netty.message.ManifestDeltaRequestMessage;
+import com.cufufy.amp.core.protocol.netty.message.ManifestRequestMessage;
 import com.cufufy.amp.core.protocol.netty.message.ProtocolMessage;
 import com.cufufy.amp.core.protocol.netty.message.RefreshRequestMessage;
+import com.cufufy.amp.core.utils.ContentChunker;
+import com.cufufy.amp.core.utils.HashKey;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.net.SocketAddress;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
 
 public class ServerMessageHandler extends SimpleChannelInboundHandler<ProtocolMessage> {
 
-    private final Map<byte[], String> secretLookup = new HashMap<>();
+    // The secret this connection was authenticated with, messages carrying the same one aren't validated again
+    private byte[] validatedSecret;
 
     @Override
     public void handlerRemoved(ChannelHandlerContext ctx) {
@@ -60,7 +76,55 @@ public class ServerMessageHandler extends SimpleChannelInboundHandler<ProtocolMe
                 break;
             case FILE_REQUEST_TYPE:
                 FileRequestMessage fileRequest = (FileRequestMessage) msg;
-                sendFile(ctx, fileRequest.getFileHash());
+                try {
+                    sendFile(ctx, fileRequest.getFileHash(), ctx.newPromise());
+                } catch (RefusedException e) {
+                    sendError(ctx, clientProtocolVersion, e.getMessage());
+                }
+                break;
+            case FILE_BATCH_REQUEST_TYPE:
+                if (ctx.channel().attr(NettyServer.PROTOCOL_VERSION).get() < PROTOCOL_VERSION_3) {
+                    sendError(ctx, clientProtocolVersion, "Unknown message type");
+                    break;
+                }
+                FileBatchRequestMessage batchRequest = (FileBatchRequestMessage) msg;
+                sendFiles(ctx, batchRequest.getFileHashesList(), 0, this::sendFile);
+                break;
+            case CHUNK_REQUEST_TYPE:
+                if (ctx.channel().attr(NettyServer.PROTOCOL_VERSION).get() < PROTOCOL_VERSION_3) {
+                    sendError(ctx, clientProtocolVersion, "Unknown message type");
+                    break;
+                }
+                ChunkRequestMessage chunkRequest = (ChunkRequestMessage) msg;
+                sendFiles(ctx, chunkRequest.getChunkHashesList(), 0, this::sendChunk);
+                break;
+            case FILE_RANGE_REQUEST_TYPE:
+                if (ctx.channel().attr(NettyServer.PROTOCOL_VERSION).get() < PROTOCOL_VERSION_3) {
+                    sendError(ctx, clientProtocolVersion, "Unknown message type");
+                    break;
+                }
+                FileRangeRequestMessage rangeRequest = (FileRangeRequestMessage) msg;
+                try {
+                    sendFile(ctx, rangeRequest.getFileHash(), rangeRequest.getOffset(), rangeRequest.getLength(), ctx.newPromise());
+                } catch (RefusedException e) {
+                    sendError(ctx, clientProtocolVersion, e.getMessage());
+                }
+                break;
+            case MANIFEST_REQUEST_TYPE:
+                if (ctx.channel().attr(NettyServer.PROTOCOL_VERSION).get() < PROTOCOL_VERSION_3) {
+                    sendError(ctx, clientProtocolVersion, "Unknown message type");
+                    break;
+                }
+                ManifestRequestMessage manifestRequest = (ManifestRequestMessage) msg;
+                sendManifest(ctx, HashKey.fromWire(manifestRequest.getEtag()), ctx.newPromise());
+                break;
+            case MANIFEST_DELTA_REQUEST_TYPE:
+                if (ctx.channel().attr(NettyServer.PROTOCOL_VERSION).get() < PROTOCOL_VERSION_3) {
+                    sendError(ctx, clientProtocolVersion, "Unknown message type");
+                    break;
+                }
+                ManifestDeltaRequestMessage deltaRequest = (ManifestDeltaRequestMessage) msg;
+                sendManifestDelta(ctx, HashKey.fromWire(deltaRequest.getEtag()), ctx.newPromise());
                 break;
             case REFRESH_REQUEST_TYPE:
                 RefreshRequestMessage refreshRequest = (RefreshRequestMessage) msg;
@@ -71,140 +135,417 @@ public class ServerMessageHandler extends SimpleChannelInboundHandler<ProtocolMe
         }
     }
 
+    // Updates the files through the modpack executor, so the refresh waits for a running generation or update,
+    // and replies with the new modpack content once they're applied, without blocking the event loop meanwhile
     private void refreshModpackFiles(ChannelHandlerContext context, byte[][] FileHashesList) throws IOException {
-        List<String> hashes = new ArrayList<>();
+        List<HashKey> hashes = new ArrayList<>();
         for (byte[] hash : FileHashesList) {
-            hashes.add(new String(hash));
+            HashKey key = HashKey.fromWire(hash);
+            if (key != null) {
+                hashes.add(key);
+            }
         }
         LOGGER.info("Received refresh request for files of hashes: {}", hashes);
-        List<CompletableFuture<Void>> creationFutures = new ArrayList<>();
-        List<ModpackContent> modpacks = new ArrayList<>();
-        for (String hash : hashes) {
+        ModpackContent modpack = modpackExecutor.modpacks.get(serverConfig.modpackName);
+        List<Path> paths = new ArrayList<>();
+        for (HashKey hash : hashes) {
             final Optional<Path> optionalPath = resolvePath(hash);
-            if (optionalPath.isEmpty()) continue;
-            Path path = optionalPath.get();
-            ModpackContent modpack = null;
-            for (var content : modpackExecutor.modpacks.values()) {
-                if (!content.pathsMap.getMap().containsKey(hash)) {
-                    continue;
-                }
-
-                modpack = content;
-                break;
+            if (optionalPath.isEmpty() || modpack == null || !modpack.pathsMap.getMap().containsKey(hash)) {
+                continue;
             }
 
-            if (modpack == null) {
-                continue;
+            paths.add(optionalPath.get());
+        }
+
+        if (paths.isEmpty()) {
+            LOGGER.info("Sending new modpack-content.json");
+            sendManifest(context, null, context.newPromise());
+            return;
+        }
+
+        modpackExecutor.applyChangesAsync(paths, List.of()).whenComplete((applied, throwable) -> context.executor().execute(() -> {
+            LOGGER.info("Sending new modpack-content.json");
+            try {
+                // Sends new json
+                sendManifest(context, null, context.newPromise());
+            } catch (IOException e) {
+                context.fireExceptionCaught(e);
             }
+        }));
+    }
 
-            modpacks.add(modpack);
+    private boolean validateSecret(ChannelHandlerContext ctx, SocketAddress address, byte[] secret) {
+        if (validatedSecret != null && MessageDigest.isEqual(validatedSecret, secret)) {
+            return true;
+        }
 
-            creationFutures.add(modpack.replaceAsync(path));
+        String decodedSecret = Base64.getUrlEncoder().withoutPadding().encodeToString(secret);
+        if (!Secrets.isSecretValid(decodedSecret, address)) {
+            return false;
         }
 
-        creationFutures.forEach(CompletableFuture::join);
-        modpacks.forEach(ModpackContent::saveModpackContent);
+        validatedSecret = secret;
+        hostServer.addConnection(ctx.channel(), decodedSecret);
+        return true;
+    }
 
-        LOGGER.info("Sending new modpack-content.json");
+    // A request which can't be served, thrown before anything of its response was written
+    private static class RefusedException extends IOException {
+        private static final long serialVersionUID = 1L;
 
-        // Sends new json
-        sendFile(context, new byte[0]);
+        private RefusedException(String message) {
+            super(message);
+        }
     }
 
+    @FunctionalInterface
+    private interface FileSender {
+        void send(ChannelHandlerContext ctx, byte[] hash, ChannelPromise done) throws IOException;
+    }
 
-    private boolean validateSecret(ChannelHandlerContext ctx, SocketAddress address, byte[] secret) {
-        String decodedSecret = secretLookup.get(secret);
-        boolean addConnection = false;
-        if (decodedSecret == null) {
-            decodedSecret = Base64.getUrlEncoder().withoutPadding().encodeToString(secret);
-            addConnection = true;
-            secretLookup.put(secret, decodedSecret);
+    // Streams the files back to back, each as a regular file response ending with its own EOT.
+    // The next file is started only once the previous one is fully written, since some of the file paths write past the chunked writer.
+    // A file which isn't hosted is answered by an error response in its place and the batch goes on, the stream stays in sync
+    private void sendFiles(ChannelHandlerContext ctx, byte[][] hashes, int index, FileSender sender) {
+        if (index >= hashes.length || !ctx.channel().isActive()) {
+            return;
+        }
+
+        ChannelPromise done = ctx.newPromise();
+        done.addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess()) {
+                // run as a new task, files which are written at once would otherwise recurse over the whole batch
+                ctx.executor().execute(() -> sendFiles(ctx, hashes, index + 1, sender));
+            }
+        });
+
+        try {
+            sender.send(ctx, hashes[index], done);
+        } catch (RefusedException e) {
+            byte protocolVersion = ctx.channel().attr(NettyServer.PROTOCOL_VERSION).get();
+            ctx.writeAndFlush(errorMessage(protocolVersion, e.getMessage()), done);
+        } catch (IOException e) {
+            byte protocolVersion = ctx.channel().attr(NettyServer.PROTOCOL_VERSION).get();
+            sendError(ctx, protocolVersion, "File transfer error: " + e.getMessage());
+            done.tryFailure(e);
         }
+    }
 
-        boolean valid = Secrets.isSecretValid(decodedSecret, address);
+    private void sendFile(ChannelHandlerContext ctx, byte[] bsha1, ChannelPromise done) throws IOException {
+        sendFile(ctx, bsha1, 0, -1, done);
+    }
 
-        if (addConnection && valid) {
-            hostServer.addConnection(ctx.channel(), decodedSecret);
+    // Sends a content chunk as the range of a hosted file holding it
+    private void sendChunk(ChannelHandlerContext ctx, byte[] chunkSha1, ChannelPromise done) throws IOException {
+        HashKey hash = HashKey.fromWire(chunkSha1);
+        Optional<ContentChunker.FileChunk> chunk = hash == null ? Optional.empty() : hostServer.getContentChunk(hash);
+        if (chunk.isEmpty()) {
+            throw new RefusedException("Chunk not found");
         }
 
-        return valid;
+        sendFile(ctx, chunk.get().file().toBytes(), chunk.get().offset(), chunk.get().length(), done);
     }
 
-    private void sendFile(ChannelHandlerContext ctx, byte[] bsha1) throws IOException {
-        final String sha1 = new String(bsha1, CharsetUtil.UTF_8);
-        final Optional<Path> optionalPath = resolvePath(sha1);
+    // Sends length bytes of the file from offset (negative length for the rest of the file), the response header carries the size of the range.
+    // Completes the promise once the EOT of the file is written, fails it if an error was sent instead.
+    // Throws a RefusedException without writing anything if the file isn't hosted or doesn't have the range
+    private void sendFile(ChannelHandlerContext ctx, byte[] bsha1, long offset, long length, ChannelPromise done) throws IOException {
+        // an empty hash requests the modpack content file
+        if (bsha1.length == 0 && offset == 0 && length < 0) {
+            sendManifest(ctx, null, done);
+            return;
+        }
+
+        final HashKey hash = bsha1.length == 0 ? null : HashKey.fromWire(bsha1);
+        final Optional<Path> optionalPath = bsha1.length == 0 ? Optional.of(hostModpackContentFile) : resolvePath(hash);
 
         // Get protocol version from channel attributes
         byte protocolVersion = ctx.pipeline().channel().attr(NettyServer.PROTOCOL_VERSION).get();
 
         if (optionalPath.isEmpty() || !Files.exists(optionalPath.get())) {
-            sendError(ctx, protocolVersion, "File not found");
-            return;
+            throw new RefusedException("File not found");
         }
 
         final Path path = optionalPath.get();
         final long fileSize = Files.size(path);
 
+        if (offset < 0 || offset > fileSize) {
+            throw new RefusedException("Invalid range");
+        }
+
+        final long end = length < 0 || length > fileSize - offset ? fileSize : offset + length;
+        final long rangeSize = end - offset;
+
         // Send file response header: version, FILE_RESPONSE type, then file size (8 bytes)
         ByteBuf responseHeader = Unpooled.buffer(1 + 1 + 8);
         responseHeader.writeByte(protocolVersion);
         responseHeader.writeByte(FILE_RESPONSE_TYPE);
-        responseHeader.writeLong(fileSize);
-        ctx.writeAndFlush(responseHeader);
+        responseHeader.writeLong(rangeSize);
 
-        if (fileSize == 0) {
-            sendEOT(ctx);
+        if (rangeSize == 0) {
+            ctx.writeAndFlush(responseHeader);
+            sendEOT(ctx, done);
             return;
         }
 
+        CompressionEncoder encoder = ctx.pipeline().get(CompressionEncoder.class);
+        if (encoder != null && hash != null && rangeSize == fileSize) { // cached frames always hold the whole file
+            Optional<Path> cachedFrames = hostServer.getChunkCache().getOrSchedule(hash.toHex(), path, encoder.getCodec());
+            if (cachedFrames.isPresent() && sendCachedFrames(ctx, encoder.getCodec(), protocolVersion, responseHeader, cachedFrames.get(), done)) {
+                return;
+            }
+        }
+
+        if (canSendFileRegion(ctx)) {
+            FileChannel fileChannel;
+            try {
+                fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+            } catch (IOException e) {
+                responseHeader.release();
+                sendError(ctx, protocolVersion, "File transfer error: " + e.getMessage());
+                done.tryFailure(e);
+                return;
+            }
+
+            // All frames of the transfer read from the same channel, closed once the EOT is written or the transfer failed
+            done.addListener((ChannelFutureListener) future -> closeQuietly(fileChannel));
+            ChannelHandlerContext rawCtx = ctx.pipeline().context(CompressionEncoder.class);
+            rawCtx.write(frameHeader(rawCtx, responseHeader.readableBytes()));
+            rawCtx.write(responseHeader);
+            sendFileRegion(ctx, rawCtx, protocolVersion, fileChannel, offset, end, done);
+            return;
+        }
+
+        ctx.writeAndFlush(responseHeader);
+
         try {
-            RandomAccessFile raf = new RandomAccessFile(path.toFile(), "r");
-            ChunkedFile chunkedFile = new ChunkedFile(raf, 0, raf.length(), CHUNK_SIZE);
+            FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+            // Reads straight into (direct) buffers from the channel allocator
+            ChunkedNioFile chunkedFile = new ChunkedNioFile(fileChannel, offset, rangeSize, CHUNK_SIZE);
             ctx.writeAndFlush(chunkedFile).addListener((ChannelFutureListener) future -> {
                 try {
                     if (future.isSuccess()) {
-                        sendEOT(ctx);
+                        sendEOT(ctx, done);
                     } else {
                         sendError(ctx, protocolVersion, "File transfer error: " + future.cause().getMessage());
+                        done.tryFailure(future.cause());
                     }
                 } finally { // Always close resources
                     try {
-                        chunkedFile.close();
-                        raf.close();
-                    } catch (IOException e) {
+                        chunkedFile.close(); // closes the file channel
+                    } catch (Exception e) {
                         LOGGER.error("Error closing file resources", e);
                     }
                 }
             });
         } catch (IOException e) {
             sendError(ctx, protocolVersion, "File transfer error: " + e.getMessage());
+            done.tryFailure(e);
         }
     }
 
-    public Optional<Path> resolvePath(final String sha1) {
-        if (sha1.isBlank()) {
-            return Optional.of(hostModpackContentFile);
+    // Without TLS and compression the file doesn't have to be touched by java at all, it can go with sendfile straight from the page cache to the socket
+    private boolean canSendFileRegion(ChannelHandlerContext ctx) {
+        Byte compressionType = ctx.channel().attr(NettyServer.COMPRESSION_TYPE).get();
+        return compressionType != null && compressionType == COMPRESSION_NONE
+                && ctx.pipeline().get(SslHandler.class) == null
+                && ctx.pipeline().context(CompressionEncoder.class) != null;
+    }
+
+    // Writes the file as CHUNK_SIZE frames, frame headers are written by hand as the regions are written past the compression encoder
+    private void sendFileRegion(ChannelHandlerContext ctx, ChannelHandlerContext rawCtx, byte protocolVersion, FileChannel file, long position, long end, ChannelPromise done) {
+        int length = (int) Math.min(CHUNK_SIZE, end - position);
+        rawCtx.write(frameHeader(rawCtx, length));
+        rawCtx.writeAndFlush(new SharedFileRegion(file, position, length)).addListener((ChannelFutureListener) future -> {
+            if (!future.isSuccess()) {
+                sendError(ctx, protocolVersion, "File transfer error: " + future.cause().getMessage());
+                done.tryFailure(future.cause());
+                return;
+            }
+
+            long next = position + length;
+            if (next < end) {
+                sendFileRegion(ctx, rawCtx, protocolVersion, file, next, end, done);
+            } else {
+                sendEOT(ctx, done);
+            }
+        });
+    }
+
+    // A frame of a transfer, which leaves closing the file channel to the transfer instead of closing it once the frame is written
+    private static class SharedFileRegion extends DefaultFileRegion {
+        private SharedFileRegion(FileChannel file, long position, long count) {
+            super(file, position, count);
+        }
+
+        @Override
+        protected void deallocate() {
+        }
+    }
+
+    private static void closeQuietly(FileChannel fileChannel) {
+        try {
+            fileChannel.close();
+        } catch (IOException e) {
+            LOGGER.error("Error closing file resources", e);
+        }
+    }
+
+    // Streams already compressed frames of the file past the compression encoder, returns false if the cache file is gone
+    private boolean sendCachedFrames(ChannelHandlerContext ctx, CompressionCodec codec, byte protocolVersion, ByteBuf responseHeader, Path cachedFrames, ChannelPromise done) throws IOException {
+        FileChannel fileChannel;
+        try {
+            fileChannel = FileChannel.open(cachedFrames, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return false;
+        }
+
+        ChannelHandlerContext rawCtx = ctx.pipeline().context(CompressionEncoder.class);
+        rawCtx.write(compressedFrame(rawCtx, codec, responseHeader));
+
+        Object frames = ctx.pipeline().get(SslHandler.class) == null
+                ? new DefaultFileRegion(fileChannel, 0, fileChannel.size())
+                : new ChunkedNioFile(fileChannel, 0, fileChannel.size(), CHUNK_SIZE);
+        rawCtx.writeAndFlush(frames).addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess()) {
+                sendEOT(ctx, done);
+            } else {
+                sendError(ctx, protocolVersion, "File transfer error: " + future.cause().getMessage());
+                done.tryFailure(future.cause());
+            }
+        });
+
+        return true;
+    }
+
+    // Sends the modpack content from the manifest cache. A client which sent the etag of the current content gets
+    // a bare not modified reply instead, without an EOT. Otherwise it's a regular file response, compressed only once per codec
+    private void sendManifest(ChannelHandlerContext ctx, HashKey etag, ChannelPromise done) throws IOException {
+        byte protocolVersion = ctx.channel().attr(NettyServer.PROTOCOL_VERSION).get();
+        ManifestCache.Manifest manifest = hostServer.getManifestCache().get();
+        if (manifest == null) {
+            sendError(ctx, protocolVersion, "File not found");
+            done.tryFailure(new IOException("File not found"));
+            return;
+        }
+
+        if (manifest.getEtag().equals(etag)) {
+            ByteBuf notModified = Unpooled.buffer(2);
+            notModified.writeByte(protocolVersion);
+            notModified.writeByte(MANIFEST_NOT_MODIFIED);
+            ctx.writeAndFlush(notModified, done);
+            return;
+        }
+
+        byte[] content = manifest.getContent();
+        ByteBuf responseHeader = Unpooled.buffer(1 + 1 + 8);
+        responseHeader.writeByte(protocolVersion);
+        responseHeader.writeByte(FILE_RESPONSE_TYPE);
+        responseHeader.writeLong(content.length);
+
+        CompressionEncoder encoder = ctx.pipeline().get(CompressionEncoder.class);
+        if (encoder != null && encoder.getCodec().getCompressionType() != COMPRESSION_NONE && content.length > 0) {
+            ChannelHandlerContext rawCtx = ctx.pipeline().context(CompressionEncoder.class);
+            rawCtx.write(compressedFrame(rawCtx, encoder.getCodec(), responseHeader));
+            rawCtx.write(Unpooled.wrappedBuffer(manifest.getFrames(encoder.getCodec())));
+        } else {
+            ctx.write(responseHeader);
+            writeChunks(ctx, content);
+        }
+
+        sendEOT(ctx, done);
+    }
+
+    // Sends only the items which changed since the generation of the modpack content with the etag, as a MANIFEST_DELTA_RESPONSE
+    // framed like a file response. Falls back to the not modified reply or the whole content when there is no such generation anymore
+    private void sendManifestDelta(ChannelHandlerContext ctx, HashKey etag, ChannelPromise done) throws IOException {
+        ManifestCache.Manifest manifest = hostServer.getManifestCache().get();
+        if (manifest == null || etag == null || manifest.getEtag().equals(etag) || modpackExecutor == null) {
+            sendManifest(ctx, etag, done);
+            return;
+        }
+
+        Optional<ContentGenerations.Delta> delta = Optional.empty();
+        for (ModpackContent content : List.copyOf(modpackExecutor.modpacks.values())) {
+            delta = content.getGenerations().diffSince(etag)
+                    .filter(candidate -> candidate.getEtag().equals(manifest.getEtag())); // the delta has to lead to the hosted content
+            if (delta.isPresent()) {
+                break;
+            }
+        }
+
+        if (delta.isEmpty()) {
+            sendManifest(ctx, null, done);
+            return;
+        }
+
+        LOGGER.debug("Sending modpack content delta from generation {} to {}", delta.get().getFromGeneration(), delta.get().getToGeneration());
+        byte protocolVersion = ctx.channel().attr(NettyServer.PROTOCOL_VERSION).get();
+        byte[] encoded = delta.get().encode();
+        ByteBuf responseHeader = Unpooled.buffer(1 + 1 + 8);
+        responseHeader.writeByte(protocolVersion);
+        responseHeader.writeByte(MANIFEST_DELTA_RESPONSE);
+        responseHeader.writeLong(encoded.length);
+        ctx.write(responseHeader);
+        writeChunks(ctx, encoded);
+        sendEOT(ctx, done);
+    }
+
+    // A frame can't hold more than CHUNK_SIZE
+    private void writeChunks(ChannelHandlerContext ctx, byte[] bytes) {
+        for (int position = 0; position < bytes.length; position += CHUNK_SIZE) {
+            ctx.write(Unpooled.wrappedBuffer(bytes, position, Math.min(CHUNK_SIZE, bytes.length - position)));
+        }
+    }
+
+    // Compresses the message into a frame as CompressionEncoder would, for writing past it
+    private ByteBuf compressedFrame(ChannelHandlerContext rawCtx, CompressionCodec codec, ByteBuf message) throws IOException {
+        byte[] data = ByteBufUtil.getBytes(message);
+        message.release();
+        byte[] compressed = codec.compress(data);
+        ByteBuf frame = rawCtx.alloc().buffer(8 + compressed.length);
+        frame.writeInt(compressed.length);
+        frame.writeInt(data.length);
+        frame.writeBytes(compressed);
+        return frame;
+    }
+
+    // Same framing as CompressionEncoder with no compression: [compressedLength][originalLength]
+    private ByteBuf frameHeader(ChannelHandlerContext ctx, int length) {
+        ByteBuf header = ctx.alloc().buffer(8);
+        header.writeInt(length);
+        header.writeInt(length);
+        return header;
+    }
+
+    public Optional<Path> resolvePath(final HashKey sha1) {
+        if (sha1 == null) {
+            return Optional.empty();
         }
 
         return hostServer.getPath(sha1);
     }
 
     private void sendError(ChannelHandlerContext ctx, byte version, String errorMessage) {
+        ctx.writeAndFlush(errorMessage(version, errorMessage));
+        ctx.channel().close();
+    }
+
+    private ByteBuf errorMessage(byte version, String errorMessage) {
         byte[] errMsgBytes = errorMessage.getBytes(CharsetUtil.UTF_8);
         ByteBuf errorBuf = Unpooled.buffer(1 + 1 + 4 + errMsgBytes.length);
         errorBuf.writeByte(version);
         errorBuf.writeByte(ERROR);
         errorBuf.writeInt(errMsgBytes.length);
         errorBuf.writeBytes(errMsgBytes);
-        ctx.writeAndFlush(errorBuf);
-        ctx.channel().close();
+        return errorBuf;
     }
 
-    private void sendEOT(ChannelHandlerContext ctx) {
+    private void sendEOT(ChannelHandlerContext ctx, ChannelPromise done) {
         byte protocolVersion = ctx.pipeline().channel().attr(NettyServer.PROTOCOL_VERSION).get();
         ByteBuf eot = Unpooled.buffer(2);
         eot.writeByte(protocolVersion);
         eot.writeByte(END_OF_TRANSMISSION);
-        ctx.writeAndFlush(eot);
+        ctx.writeAndFlush(eot, done);
     }
 }
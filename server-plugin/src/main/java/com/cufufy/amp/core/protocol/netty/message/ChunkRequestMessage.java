@@ -0,0 +1,28 @@
+package com.cufufy.amp.core.protocol.netty.message;
+
+import static com.cufufy.amp.core.protocol.NetUtils.CHUNK_REQUEST_TYPE;
+
+public class ChunkRequestMessage extends ProtocolMessage {
+    private final int chunkHashesCount;
+    private final int chunkHashesLength;
+    private final byte[][] chunkHashesList;
+
+    public ChunkRequestMessage(byte version, byte[] secret, byte[][] chunkHashesList) {
+        super(version, CHUNK_REQUEST_TYPE, secret);
+        this.chunkHashesCount = chunkHashesList.length;
+        this.chunkHashesLength = chunkHashesList.length > 0 ? chunkHashesList[0].length : 0;
+        this.chunkHashesList = chunkHashesList;
+    }
+
+    public int getChunkHashesCount() {
+        return chunkHashesCount;
+    }
+
+    public int getChunkHashesLength() {
+        return chunkHashesLength;
+    }
+
+    public byte[][] getChunkHashesList() {
+        return chunkHashesList;
+    }
+}
@@ -0,0 +1,28 @@
+package com.cufufy.amp.core.protocol.netty.message;
+
+import static com.cufufy.amp.core.protocol.NetUtils.FILE_BATCH_REQUEST_TYPE;
+
+public class FileBatchRequestMessage extends ProtocolMessage {
+    private final int fileHashesCount;
+    private final int fileHashesLength;
+    private final byte[][] fileHashesList;
+
+    public FileBatchRequestMessage(byte version, byte[] secret, byte[][] fileHashesList) {
+        super(version, FILE_BATCH_REQUEST_TYPE, secret);
+        this.fileHashesCount = fileHashesList.length;
+        this.fileHashesLength = fileHashesList.length > 0 ? fileHashesList[0].length : 0;
+        this.fileHashesList = fileHashesList;
+    }
+
+    public int getFileHashesCount() {
+        return fileHashesCount;
+    }
+
+    public int getFileHashesLength() {
+        return fileHashesLength;
+    }
+
+    public byte[][] getFileHashesList() {
+        return fileHashesList;
+    }
+}
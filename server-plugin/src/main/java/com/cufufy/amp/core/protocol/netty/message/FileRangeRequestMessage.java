@@ -0,0 +1,38 @@
+package com.cufufy.amp.core.protocol.netty.message;
+
+import static com.cufufy.amp.core.protocol.NetUtils.FILE_RANGE_REQUEST_TYPE;
+
+public class FileRangeRequestMessage extends ProtocolMessage {
+    private final int fileHashLength;
+    private final byte[] fileHash;
+    private final long offset;
+    private final long length;
+
+    /**
+     * @param offset first byte of the file to send
+     * @param length number of bytes to send, negative for everything from the offset to the end of the file
+     */
+    public FileRangeRequestMessage(byte version, byte[] secret, byte[] fileHash, long offset, long length) {
+        super(version, FILE_RANGE_REQUEST_TYPE, secret);
+        this.fileHashLength = fileHash.length;
+        this.fileHash = fileHash;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int getFileHashLength() {
+        return fileHashLength;
+    }
+
+    public byte[] getFileHash() {
+        return fileHash;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,25 @@
+package com.cufufy.amp.core.protocol.netty.message;
+
+import static com.cufufy.amp.core.protocol.NetUtils.MANIFEST_DELTA_REQUEST_TYPE;
+
+public class ManifestDeltaRequestMessage extends ProtocolMessage {
+    private final int etagLength;
+    private final byte[] etag;
+
+    /**
+     * @param etag the SHA-1 of the modpack content file the client already has, changes since that version are requested
+     */
+    public ManifestDeltaRequestMessage(byte version, byte[] secret, byte[] etag) {
+        super(version, MANIFEST_DELTA_REQUEST_TYPE, secret);
+        this.etagLength = etag.length;
+        this.etag = etag;
+    }
+
+    public int getEtagLength() {
+        return etagLength;
+    }
+
+    public byte[] getEtag() {
+        return etag;
+    }
+}
@@ -0,0 +1,155 @@
+package com.cufufy.amp.core.utils;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits how many threads read files at once, adapting the limit to the measured read throughput.
+ * Every window of busy read time the throughput is compared with the previous window: the limit keeps moving in
+ * the same direction while that helps and turns around when it doesn't, so it settles around the fewest readers
+ * which still saturate the disk, instead of every worker queuing on the same device.
+ */
+public class AdaptiveReadLimiter {
+    // Time spent reading per measurement, long enough to average out single files
+    static final long WINDOW_NANOS = 250_000_000L;
+    // Smaller changes of throughput count as no change
+    private static final double TOLERANCE = 0.05;
+
+    private final int minReaders;
+    private final int maxReaders;
+    private final LongSupplier nanoTime;
+
+    // all guarded by this
+    private int limit;
+    private int active;
+    private int waiting;
+    private int direction = 1;
+    private double previousThroughput;
+    private long windowBytes;
+    private long windowBusyNanos;
+    private long busySince;
+
+    public AdaptiveReadLimiter(int minReaders, int maxReaders) {
+        this(minReaders, maxReaders, Math.min(maxReaders, Math.max(minReaders, 2)), System::nanoTime);
+    }
+
+    AdaptiveReadLimiter(int minReaders, int maxReaders, int initialReaders, LongSupplier nanoTime) {
+        if (minReaders < 1 || maxReaders < minReaders) {
+            throw new IllegalArgumentException("Invalid reader bounds " + minReaders + "-" + maxReaders);
+        }
+        this.minReaders = minReaders;
+        this.maxReaders = maxReaders;
+        this.limit = initialReaders;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Waits until the thread may read, every acquire has to be followed by a {@link #release}.
+     * A waiting ForkJoin worker is compensated for by its pool, so waiting readers don't starve the other tasks.
+     */
+    public void acquire() throws InterruptedIOException {
+        if (tryAcquire()) {
+            return;
+        }
+
+        synchronized (this) {
+            waiting++;
+        }
+        try {
+            ForkJoinPool.managedBlock(new Waiter());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to read");
+        } finally {
+            synchronized (this) {
+                waiting--;
+            }
+        }
+    }
+
+    private synchronized boolean tryAcquire() {
+        if (active >= limit) {
+            return false;
+        }
+        if (active++ == 0) {
+            busySince = nanoTime.getAsLong();
+        }
+        return true;
+    }
+
+    /**
+     * Ends a read started by {@link #acquire}.
+     *
+     * @param bytes how many bytes were read
+     */
+    public synchronized void release(long bytes) {
+        long now = nanoTime.getAsLong();
+        windowBytes += bytes;
+        windowBusyNanos += now - busySince;
+        busySince = now;
+        active--;
+
+        if (windowBusyNanos >= WINDOW_NANOS) {
+            adapt(windowBytes * 1_000_000_000.0 / windowBusyNanos);
+            windowBytes = 0;
+            windowBusyNanos = 0;
+        }
+        notifyAll();
+    }
+
+    private void adapt(double throughput) {
+        if (previousThroughput > 0) {
+            if (throughput < previousThroughput * (1 - TOLERANCE)) {
+                direction = -direction; // the last step made it worse
+            } else if (throughput < previousThroughput * (1 + TOLERANCE)) {
+                direction = -1; // no gain, fewer readers do the same
+            }
+        }
+        previousThroughput = throughput;
+        limit = Math.max(minReaders, Math.min(maxReaders, limit + direction));
+    }
+
+    // Waits for a free reader slot and takes it
+    private class Waiter implements ForkJoinPool.ManagedBlocker {
+        private boolean acquired;
+
+        @Override
+        public boolean block() throws InterruptedException {
+            synchronized (AdaptiveReadLimiter.this) {
+                while (!tryAcquire()) {
+                    AdaptiveReadLimiter.this.wait();
+                }
+            }
+            acquired = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            if (!acquired) {
+                acquired = tryAcquire();
+            }
+            return acquired;
+        }
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getActive() {
+        return active;
+    }
+
+    public synchronized int getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * @return the throughput of the latest measured window in bytes per second, 0 before the first one
+     */
+    public synchronized double getThroughput() {
+        return previousThroughput;
+    }
+}
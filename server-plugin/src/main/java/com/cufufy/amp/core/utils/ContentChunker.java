@@ -0,0 +1,175 @@
+package com.cufufy.amp.core.utils;
+
+import com.cufufy.amp.core.config.Jsons;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Content defined chunking (FastCDC with normalized chunking) of files, so a slightly changed file shares most of its chunks
+ * with its previous version and only the changed ones have to be downloaded.
+ * Boundaries are found with a gear rolling hash, which only depends on the last 64 bytes, and each chunk is identified by its SHA-1.
+ * Server and client have to cut files the same way, so the parameters and the gear table must never change.
+ */
+public class ContentChunker {
+    public static final int MIN_CHUNK = 16 * 1024;
+    public static final int AVERAGE_CHUNK = 64 * 1024;
+    public static final int MAX_CHUNK = 256 * 1024;
+    // Smaller files are downloaded as a whole. Every chunk costs about 70 bytes of JSON in the modpack content, the hash index
+    // and each kept generation, around 500 chunks at this size, so only files where a changed part saves a lot of download are cut
+    public static final long MIN_FILE_SIZE = 32L * 1024 * 1024;
+
+    // Boundaries are harder to hit before the average size and easier after it, which keeps chunk sizes close to the average.
+    // The masks test the highest bits, the ones mixed from the most bytes.
+    private static final long MASK_SMALL = mask(18);
+    private static final long MASK_LARGE = mask(14);
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long state = 0x414D4D43L; // splitmix64, fixed so every version computes the same table
+        for (int i = 0; i < GEAR.length; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /**
+     * A chunk of a file.
+     */
+    public record Chunk(HashKey hash, long offset, int length) { }
+
+    /**
+     * Where a hosted chunk can be read from.
+     */
+    public record FileChunk(HashKey file, long offset, int length) { }
+
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final MessageDigest digest = newSha1();
+    private long offset;
+    private int length;
+    private long hash;
+
+    /**
+     * Feeds the next bytes of the file, from the position to the limit of the buffer. The buffer itself is left unchanged.
+     */
+    public void update(ByteBuffer data) {
+        int segmentStart = data.position();
+        for (int i = data.position(), limit = data.limit(); i < limit; i++) {
+            length++;
+            if (length <= MIN_CHUNK) {
+                continue; // no boundary can be there, the hash starts after the minimum size
+            }
+
+            hash = (hash << 1) + GEAR[data.get(i) & 0xFF];
+            if ((hash & (length < AVERAGE_CHUNK ? MASK_SMALL : MASK_LARGE)) == 0 || length >= MAX_CHUNK) {
+                digest.update(data.duplicate().limit(i + 1).position(segmentStart));
+                cut();
+                segmentStart = i + 1;
+            }
+        }
+        digest.update(data.duplicate().position(segmentStart));
+    }
+
+    /**
+     * Ends the last chunk.
+     *
+     * @return all chunks of the file in order
+     */
+    public List<Chunk> finish() {
+        if (length > 0) {
+            cut();
+        }
+        return List.copyOf(chunks);
+    }
+
+    private void cut() {
+        chunks.add(new Chunk(HashKey.fromWire(digest.digest()), offset, length));
+        offset += length;
+        length = 0;
+        hash = 0;
+    }
+
+    /**
+     * Reads and chunks the whole file.
+     */
+    public static List<Chunk> chunk(Path file) throws IOException {
+        ContentChunker chunker = new ContentChunker();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_CHUNK * 4);
+            while (channel.read(buffer) != -1) {
+                chunker.update(buffer.flip());
+                buffer.clear();
+            }
+        }
+        return chunker.finish();
+    }
+
+    /**
+     * Converts chunks to their form in the modpack content.
+     */
+    public static List<Jsons.ChunkFields> toFields(List<Chunk> chunks) {
+        List<Jsons.ChunkFields> fields = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            fields.add(new Jsons.ChunkFields(chunk.hash().toHex(), chunk.length()));
+        }
+        return fields;
+    }
+
+    /**
+     * Converts chunks from their form in the modpack content, offsets follow from the lengths.
+     *
+     * @throws IllegalArgumentException if a chunk has an invalid hash
+     */
+    public static List<Chunk> fromFields(List<Jsons.ChunkFields> fields) {
+        List<Chunk> chunks = new ArrayList<>(fields.size());
+        long offset = 0;
+        for (Jsons.ChunkFields field : fields) {
+            chunks.add(new Chunk(HashKey.fromHex(field.sha1), offset, field.length));
+            offset += field.length;
+        }
+        return chunks;
+    }
+
+    /**
+     * Indexes where each chunk of the items can be read from, by the chunk hash. A chunk shared by multiple files is read from one of them.
+     */
+    public static Map<HashKey, FileChunk> index(Collection<Jsons.ModpackContentFields.ModpackContentItem> items) {
+        Map<HashKey, FileChunk> index = new HashMap<>();
+        for (Jsons.ModpackContentFields.ModpackContentItem item : items) {
+            if (item.chunks == null || item.sha1 == null) {
+                continue;
+            }
+
+            try {
+                HashKey file = HashKey.fromHex(item.sha1);
+                for (Chunk chunk : fromFields(item.chunks)) {
+                    index.putIfAbsent(chunk.hash(), new FileChunk(file, chunk.offset(), chunk.length()));
+                }
+            } catch (IllegalArgumentException ignored) {
+                // not a valid sha1, the file isn't hosted either
+            }
+        }
+        return index;
+    }
+
+    private static long mask(int bits) {
+        return -1L << (64 - bits);
+    }
+
+    private static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+}
@@ -8,7 +8,6 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.MessageDigest;
 import java.util.*;
 import java.util.stream.Stream;
 
@@ -210,33 +209,7 @@ public class CustomFileUtils {
         try {
             if (!Files.isRegularFile(file)) return null;
 
-            MessageDigest digest = MessageDigest.getInstance("SHA-1");
-            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = raf.read(buffer)) != -1) {
-                    digest.update(buffer, 0, bytesRead);
-                }
-            }
-            byte[] hash = digest.digest();
-            return HexFormat.of().formatHex(hash);
-        } catch (UnsupportedOperationException e) {
-            try { // yes... its awful
-                MessageDigest digest = MessageDigest.getInstance("SHA-1");
-                try (var is = Files.newInputStream(file)) {
-                    byte[] buffer = new byte[8192];
-                    int bytesRead;
-                    while ((bytesRead = is.read(buffer)) != -1) {
-                        digest.update(buffer, 0, bytesRead);
-                    }
-                }
-
-                byte[] hash = digest.digest();
-                return HexFormat.of().formatHex(hash);
-            } catch (Exception ex) {
-                e.printStackTrace();
-                ex.printStackTrace();
-            }
+            return FileHasher.hash(file, true, false).sha1();
         } catch (Exception e) {
             LOGGER.error("Failed to get hash of file: {}", file, e);
         }
@@ -248,100 +221,7 @@ public class CustomFileUtils {
             return null;
         }
 
-        final int m = 0x5bd1e995;
-        final int r = 24;
-        long k = 0x0L;
-        int seed = 1;
-        int shift = 0x0;
-
-        long length = 0;
-        char b;
-
-        // Read file in 8128-byte chunks
-        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
-            byte[] buffer = new byte[8128];
-            int bytesRead;
-
-            while ((bytesRead = raf.read(buffer)) != -1) {
-                for (int i = 0; i < bytesRead; i++) {
-                    b = (char) buffer[i];
-
-                    if (b == 0x9 || b == 0xa || b == 0xd || b == 0x20) {
-                        continue;
-                    }
-
-                    length += 1;
-                }
-            }
-        }
-
-        long h = (seed ^ length);
-
-        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
-            byte[] buffer = new byte[8128];
-            int bytesRead;
-
-            while ((bytesRead = raf.read(buffer)) != -1) {
-                for (int i = 0; i < bytesRead; i++) {
-                    b = (char) buffer[i];
-
-                    if (b == 0x9 || b == 0xa || b == 0xd || b == 0x20) {
-                        continue;
-                    }
-
-                    if (b > 255) {
-                        while (b > 255) {
-                            b -= 255;
-                        }
-                    }
-
-                    k = k | ((long) b << shift);
-
-                    shift = shift + 0x8;
-
-                    if (shift == 0x20) {
-                        h = 0x00000000FFFFFFFFL & h;
-
-                        k = k * m;
-                        k = 0x00000000FFFFFFFFL & k;
-
-                        k = k ^ (k >> r);
-                        k = 0x00000000FFFFFFFFL & k;
-
-                        k = k * m;
-                        k = 0x00000000FFFFFFFFL & k;
-
-                        h = h * m;
-                        h = 0x00000000FFFFFFFFL & h;
-
-                        h = h ^ k;
-                        h = 0x00000000FFFFFFFFL & h;
-
-                        k = 0x0;
-                        shift = 0x0;
-                    }
-                }
-            }
-        }
-
-        if (shift > 0) {
-            h = h ^ k;
-            h = 0x00000000FFFFFFFFL & h;
-
-            h = h * m;
-            h = 0x00000000FFFFFFFFL & h;
-        }
-
-        h = h ^ (h >> 13);
-        h = 0x00000000FFFFFFFFL & h;
-
-        h = h * m;
-        h = 0x00000000FFFFFFFFL & h;
-
-        h = h ^ (h >> 15);
-        h = 0x00000000FFFFFFFFL & h;
-
-        return String.valueOf(h);
+        return FileHasher.hash(file, false, true).murmur();
     }
 
 
@@ -0,0 +1,362 @@
+package com.cufufy.amp.core.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Computes SHA-1 and the CurseForge murmur hash of a file with a single read of the file.
+ * CurseForge murmur is seeded with the whitespace-stripped length of the file, so the data has to be walked twice.
+ * Small files are read once into a pooled direct buffer and both walks happen in memory.
+ * Medium files are streamed through that buffer, large ones are memory mapped and walked twice over the mapping.
+ * Medium files which need murmur are mapped as well, streaming them would read every block a second time.
+ * File systems which can't map files get them streamed, the murmur walk then reads the blocks again from the page cache.
+ * The same read can also cut the file into content defined chunks, see {@link ContentChunker}.
+ */
+public class FileHasher {
+
+    public record Hashes(String sha1, String murmur, List<ContentChunker.Chunk> chunks) { }
+
+    // Files up to this size are read into memory at once
+    private static final int IN_MEMORY_LIMIT = 4 * 1024 * 1024;
+    // Files up to this size are streamed through the in memory buffer unless murmur is needed, bigger ones are memory mapped
+    private static final long STREAM_LIMIT = 64L * 1024 * 1024;
+    private static final long MAP_WINDOW = 256L * 1024 * 1024;
+    // Buffers and digests are pooled rather than kept per thread, short lived (e.g. virtual) threads would otherwise allocate
+    // a new buffer of up to IN_MEMORY_LIMIT for every file. At most one per core stays allocated, the others are dropped.
+    // MessageDigest lookup goes through the security providers every time, which is why the digests are reused too
+    private static final int POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final BlockingQueue<ByteBuffer> BUFFERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final BlockingQueue<MessageDigest> DIGESTS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * @param file   the file to hash
+     * @param sha1   whether to compute SHA-1
+     * @param murmur whether to compute CurseForge murmur hash
+     * @return the requested hashes, not requested ones are null
+     */
+    public static Hashes hash(Path file, boolean sha1, boolean murmur) throws IOException {
+        return hash(file, sha1, murmur, false);
+    }
+
+    /**
+     * @param file   the file to hash
+     * @param sha1   whether to compute SHA-1
+     * @param murmur whether to compute CurseForge murmur hash
+     * @param chunks whether to cut the file into content defined chunks
+     * @return the requested hashes and chunks, not requested ones are null
+     */
+    public static Hashes hash(Path file, boolean sha1, boolean murmur, boolean chunks) throws IOException {
+        return hash(file, sha1, murmur, chunks, null);
+    }
+
+    /**
+     * With a read limiter only the reads of the file wait for their turn, hashing the read data happens outside of it.
+     *
+     * @param file        the file to hash
+     * @param sha1        whether to compute SHA-1
+     * @param murmur      whether to compute CurseForge murmur hash
+     * @param chunks      whether to cut the file into content defined chunks
+     * @param readLimiter limits the concurrent reads, null for no limit
+     * @return the requested hashes and chunks, not requested ones are null
+     */
+    public static Hashes hash(Path file, boolean sha1, boolean murmur, boolean chunks, AdaptiveReadLimiter readLimiter) throws IOException {
+        Walk walk = new Walk(sha1 ? takeSha1() : null, chunks ? new ContentChunker() : null, murmur);
+        ByteBuffer buffer = null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= IN_MEMORY_LIMIT) {
+                buffer = takeBuffer(Math.max((int) size, 64 * 1024));
+                ByteBuffer data = buffer.limit((int) size);
+                readFully(channel, data, 0, readLimiter);
+                data.flip();
+                walk.first(data);
+                if (murmur) {
+                    walk.beginSecond();
+                    walk.second(data);
+                }
+            } else if ((size <= STREAM_LIMIT && !murmur) || !hashMapped(channel, size, walk, readLimiter)) {
+                buffer = takeBuffer(IN_MEMORY_LIMIT);
+                hashStreamed(channel, buffer, walk, readLimiter);
+            }
+
+            String sha1Hash = walk.digest == null ? null : HexFormat.of().formatHex(walk.digest.digest());
+            return new Hashes(sha1Hash, walk.murmurHash(), walk.chunker == null ? null : walk.chunker.finish());
+        } finally {
+            if (buffer != null) {
+                BUFFERS.offer(buffer);
+            }
+            if (walk.digest != null) {
+                walk.digest.reset(); // the hash may have failed half way
+                DIGESTS.offer(walk.digest);
+            }
+        }
+    }
+
+    // Walks the file in windows of the mapping, returns false if the file system can't map files
+    private static boolean hashMapped(FileChannel channel, long size, Walk walk, AdaptiveReadLimiter readLimiter) throws IOException {
+        for (long position = 0; position < size; position += MAP_WINDOW) {
+            MappedByteBuffer window;
+            try {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+            } catch (UnsupportedOperationException e) {
+                if (position == 0) {
+                    return false;
+                }
+                throw e;
+            }
+
+            if (readLimiter != null) {
+                // fault the window in at once, so the walks below don't read from the disk while hashing
+                readLimiter.acquire();
+                try {
+                    window.load();
+                } finally {
+                    readLimiter.release(window.capacity());
+                }
+            }
+            walk.first(window);
+        }
+
+        // second pass - murmur itself, already in page cache
+        if (walk.murmur) {
+            walk.beginSecond();
+            for (long position = 0; position < size; position += MAP_WINDOW) {
+                walk.second(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position)));
+            }
+        }
+        return true;
+    }
+
+    // Walks the file in blocks read into the buffer
+    private static void hashStreamed(FileChannel channel, ByteBuffer buffer, Walk walk, AdaptiveReadLimiter readLimiter) throws IOException {
+        for (long position = 0; ; ) {
+            buffer.clear();
+            int read = readFully(channel, buffer, position, readLimiter);
+            if (read == 0) {
+                break;
+            }
+            position += read;
+            walk.first(buffer.flip());
+        }
+
+        // second pass - murmur itself, only when the file can't be mapped, the blocks are read again from the page cache
+        if (walk.murmur) {
+            walk.beginSecond();
+            for (long position = 0; ; ) {
+                buffer.clear();
+                int read = readFully(channel, buffer, position, null);
+                if (read == 0) {
+                    break;
+                }
+                position += read;
+                walk.second(buffer.flip());
+            }
+        }
+    }
+
+    // Fills the rest of the buffer from the position of the file, or up to the end of the file
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position, AdaptiveReadLimiter readLimiter) throws IOException {
+        if (readLimiter != null) {
+            readLimiter.acquire();
+        }
+
+        int total = 0;
+        try {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + total);
+                if (read == -1) {
+                    break;
+                }
+                total += read;
+            }
+        } finally {
+            if (readLimiter != null) {
+                readLimiter.release(total);
+            }
+        }
+        return total;
+    }
+
+    // A cleared direct buffer of at least the capacity from the pool, a pooled one which is too small is replaced
+    private static ByteBuffer takeBuffer(int capacity) {
+        ByteBuffer buffer = BUFFERS.poll();
+        if (buffer == null || buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+        return buffer.clear();
+    }
+
+    private static MessageDigest takeSha1() {
+        MessageDigest digest = DIGESTS.poll();
+        if (digest != null) {
+            return digest;
+        }
+
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    // What is computed while walking the data of a file, the buffers passed in are left unchanged
+    private static class Walk {
+        private final MessageDigest digest;
+        private final ContentChunker chunker;
+        private final boolean murmur;
+        private long murmurLength;
+        private CurseforgeMurmur murmurState;
+
+        private Walk(MessageDigest digest, ContentChunker chunker, boolean murmur) {
+            this.digest = digest;
+            this.chunker = chunker;
+            this.murmur = murmur;
+        }
+
+        // first pass - sha1, chunks and murmur length
+        private void first(ByteBuffer data) {
+            if (digest != null) {
+                digest.update(data.duplicate());
+            }
+            if (chunker != null) {
+                chunker.update(data);
+            }
+            if (murmur) {
+                murmurLength += CurseforgeMurmur.countLength(data);
+            }
+        }
+
+        private void beginSecond() {
+            murmurState = new CurseforgeMurmur(murmurLength);
+        }
+
+        private void second(ByteBuffer data) {
+            murmurState.update(data);
+        }
+
+        private String murmurHash() {
+            return murmurState == null ? null : murmurState.finish();
+        }
+    }
+
+    /**
+     * CurseForge flavour of murmur2, ignores whitespace bytes and is seeded with the length of the remaining data.
+     */
+    static class CurseforgeMurmur {
+        private static final int m = 0x5bd1e995;
+        private static final int r = 24;
+        private static final int seed = 1;
+        // Value mixed into the hash for every byte, -1 for skipped whitespace
+        private static final int[] BYTE_VALUES = new int[256];
+
+        static {
+            for (int i = 0; i < 256; i++) {
+                char b = (char) (byte) i; // sign extended, same as reading byte into char
+                if (b == 0x9 || b == 0xa || b == 0xd || b == 0x20) {
+                    BYTE_VALUES[i] = -1;
+                    continue;
+                }
+
+                while (b > 255) {
+                    b -= 255;
+                }
+
+                BYTE_VALUES[i] = b;
+            }
+        }
+
+        private long h;
+        private long k = 0x0L;
+        private int shift = 0x0;
+
+        CurseforgeMurmur(long length) {
+            this.h = (seed ^ length);
+        }
+
+        static long countLength(ByteBuffer data) {
+            long length = 0;
+            for (int i = data.position(), limit = data.limit(); i < limit; i++) {
+                if (BYTE_VALUES[data.get(i) & 0xFF] != -1) {
+                    length++;
+                }
+            }
+            return length;
+        }
+
+        void update(ByteBuffer data) {
+            long h = this.h;
+            long k = this.k;
+            int shift = this.shift;
+
+            for (int i = data.position(), limit = data.limit(); i < limit; i++) {
+                int b = BYTE_VALUES[data.get(i) & 0xFF];
+                if (b == -1) {
+                    continue;
+                }
+
+                k = k | ((long) b << shift);
+
+                shift = shift + 0x8;
+
+                if (shift == 0x20) {
+                    h = 0x00000000FFFFFFFFL & h;
+
+                    k = k * m;
+                    k = 0x00000000FFFFFFFFL & k;
+
+                    k = k ^ (k >> r);
+                    k = 0x00000000FFFFFFFFL & k;
+
+                    k = k * m;
+                    k = 0x00000000FFFFFFFFL & k;
+
+                    h = h * m;
+                    h = 0x00000000FFFFFFFFL & h;
+
+                    h = h ^ k;
+                    h = 0x00000000FFFFFFFFL & h;
+
+                    k = 0x0;
+                    shift = 0x0;
+                }
+            }
+
+            this.h = h;
+            this.k = k;
+            this.shift = shift;
+        }
+
+        String finish() {
+            long h = this.h;
+
+            if (shift > 0) {
+                h = h ^ k;
+                h = 0x00000000FFFFFFFFL & h;
+
+                h = h * m;
+                h = 0x00000000FFFFFFFFL & h;
+            }
+
+            h = h ^ (h >> 13);
+            h = 0x00000000FFFFFFFFL & h;
+
+            h = h * m;
+            h = 0x00000000FFFFFFFFL & h;
+
+            h = h ^ (h >> 15);
+            h = 0x00000000FFFFFFFFL & h;
+
+            return String.valueOf(h);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.cufufy.amp.core.utils;
+
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * The 20 bytes of a SHA-1, used as the key of hosted files instead of its hex string.
+ * The hash code is taken from the digest itself, which is already uniformly distributed.
+ */
+public final class HashKey {
+    public static final int LENGTH = 20;
+    public static final int HEX_LENGTH = LENGTH * 2;
+
+    private final byte[] bytes;
+    private final int hashCode;
+
+    private HashKey(byte[] bytes) {
+        this.bytes = bytes;
+        this.hashCode = (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+    }
+
+    /**
+     * @throws IllegalArgumentException if it isn't a hex encoded SHA-1
+     */
+    public static HashKey fromHex(String hex) {
+        if (hex == null || hex.length() != HEX_LENGTH) {
+            throw new IllegalArgumentException("Not a SHA-1: " + hex);
+        }
+        return new HashKey(HexFormat.of().parseHex(hex));
+    }
+
+    /**
+     * Parses a hash as sent by clients, either the 20 bytes of the digest (protocol v3+) or its hex encoded as UTF-8.
+     *
+     * @return the key, or null if it's neither
+     */
+    public static HashKey fromWire(byte[] hash) {
+        if (hash.length == LENGTH) {
+            return new HashKey(hash.clone());
+        }
+
+        if (hash.length != HEX_LENGTH) {
+            return null;
+        }
+
+        byte[] bytes = new byte[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            int high = Character.digit(hash[i * 2], 16);
+            int low = Character.digit(hash[i * 2 + 1], 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return new HashKey(bytes);
+    }
+
+    public byte[] toBytes() {
+        return bytes.clone();
+    }
+
+    public String toHex() {
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof HashKey other && hashCode == other.hashCode && Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
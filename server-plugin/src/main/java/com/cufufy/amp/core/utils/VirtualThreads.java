@@ -0,0 +1,72 @@
+package com.cufufy.amp.core.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads of Java 21+, looked up reflectively since we still run on Java 17.
+ * Use {@link #isSupported()} to check whether the running JVM has them.
+ */
+public class VirtualThreads {
+
+    private static final MethodHandle ofVirtualMethodHandle;
+    private static final MethodHandle nameMethodHandle;
+    private static final MethodHandle factoryMethodHandle;
+    private static final MethodHandle newThreadPerTaskExecutorMethodHandle;
+
+    static {
+        MethodHandle ofVirtual = null;
+        MethodHandle name = null;
+        MethodHandle factory = null;
+        MethodHandle newThreadPerTaskExecutor = null;
+        try {
+            // a preview feature on Java 19 and 20
+            if (Runtime.version().feature() >= 21) {
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                ofVirtual = lookup.unreflect(Thread.class.getMethod("ofVirtual"))
+                        .asType(MethodType.methodType(Object.class));
+                name = lookup.unreflect(builderClass.getMethod("name", String.class, long.class))
+                        .asType(MethodType.methodType(Object.class, Object.class, String.class, long.class));
+                factory = lookup.unreflect(builderClass.getMethod("factory"))
+                        .asType(MethodType.methodType(ThreadFactory.class, Object.class));
+                newThreadPerTaskExecutor = lookup.unreflect(Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class));
+            }
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            // older JVM
+        }
+
+        ofVirtualMethodHandle = ofVirtual;
+        nameMethodHandle = name;
+        factoryMethodHandle = factory;
+        newThreadPerTaskExecutorMethodHandle = newThreadPerTaskExecutor;
+    }
+
+    public static boolean isSupported() {
+        return newThreadPerTaskExecutorMethodHandle != null;
+    }
+
+    /**
+     * Creates an executor which starts a new virtual thread for each task.
+     *
+     * @param namePrefix prefix of the thread names, followed by a counter starting at 1
+     * @throws UnsupportedOperationException if the JVM doesn't support virtual threads
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads are not supported on Java " + Runtime.version().feature());
+        }
+
+        try {
+            Object builder = nameMethodHandle.invokeExact(ofVirtualMethodHandle.invokeExact(), namePrefix, 1L);
+            ThreadFactory threadFactory = (ThreadFactory) factoryMethodHandle.invokeExact(builder);
+            return (ExecutorService) newThreadPerTaskExecutorMethodHandle.invokeExact(threadFactory);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to create a virtual thread executor", e);
+        }
+    }
+}
@@ -14,6 +14,7 @@ import org.bukkit.command.Command;
 import org.bukkit.command.PluginCommand;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import com.cufufy.amp.core.auth.SecretsStore;
 import com.cufufy.amp.plugin.command.AutoModpackCommand;
 import com.cufufy.amp.plugin.command.AutoModpackPaperCommand;
 import com.cufufy.amp.plugin.bridge.LoginBridgeManager;
@@ -65,6 +66,7 @@ public final class AutoModpackPlugin extends JavaPlugin {
         if (loginBridge != null) {
             loginBridge.close();
         }
+        SecretsStore.flush();
         getLogger().info("AutoModpack plugin stopped");
     }
 
@@ -14,6 +14,8 @@ public final class PluginSettings {
     private String modpackName;
     private String automodpackVersion;
     private String minecraftVersion;
+    private long watcherQuietPeriodMs = 2000;
+    private boolean hardLinkMods;
     private final HostSettings hostSettings = new HostSettings();
 
     public boolean forceMod() {
@@ -88,6 +90,22 @@ public final class PluginSettings {
         this.minecraftVersion = minecraftVersion;
     }
 
+    public long watcherQuietPeriodMs() {
+        return watcherQuietPeriodMs;
+    }
+
+    public void setWatcherQuietPeriodMs(long watcherQuietPeriodMs) {
+        this.watcherQuietPeriodMs = Math.max(0, watcherQuietPeriodMs);
+    }
+
+    public boolean hardLinkMods() {
+        return hardLinkMods;
+    }
+
+    public void setHardLinkMods(boolean hardLinkMods) {
+        this.hardLinkMods = hardLinkMods;
+    }
+
     public HostSettings host() {
         return hostSettings;
     }
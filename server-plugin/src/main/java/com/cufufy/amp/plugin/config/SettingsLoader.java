@@ -92,6 +92,8 @@ public final class SettingsLoader {
             case "modpack-name" -> settings.setModpackName(value);
             case "automodpack-version" -> settings.setAutomodpackVersion(value);
             case "minecraft-version" -> settings.setMinecraftVersion(value);
+            case "watcher-quiet-period-ms" -> settings.setWatcherQuietPeriodMs(asLong(value, 2000));
+            case "hard-link-mods" -> settings.setHardLinkMods(asBoolean(value, false));
             default -> {
             }
         }
@@ -135,6 +137,14 @@ public final class SettingsLoader {
         }
     }
 
+    private static long asLong(String value, long fallback) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ignored) {
+            return fallback;
+        }
+    }
+
     private static String stripQuotes(String value) {
         if ((value.startsWith("\"") && value.endsWith("\"")) || (value.startsWith("'") && value.endsWith("'"))) {
             return value.substring(1, value.length() - 1);
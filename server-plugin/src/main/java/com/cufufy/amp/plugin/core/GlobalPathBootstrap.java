@@ -17,6 +17,8 @@ public final class GlobalPathBootstrap {
         GlobalVariables.hostModpackDir = base.resolve("host-modpack");
         GlobalVariables.hostContentModpackDir = GlobalVariables.hostModpackDir.resolve("main");
         GlobalVariables.hostModpackContentFile = GlobalVariables.hostModpackDir.resolve("automodpack-content.json");
+        GlobalVariables.hostModpackHashIndexFile = GlobalVariables.hostModpackDir.resolve("automodpack-hash-index.json");
+        GlobalVariables.hostChunkCacheDir = GlobalVariables.hostModpackDir.resolve("chunk-cache");
 
         GlobalVariables.serverConfigFile = base.resolve("automodpack-server.json");
         GlobalVariables.serverCoreConfigFile = base.resolve("automodpack-core.json");
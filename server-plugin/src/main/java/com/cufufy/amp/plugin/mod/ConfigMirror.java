@@ -9,7 +9,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
-import com.cufufy.amp.plugin.util.PathUtils;
+import com.cufufy.amp.plugin.util.DirectorySync;
 
 public final class ConfigMirror implements AutoCloseable {
     private final Path hostConfigDir;
@@ -38,8 +38,8 @@ public final class ConfigMirror implements AutoCloseable {
     public synchronized void synchronize() throws IOException {
         Files.createDirectories(hostConfigDir);
         Files.createDirectories(mirrorDir);
-        PathUtils.deleteContents(mirrorDir);
-        PathUtils.copyTree(hostConfigDir, mirrorDir);
+        // copied, not linked, so edits in the mirror don't change the hosted files behind the back of their hashes
+        DirectorySync.syncTree(hostConfigDir, mirrorDir);
     }
 
     public Path mirrorDir() {
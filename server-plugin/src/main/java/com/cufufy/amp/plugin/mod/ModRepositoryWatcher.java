@@ -8,28 +8,57 @@ import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
-import com.cufufy.amp.plugin.util.PathUtils;
+import com.cufufy.amp.plugin.util.DirectorySync;
 
 public final class ModRepositoryWatcher implements AutoCloseable {
     private final Path sourceModsDir;
     private final Path targetModsDir;
-    private final Consumer<Instant> onSync;
+    private final Duration quietPeriod;
+    private final DirectorySync.Links links;
+    private final Consumer<ChangeSet> onSync;
     private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
         Thread t = new Thread(r, "AutoModpack-ModWatcher");
         t.setDaemon(true);
         return t;
     });
 
-    public ModRepositoryWatcher(Path sourceModsDir, Path targetModsDir, Consumer<Instant> onSync) {
+    /**
+     * Files changed in the target directory by a single synchronization.
+     *
+     * @param changedFiles files that were added or modified
+     * @param removedFiles files that were deleted
+     */
+    public record ChangeSet(Instant timestamp, Set<Path> changedFiles, Set<Path> removedFiles) {
+    }
+
+    /**
+     * @param quietPeriod how long no events must arrive and no changed file may grow before the collected changes are synchronized as one batch
+     */
+    public ModRepositoryWatcher(Path sourceModsDir, Path targetModsDir, Duration quietPeriod, Consumer<ChangeSet> onSync) {
+        this(sourceModsDir, targetModsDir, quietPeriod, null, onSync);
+    }
+
+    /**
+     * @param links hard links the mods into the target directory if not null, copies them otherwise.
+     *              An in place edit of a linked mod is still reported as changed, by its size or modification time
+     */
+    public ModRepositoryWatcher(Path sourceModsDir, Path targetModsDir, Duration quietPeriod, DirectorySync.Links links, Consumer<ChangeSet> onSync) {
         this.sourceModsDir = Objects.requireNonNull(sourceModsDir, "sourceModsDir");
         this.targetModsDir = Objects.requireNonNull(targetModsDir, "targetModsDir");
+        this.quietPeriod = Objects.requireNonNull(quietPeriod, "quietPeriod").isNegative() ? Duration.ZERO : quietPeriod;
+        this.links = links;
         this.onSync = Objects.requireNonNull(onSync, "onSync");
     }
 
@@ -49,37 +78,71 @@ public final class ModRepositoryWatcher implements AutoCloseable {
     }
 
     private void runWatcher(WatchService watchService) {
+        // relative path -> size seen at the last look, -1 when the file is missing
+        Map<Path, Long> pending = new LinkedHashMap<>();
+        boolean walkTree = false;
+
         while (!Thread.currentThread().isInterrupted()) {
             WatchKey key;
             try {
-                key = watchService.take();
+                if (pending.isEmpty() && !walkTree) {
+                    key = watchService.take();
+                } else {
+                    key = watchService.poll(quietPeriod.toMillis(), TimeUnit.MILLISECONDS);
+                }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 break;
             }
 
-            boolean relevantChange = false;
-            for (WatchEvent<?> event : key.pollEvents()) {
-                WatchEvent.Kind<?> kind = event.kind();
-                if (kind == StandardWatchEventKinds.OVERFLOW) {
+            if (key != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    WatchEvent.Kind<?> kind = event.kind();
+                    if (kind == StandardWatchEventKinds.OVERFLOW) {
+                        // events were lost, we don't know what changed
+                        walkTree = true;
+                        continue;
+                    }
+
+                    Path relative = (Path) event.context();
+                    if (Files.isDirectory(sourceModsDir.resolve(relative)) || Files.isDirectory(targetModsDir.resolve(relative))) {
+                        // sub directories are not watched, diff the whole tree
+                        walkTree = true;
+                        continue;
+                    }
+
+                    pending.put(relative, sizeOf(relative));
+                }
+
+                boolean valid = key.reset();
+                if (!valid) {
+                    break;
+                }
+
+                // more events may be on the way, wait for the quiet period to pass
+                if (!quietPeriod.isZero()) {
                     continue;
                 }
-                relevantChange = true;
             }
 
-            boolean valid = key.reset();
-            if (!valid) {
-                break;
+            // quiet period passed, but files still being written may not fire events on every write
+            if (!quietPeriod.isZero() && !sizesSettled(pending)) {
+                continue;
             }
 
-            if (relevantChange) {
-                try {
+            try {
+                if (walkTree) {
                     synchronize();
-                } catch (IOException e) {
-                    // continue watching despite the failure
-                    e.printStackTrace();
+                } else if (!pending.isEmpty()) {
+                    synchronize(pending.keySet());
                 }
+            } catch (IOException e) {
+                // continue watching despite the failure
+                e.printStackTrace();
             }
+
+            pending.clear();
+            walkTree = false;
         }
 
         try {
@@ -88,10 +151,55 @@ public final class ModRepositoryWatcher implements AutoCloseable {
         }
     }
 
+    // Updates the recorded sizes, returns false if any of them changed since the last look
+    private boolean sizesSettled(Map<Path, Long> pending) {
+        boolean settled = true;
+        for (Map.Entry<Path, Long> entry : pending.entrySet()) {
+            long size = sizeOf(entry.getKey());
+            if (size != entry.getValue()) {
+                entry.setValue(size);
+                settled = false;
+            }
+        }
+        return settled;
+    }
+
+    private long sizeOf(Path relative) {
+        try {
+            return Files.size(sourceModsDir.resolve(relative));
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
     private synchronized void synchronize() throws IOException {
-        PathUtils.deleteContents(targetModsDir);
-        PathUtils.copyTree(sourceModsDir, targetModsDir);
-        onSync.accept(Instant.now());
+        DirectorySync.Result result = DirectorySync.syncTree(sourceModsDir, targetModsDir, links);
+        if (!result.isEmpty()) {
+            onSync.accept(new ChangeSet(Instant.now(), result.changed(), result.removed()));
+        }
+    }
+
+    // Mirrors only the given files, relative to the source directory
+    private synchronized void synchronize(Set<Path> relativeFiles) throws IOException {
+        Set<Path> changedFiles = new LinkedHashSet<>();
+        Set<Path> removedFiles = new LinkedHashSet<>();
+
+        for (Path relative : relativeFiles) {
+            Path source = sourceModsDir.resolve(relative);
+            Path target = targetModsDir.resolve(relative);
+
+            if (Files.isRegularFile(source)) {
+                if (DirectorySync.syncFile(source, target, links)) {
+                    changedFiles.add(target);
+                }
+            } else if (Files.deleteIfExists(target)) {
+                removedFiles.add(target);
+            }
+        }
+
+        if (!changedFiles.isEmpty() || !removedFiles.isEmpty()) {
+            onSync.accept(new ChangeSet(Instant.now(), changedFiles, removedFiles));
+        }
     }
 
     @Override
@@ -3,7 +3,7 @@ package com.cufufy.amp.plugin.mod;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.Instant;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -14,6 +14,7 @@ import java.util.logging.Logger;
 import com.cufufy.amp.plugin.config.PluginSettings;
 import com.cufufy.amp.plugin.core.PluginGameCall;
 import com.cufufy.amp.plugin.core.SpigotLoaderManager;
+import com.cufufy.amp.plugin.util.DirectorySync;
 import com.cufufy.amp.core.GlobalVariables;
 import com.cufufy.amp.core.config.ConfigTools;
 import com.cufufy.amp.core.config.Jsons;
@@ -134,20 +135,19 @@ public final class ModpackHostService implements AutoCloseable {
         Path hostModsDir = GlobalVariables.hostModpackDir.resolve("main").resolve("mods");
         Path hostConfigDir = GlobalVariables.hostModpackDir.resolve("main").resolve("config");
 
-        modWatcher = new ModRepositoryWatcher(modsSourceDir, hostModsDir, this::handleModpackUpdate);
+        DirectorySync.Links links = settings.hardLinkMods() ? new DirectorySync.Links() : null;
+        modWatcher = new ModRepositoryWatcher(modsSourceDir, hostModsDir, Duration.ofMillis(settings.watcherQuietPeriodMs()), links, this::handleModpackUpdate);
         modWatcher.initialize();
 
         configMirror = new ConfigMirror(hostConfigDir, configMirrorDir);
         configMirror.synchronizeAsync();
     }
 
-    private void handleModpackUpdate(Instant timestamp) {
+    private void handleModpackUpdate(ModRepositoryWatcher.ChangeSet changes) {
         synchronized (this) {
-            if (GlobalVariables.modpackExecutor.isGenerating()) {
-                return;
-            }
+            // Only the touched jars are re-read, the rest of the modpack stays as it is
+            boolean generated = GlobalVariables.modpackExecutor.applyChanges(changes.changedFiles(), changes.removedFiles());
 
-            boolean generated = GlobalVariables.modpackExecutor.generateNew();
             if (!generated) {
                 logger.warning("Modpack regeneration completed without output");
             }
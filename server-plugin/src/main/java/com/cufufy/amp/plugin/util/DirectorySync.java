@@ -0,0 +1,233 @@
+package com.cufufy.amp.plugin.util;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cufufy.amp.core.utils.FileHasher;
+
+/**
+ * Mirrors a directory into another one by touching only the entries that differ.
+ * Files are compared by size and modification time, and by SHA-1 when only the time differs.
+ * Changed files are copied, or with {@link Links} hard linked to the source where possible, always into a hidden
+ * temporary file next to the target which is then renamed over it, so the target is never seen missing or half written.
+ * Copy when the target is served or hashed on its own: an in place edit of a linked source changes the target at once.
+ */
+public final class DirectorySync {
+    private static final String TEMP_PREFIX = ".";
+    private static final String TEMP_SUFFIX = ".amp-sync.tmp";
+
+    /**
+     * @param changed files in the target directory that were created or replaced
+     * @param removed files in the target directory that were deleted
+     */
+    public record Result(Set<Path> changed, Set<Path> removed) {
+        public boolean isEmpty() {
+            return changed.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    /**
+     * Hard links targets to their sources and remembers the size and modification time of each link when it was synced.
+     * A linked target shares the data of its source, so an in place edit of the source can only be told apart by those.
+     */
+    public static final class Links {
+        private final Map<Path, Stamp> stamps = new ConcurrentHashMap<>();
+
+        private record Stamp(long size, FileTime lastModified) {
+            private static Stamp of(BasicFileAttributes attributes) {
+                return new Stamp(attributes.size(), attributes.lastModifiedTime());
+            }
+        }
+
+        // Records the current stamp of the linked target, returns true if it differs from the one of the last sync
+        private boolean changedSinceLastSync(Path target, BasicFileAttributes attributes) {
+            Stamp previous = stamps.put(key(target), Stamp.of(attributes));
+            return previous != null && !previous.equals(Stamp.of(attributes));
+        }
+
+        private void linked(Path target, BasicFileAttributes attributes) {
+            stamps.put(key(target), Stamp.of(attributes));
+        }
+
+        private void forget(Path target) {
+            stamps.remove(key(target));
+        }
+
+        private static Path key(Path target) {
+            return target.toAbsolutePath().normalize();
+        }
+    }
+
+    private DirectorySync() {
+    }
+
+    public static Result syncTree(Path source, Path target) throws IOException {
+        return syncTree(source, target, null);
+    }
+
+    /**
+     * @param links hard links the files if not null, copies them otherwise
+     */
+    public static Result syncTree(Path source, Path target, Links links) throws IOException {
+        Objects.requireNonNull(source, "source");
+        Objects.requireNonNull(target, "target");
+
+        Set<Path> changed = new LinkedHashSet<>();
+        Set<Path> removed = new LinkedHashSet<>();
+        Files.createDirectories(target);
+
+        if (Files.exists(source)) {
+            Files.walkFileTree(source, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    Path destination = target.resolve(source.relativize(dir).toString());
+                    if (Files.isRegularFile(destination, LinkOption.NOFOLLOW_LINKS)) {
+                        Files.delete(destination);
+                        removed.add(destination);
+                    }
+                    Files.createDirectories(destination);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Path destination = target.resolve(source.relativize(file).toString());
+                    if (Files.isDirectory(destination, LinkOption.NOFOLLOW_LINKS)) {
+                        PathUtils.deleteContents(destination);
+                        Files.delete(destination);
+                    }
+                    if (syncFile(file, destination, links)) {
+                        changed.add(destination);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        // drop everything that is no longer in the source
+        Files.walkFileTree(target, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path origin = source.resolve(target.relativize(file).toString());
+                if (Files.notExists(origin)) {
+                    Files.deleteIfExists(file);
+                    if (links != null) {
+                        links.forget(file);
+                    }
+                    if (!isTempFile(file)) {
+                        removed.add(file);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (!dir.equals(target) && !Files.isDirectory(source.resolve(target.relativize(dir).toString()))) {
+                    Files.deleteIfExists(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return new Result(changed, removed);
+    }
+
+    /**
+     * Brings a single target file up to date with the source file by copying it.
+     *
+     * @return true if the target file was created or replaced, false if it was already up to date
+     */
+    public static boolean syncFile(Path source, Path target) throws IOException {
+        return syncFile(source, target, null);
+    }
+
+    /**
+     * Brings a single target file up to date with the source file.
+     * A target which is the source itself counts as changed when its size or modification time differ from the last sync,
+     * without links such a target is replaced with a copy.
+     *
+     * @param links hard links the file if not null, copies it otherwise
+     * @return true if the target file was created or changed, false if it was already up to date
+     */
+    public static boolean syncFile(Path source, Path target, Links links) throws IOException {
+        BasicFileAttributes sourceAttributes = Files.readAttributes(source, BasicFileAttributes.class);
+        boolean sameFile = false;
+        if (Files.exists(target)) {
+            sameFile = Files.isSameFile(source, target);
+            if (sameFile && links != null) {
+                return links.changedSinceLastSync(target, sourceAttributes);
+            }
+
+            BasicFileAttributes targetAttributes = Files.readAttributes(target, BasicFileAttributes.class);
+            if (!sameFile && sourceAttributes.size() == targetAttributes.size()) {
+                if (sourceAttributes.lastModifiedTime().equals(targetAttributes.lastModifiedTime())) {
+                    return false;
+                }
+
+                // only the time differs, e.g. the file was touched or copied without attributes
+                if (Objects.equals(sha1(source), sha1(target))) {
+                    Files.setLastModifiedTime(target, sourceAttributes.lastModifiedTime());
+                    return false;
+                }
+            }
+        }
+
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        Path temp = target.resolveSibling(TEMP_PREFIX + target.getFileName() + TEMP_SUFFIX);
+        Files.deleteIfExists(temp);
+        try {
+            if (links == null || !link(source, temp)) {
+                Files.copy(source, temp, StandardCopyOption.COPY_ATTRIBUTES);
+            }
+            move(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        if (links != null) {
+            links.linked(target, sourceAttributes);
+        }
+        // a former link broken up into a copy holds the same data, but it may have been edited since it was last synced
+        return true;
+    }
+
+    private static boolean link(Path source, Path temp) {
+        try {
+            Files.createLink(temp, source);
+            return true;
+        } catch (UnsupportedOperationException | IOException e) {
+            return false; // different filesystem, or the filesystem doesn't support hard links
+        }
+    }
+
+    private static void move(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String sha1(Path file) throws IOException {
+        return FileHasher.hash(file, true, false).sha1();
+    }
+
+    private static boolean isTempFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX);
+    }
+}
@@ -0,0 +1,93 @@
+package com.cufufy.amp.core.auth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SecretsStoreTest {
+    private Path tempDir;
+    private final List<SecretsStore.SecretsCache> caches = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("automodpack-secrets-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        // nothing may be left to write into the deleted directory
+        caches.forEach(SecretsStore.SecretsCache::close);
+        if (tempDir != null) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        }
+    }
+
+    @Test
+    void secretsAreFoundByValueAndReplacedPerKey() {
+        SecretsStore.SecretsCache cache = open(new SecretsStore.SecretsCache(tempDir.resolve("secrets.json")));
+        cache.save("player", new Secrets.Secret("old", 100L));
+        cache.save("player", new Secrets.Secret("new", 200L));
+
+        assertEquals(null, cache.getBySecret("old"));
+        assertEquals("player", cache.getBySecret("new").getKey());
+
+        // indexed again when replayed from the journal
+        cache.flush();
+        SecretsStore.SecretsCache reloaded = open(new SecretsStore.SecretsCache(tempDir.resolve("secrets.json")));
+        assertEquals(200L, reloaded.getBySecret("new").getValue().timestamp());
+    }
+
+    @Test
+    void expiredSecretsAreEvicted() {
+        SecretsStore.SecretsCache cache = open(new SecretsStore.SecretsCache(tempDir.resolve("secrets.json")));
+        cache.save("a", new Secrets.Secret("a-secret", 100L));
+        cache.save("b", new Secrets.Secret("b-secret", 200L));
+        cache.save("c", new Secrets.Secret("c-secret", 300L));
+
+        cache.evictIssuedBefore(250);
+
+        assertEquals(null, cache.getBySecret("a-secret"));
+        assertEquals(null, cache.get("b"));
+        assertTrue(cache.getBySecret("c-secret") != null);
+    }
+
+    @Test
+    void journalIsCompactedWithoutExpiredSecrets() {
+        Path file = tempDir.resolve("secrets.json");
+        long now = System.currentTimeMillis() / 1000;
+        SecretsStore.SecretsCache cache = open(new SecretsStore.SecretsCache(file, () -> 3600));
+        cache.save("expired", new Secrets.Secret("expired-secret", now - 7200));
+        for (int i = 0; i < SecretsJournal.COMPACT_AFTER; i++) {
+            cache.save("player-" + i, new Secrets.Secret("secret-" + i, now));
+        }
+        cache.flush();
+
+        // only compaction writes the file itself
+        assertTrue(Files.isRegularFile(file));
+
+        SecretsStore.SecretsCache reloaded = open(new SecretsStore.SecretsCache(file));
+        assertEquals(null, reloaded.get("expired"));
+        assertEquals("player-7", reloaded.getBySecret("secret-7").getKey());
+    }
+
+    private SecretsStore.SecretsCache open(SecretsStore.SecretsCache cache) {
+        caches.add(cache);
+        return cache;
+    }
+}
@@ -0,0 +1,119 @@
+package com.cufufy.amp.core.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ConfigToolsTest {
+    private Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("automodpack-config-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (tempDir != null) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        }
+    }
+
+    @Test
+    void modpackContentRoundTripsThroughCompactJson() throws IOException {
+        Set<Jsons.ModpackContentFields.ModpackContentItem> items = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            items.add(new Jsons.ModpackContentFields.ModpackContentItem("/mods/mod-" + i + ".jar", String.valueOf(i), "mod", i % 2 == 0, false, "sha1-" + i, i % 3 == 0 ? null : "murmur-" + i));
+        }
+        Jsons.ModpackContentFields content = new Jsons.ModpackContentFields(items);
+        content.modpackName = "pack";
+        content.mcVersion = "1.21.1";
+
+        Path file = tempDir.resolve("automodpack-content.json");
+        ConfigTools.saveModpackContent(file, content);
+
+        String json = Files.readString(file);
+        assertFalse(json.contains("\n"));
+        assertFalse(json.contains("null"));
+        assertFalse(Files.exists(tempDir.resolve("automodpack-content.json.tmp")));
+
+        Jsons.ModpackContentFields loaded = ConfigTools.loadModpackContent(file);
+        assertEquals("pack", loaded.modpackName);
+        assertEquals("1.21.1", loaded.mcVersion);
+        assertEquals(100, loaded.list.size());
+
+        Map<String, Jsons.ModpackContentFields.ModpackContentItem> byFile = new HashMap<>();
+        loaded.list.forEach(item -> byFile.put(item.file, item));
+        Jsons.ModpackContentFields.ModpackContentItem item = byFile.get("/mods/mod-4.jar");
+        assertEquals("sha1-4", item.sha1);
+        assertEquals("murmur-4", item.murmur);
+        assertTrue(item.editable);
+        assertEquals(null, byFile.get("/mods/mod-3.jar").murmur);
+    }
+
+    @Test
+    void failedSaveKeepsPreviousContentAndDeletesTempFile() throws IOException {
+        Path file = tempDir.resolve("automodpack-content.json");
+        Files.writeString(file, "{\"modpackName\":\"old\",\"list\":[]}");
+
+        // a null item fails the save once the temp file is open
+        Set<Jsons.ModpackContentFields.ModpackContentItem> items = new HashSet<>();
+        items.add(new Jsons.ModpackContentFields.ModpackContentItem("/mods/a.jar", "1", "mod", false, false, "sha1", null));
+        items.add(null);
+        ConfigTools.saveModpackContent(file, new Jsons.ModpackContentFields(items));
+
+        assertEquals("old", ConfigTools.loadModpackContent(file).modpackName);
+        assertFalse(Files.exists(tempDir.resolve("automodpack-content.json.tmp")));
+    }
+
+    @Test
+    void prettyPrintedModpackContentIsStillRead() throws IOException {
+        Path file = tempDir.resolve("automodpack-content.json");
+        Files.writeString(file, """
+                {
+                  "modpackName": "pack",
+                  "unknownField": {"nested": [1, 2]},
+                  "list": [
+                    {
+                      "file": "/config/a.toml",
+                      "size": "12",
+                      "type": "config",
+                      "editable": true,
+                      "forceCopy": false,
+                      "sha1": "abc",
+                      "murmur": "def"
+                    }
+                  ],
+                  "loader": "fabric"
+                }
+                """);
+
+        Set<String> streamed = new HashSet<>();
+        Jsons.ModpackContentFields header = ConfigTools.readModpackContent(file, item -> streamed.add(item.sha1));
+        assertEquals(Set.of("abc"), streamed);
+        assertEquals("fabric", header.loader);
+        assertTrue(header.list.isEmpty());
+
+        assertEquals("def", ConfigTools.loadModpackContent(file).list.iterator().next().murmur);
+        assertEquals(null, ConfigTools.loadModpackContent(tempDir.resolve("missing.json")));
+    }
+}
@@ -0,0 +1,110 @@
+package com.cufufy.amp.core.modpack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.cufufy.amp.core.config.ConfigTools;
+import com.cufufy.amp.core.config.Jsons;
+import com.cufufy.amp.core.utils.CustomFileUtils;
+import com.cufufy.amp.core.utils.HashKey;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ContentGenerationsTest {
+    private Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("automodpack-generations-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (tempDir != null) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        }
+    }
+
+    @Test
+    void deltaRebuildsTheNewerContentFile() throws IOException {
+        Set<Jsons.ModpackContentFields.ModpackContentItem> oldItems = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            oldItems.add(item("/mods/mod-" + i + ".jar", "sha1-" + i));
+        }
+        Set<Jsons.ModpackContentFields.ModpackContentItem> newItems = new HashSet<>(oldItems);
+        newItems.removeIf(item -> item.file.equals("/mods/mod-3.jar") || item.file.equals("/mods/mod-4.jar"));
+        newItems.add(item("/mods/mod-4.jar", "sha1-4-updated"));
+        Jsons.ModpackContentFields.ModpackContentItem chunked = item("/mods/new.jar", "sha1-new");
+        chunked.chunks = List.of(new Jsons.ChunkFields("chunk-1", 65536), new Jsons.ChunkFields("chunk-2", 100));
+        newItems.add(chunked);
+
+        Path oldFile = save(tempDir.resolve("old.json"), oldItems);
+        Path newFile = save(tempDir.resolve("new.json"), newItems);
+        HashKey oldEtag = HashKey.fromHex(CustomFileUtils.getHash(oldFile));
+        HashKey newEtag = HashKey.fromHex(CustomFileUtils.getHash(newFile));
+
+        ContentGenerations generations = new ContentGenerations();
+        assertEquals(1L, generations.add(oldEtag, oldItems));
+        assertEquals(2L, generations.add(newEtag, newItems));
+        assertEquals(2L, generations.add(newEtag, newItems));
+
+        ContentGenerations.Delta delta = ContentGenerations.Delta.decode(generations.diffSince(oldEtag).orElseThrow().encode());
+        assertEquals(1L, delta.getFromGeneration());
+        assertEquals(2L, delta.getToGeneration());
+        assertEquals(newEtag, delta.getEtag());
+        assertEquals(2, delta.getChanged().size());
+        assertEquals(List.of("/mods/mod-3.jar"), delta.getRemoved());
+
+        // applied to the older file, the delta gives exactly the newer one
+        Path rebuilt = tempDir.resolve("rebuilt.json");
+        ConfigTools.saveModpackContent(rebuilt, delta.applyTo(ConfigTools.loadModpackContent(oldFile)));
+        assertEquals(-1L, Files.mismatch(newFile, rebuilt));
+
+        assertTrue(generations.diffSince(newEtag).orElseThrow().getChanged().isEmpty());
+    }
+
+    @Test
+    void oldGenerationsAgeOut() {
+        ContentGenerations generations = new ContentGenerations();
+        HashKey first = etag(0);
+        generations.add(first, List.of(item("/mods/a.jar", "a")));
+        for (int i = 1; i < ContentGenerations.CAPACITY; i++) {
+            generations.add(etag(i), List.of(item("/mods/a.jar", "a" + i)));
+        }
+        assertTrue(generations.diffSince(first).isPresent());
+
+        generations.add(etag(ContentGenerations.CAPACITY), List.of());
+        assertTrue(generations.diffSince(first).isEmpty());
+        assertEquals(1, generations.diffSince(etag(1)).orElseThrow().getRemoved().size());
+    }
+
+    private Path save(Path file, Set<Jsons.ModpackContentFields.ModpackContentItem> items) {
+        Jsons.ModpackContentFields content = new Jsons.ModpackContentFields(items);
+        content.modpackName = "pack";
+        ConfigTools.saveModpackContent(file, content);
+        return file;
+    }
+
+    private static Jsons.ModpackContentFields.ModpackContentItem item(String file, String sha1) {
+        return new Jsons.ModpackContentFields.ModpackContentItem(file, "1", "mod", false, false, sha1, null);
+    }
+
+    private static HashKey etag(int number) {
+        return HashKey.fromHex(String.format("%040x", number + 1));
+    }
+}
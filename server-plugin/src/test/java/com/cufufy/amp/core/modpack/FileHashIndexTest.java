@@ -0,0 +1,96 @@
+package com.cufufy.amp.core.modpack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.cufufy.amp.core.config.Jsons;
+
+class FileHashIndexTest {
+    private Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("automodpack-hash-index-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (tempDir != null) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        }
+    }
+
+    @Test
+    void reusesEntryAfterReloadWhileFileIsUnchanged() throws IOException {
+        Path indexFile = tempDir.resolve("automodpack-hash-index.json");
+        Path file = tempDir.resolve("example.jar");
+        Files.writeString(file, "content");
+
+        FileHashIndex index = new FileHashIndex(indexFile);
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        assertTrue(index.get("/mods/example.jar", attributes) == null);
+
+        Jsons.HashIndexFields.HashIndexEntry entry = FileHashIndex.newEntry(attributes);
+        entry.sha1 = "abc";
+        entry.murmur = "123";
+        index.put("/mods/example.jar", entry);
+        index.save();
+
+        FileHashIndex reloaded = new FileHashIndex(indexFile);
+        Jsons.HashIndexFields.HashIndexEntry cached = reloaded.get("/mods/example.jar", attributes);
+        assertFalse(cached == null);
+        assertEquals("abc", cached.sha1);
+        assertEquals("123", cached.murmur);
+    }
+
+    @Test
+    void invalidatesEntryWhenFileChanges() throws IOException {
+        Path file = tempDir.resolve("options.txt");
+        Files.writeString(file, "a");
+
+        FileHashIndex index = new FileHashIndex(tempDir.resolve("index.json"));
+        Jsons.HashIndexFields.HashIndexEntry entry = FileHashIndex.newEntry(Files.readAttributes(file, BasicFileAttributes.class));
+        entry.sha1 = "abc";
+        index.put("/options.txt", entry);
+
+        Files.writeString(file, "ab");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(entry.lastModified + 1000));
+
+        assertTrue(index.get("/options.txt", Files.readAttributes(file, BasicFileAttributes.class)) == null);
+    }
+
+    @Test
+    void retainTouchedDropsFilesNotSeenInGeneration() throws IOException {
+        Path file = tempDir.resolve("kept.txt");
+        Files.writeString(file, "a");
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+        FileHashIndex index = new FileHashIndex(tempDir.resolve("index.json"));
+        index.put("/kept.txt", FileHashIndex.newEntry(attributes));
+        index.put("/gone.txt", FileHashIndex.newEntry(attributes));
+
+        index.beginGeneration();
+        index.get("/kept.txt", attributes);
+        index.retainTouched();
+
+        assertFalse(index.get("/kept.txt", attributes) == null);
+        assertTrue(index.get("/gone.txt", attributes) == null);
+    }
+}
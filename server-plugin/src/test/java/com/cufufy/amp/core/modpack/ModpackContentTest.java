@@ -0,0 +1,233 @@
+package com.cufufy.amp.core.modpack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.cufufy.amp.core.GlobalVariables;
+import com.cufufy.amp.core.config.Jsons;
+import com.cufufy.amp.core.utils.CustomFileUtils;
+import com.cufufy.amp.core.utils.HashKey;
+
+class ModpackContentTest {
+    private Path tempDir;
+    private Path modpackDir;
+    private GenerationScheduler scheduler;
+    private Path originalAutomodpackDir;
+    private Path originalHostModpackDir;
+    private Path originalHostContentFile;
+    private Path originalHostHashIndexFile;
+    private Jsons.ServerConfigFieldsV2 originalServerConfig;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("automodpack-content-test");
+
+        originalAutomodpackDir = GlobalVariables.automodpackDir;
+        originalHostModpackDir = GlobalVariables.hostModpackDir;
+        originalHostContentFile = GlobalVariables.hostModpackContentFile;
+        originalHostHashIndexFile = GlobalVariables.hostModpackHashIndexFile;
+        originalServerConfig = GlobalVariables.serverConfig;
+
+        GlobalVariables.automodpackDir = tempDir.resolve("automodpack");
+        GlobalVariables.hostModpackDir = GlobalVariables.automodpackDir.resolve("host-modpack");
+        GlobalVariables.hostModpackContentFile = GlobalVariables.hostModpackDir.resolve("automodpack-content.json");
+        GlobalVariables.hostModpackHashIndexFile = GlobalVariables.hostModpackDir.resolve("automodpack-hash-index.json");
+        GlobalVariables.serverConfig = new Jsons.ServerConfigFieldsV2();
+
+        modpackDir = GlobalVariables.hostModpackDir.resolve("main");
+        Files.createDirectories(modpackDir.resolve("config"));
+        scheduler = new GenerationScheduler(2);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        scheduler.shutdown();
+        GlobalVariables.automodpackDir = originalAutomodpackDir;
+        GlobalVariables.hostModpackDir = originalHostModpackDir;
+        GlobalVariables.hostModpackContentFile = originalHostContentFile;
+        GlobalVariables.hostModpackHashIndexFile = originalHostHashIndexFile;
+        GlobalVariables.serverConfig = originalServerConfig;
+
+        if (tempDir != null) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        }
+    }
+
+    @Test
+    void appliesChangedAddedAndRemovedFiles() throws IOException {
+        Path kept = write("config/kept.toml", "kept = true");
+        Path changed = write("config/changed.toml", "value = 1");
+        Path removed = write("config/removed.toml", "removed = true");
+
+        ModpackContent content = newContent();
+        assertTrue(content.create());
+        assertEquals(3, content.list.size());
+        String keptSha1 = item(content, "/config/kept.toml").sha1;
+        String oldSha1 = item(content, "/config/changed.toml").sha1;
+        String removedSha1 = item(content, "/config/removed.toml").sha1;
+
+        write("config/changed.toml", "value = 2000");
+        Path added = write("config/added.toml", "added = true");
+        Files.delete(removed);
+
+        content.applyChanges(List.of(changed, added), List.of(removed));
+
+        assertEquals(3, content.list.size());
+        assertEquals(keptSha1, item(content, "/config/kept.toml").sha1);
+        assertEquals(CustomFileUtils.getHash(changed), item(content, "/config/changed.toml").sha1);
+        assertEquals(CustomFileUtils.getHash(added), item(content, "/config/added.toml").sha1);
+        assertTrue(item(content, "/config/removed.toml") == null);
+
+        assertEquals(kept, content.pathsMap.getMap().get(HashKey.fromHex(keptSha1)));
+        assertEquals(changed, content.pathsMap.getMap().get(HashKey.fromHex(CustomFileUtils.getHash(changed))));
+        assertFalse(content.pathsMap.getMap().containsKey(HashKey.fromHex(oldSha1)));
+        assertFalse(content.pathsMap.getMap().containsKey(HashKey.fromHex(removedSha1)));
+
+        // the saved content matches the applied one
+        Jsons.ModpackContentFields saved = content.getPreviousContent().orElseThrow();
+        assertEquals(3, saved.list.size());
+    }
+
+    @Test
+    void replaceDropsContentOfDeletedFile() throws IOException {
+        Path file = write("config/gone.toml", "gone = soon");
+        write("config/other.toml", "other = true");
+
+        ModpackContent content = newContent();
+        assertTrue(content.create());
+        String sha1 = item(content, "/config/gone.toml").sha1;
+
+        Files.delete(file);
+        content.replace(file);
+
+        assertEquals(1, content.list.size());
+        assertTrue(item(content, "/config/gone.toml") == null);
+        assertFalse(content.pathsMap.getMap().containsKey(HashKey.fromHex(sha1)));
+    }
+
+    @Test
+    void replaceKeepsPathOfUnchangedFile() throws IOException {
+        Path file = write("config/same.toml", "same = true");
+
+        ModpackContent content = newContent();
+        assertTrue(content.create());
+        String sha1 = item(content, "/config/same.toml").sha1;
+
+        content.replace(file);
+
+        assertEquals(1, content.list.size());
+        assertEquals(sha1, item(content, "/config/same.toml").sha1);
+        assertEquals(file, content.pathsMap.getMap().get(HashKey.fromHex(sha1)));
+    }
+
+    @Test
+    void executorQueuesChangesUntilGenerationRegistersItsContent() throws IOException {
+        write("config/first.toml", "first = true");
+        GlobalVariables.serverConfig.modpackName = "test";
+
+        ModpackExecutor executor = new ModpackExecutor();
+        try {
+            Path late = modpackDir.resolve("config/late.toml");
+            ModpackContent content = new ModpackContent("test", null, modpackDir, List.of(), List.of(), List.of(), scheduler) {
+                @Override
+                public boolean create() {
+                    boolean created = super.create();
+                    // a change set coming in while the generation is still running
+                    try {
+                        Files.writeString(late, "late = true");
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    assertTrue(executor.applyChanges(List.of(late), List.of()));
+                    assertTrue(item(this, "/config/late.toml") == null);
+                    return created;
+                }
+            };
+
+            assertTrue(executor.generateNew(content));
+            assertTrue(executor.modpacks.get("test") == content);
+            assertEquals(CustomFileUtils.getHash(late), item(content, "/config/late.toml").sha1);
+            assertFalse(executor.isGenerating());
+        } finally {
+            executor.stop();
+        }
+    }
+
+    @Test
+    void asyncChangesCompleteOnceAppliedAfterRunningGeneration() throws Exception {
+        write("config/first.toml", "first = true");
+        GlobalVariables.serverConfig.modpackName = "test";
+
+        ModpackExecutor executor = new ModpackExecutor();
+        try {
+            Path late = modpackDir.resolve("config/late.toml");
+            List<CompletableFuture<Boolean>> applied = new ArrayList<>();
+            ModpackContent content = new ModpackContent("test", null, modpackDir, List.of(), List.of(), List.of(), scheduler) {
+                @Override
+                public boolean create() {
+                    boolean created = super.create();
+                    try {
+                        Files.writeString(late, "late = true");
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    // a client refresh while the generation is still running waits for it
+                    applied.add(executor.applyChangesAsync(List.of(late), List.of()));
+                    assertFalse(applied.get(0).isDone());
+                    return created;
+                }
+            };
+
+            assertTrue(executor.generateNew(content));
+            assertTrue(applied.get(0).isDone() && applied.get(0).get());
+            assertEquals(CustomFileUtils.getHash(late), item(content, "/config/late.toml").sha1);
+
+            // nothing runs, applied on the executor's own thread
+            Files.writeString(late, "late = false");
+            assertTrue(executor.applyChangesAsync(List.of(late), List.of()).get(10, TimeUnit.SECONDS));
+            assertEquals(CustomFileUtils.getHash(late), item(content, "/config/late.toml").sha1);
+        } finally {
+            executor.stop();
+        }
+    }
+
+    private ModpackContent newContent() {
+        return new ModpackContent("test", null, modpackDir, List.of(), List.of(), List.of(), scheduler);
+    }
+
+    private Path write(String relative, String text) throws IOException {
+        Path file = modpackDir.resolve(relative);
+        Files.writeString(file, text);
+        return file;
+    }
+
+    private static Jsons.ModpackContentFields.ModpackContentItem item(ModpackContent content, String file) {
+        synchronized (content.list) {
+            for (Jsons.ModpackContentFields.ModpackContentItem item : content.list) {
+                if (item.file.equals(file)) {
+                    return item;
+                }
+            }
+        }
+        return null;
+    }
+}
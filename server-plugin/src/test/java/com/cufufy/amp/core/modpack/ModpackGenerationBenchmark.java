@@ -0,0 +1,92 @@
+package com.cufufy.amp.core.modpack;
+
+import com.cufufy.amp.core.GlobalVariables;
+import com.cufufy.amp.core.config.Jsons;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures a full modpack generation with a cold hash index over a synthetic tree of 10k files:
+ * mostly small configs spread over nested directories, some medium resource packs and a few large ones,
+ * which used to leave the other workers idle when they landed at the end of a slice.
+ * <p>
+ * Usage: {@code java -cp <test classpath> com.cufufy.amp.core.modpack.ModpackGenerationBenchmark <directory> [iterations]}
+ * <p>
+ * The tree is created in the directory on the first run and reused afterwards.
+ */
+public class ModpackGenerationBenchmark {
+    private static final int SMALL_FILES = 9_950;
+    private static final int MEDIUM_FILES = 45;
+    private static final int LARGE_FILES = 5;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ModpackGenerationBenchmark <directory> [iterations]");
+            return;
+        }
+
+        Path directory = Path.of(args[0]).toAbsolutePath();
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        GlobalVariables.automodpackDir = directory.resolve("automodpack");
+        GlobalVariables.hostModpackDir = GlobalVariables.automodpackDir.resolve("host-modpack");
+        GlobalVariables.hostModpackContentFile = GlobalVariables.hostModpackDir.resolve("automodpack-content.json");
+        GlobalVariables.hostModpackHashIndexFile = GlobalVariables.hostModpackDir.resolve("automodpack-hash-index.json");
+        GlobalVariables.serverConfig = new Jsons.ServerConfigFieldsV2();
+        Path modpackDir = GlobalVariables.hostModpackDir.resolve("main");
+
+        if (!Files.isDirectory(modpackDir)) {
+            createTree(modpackDir);
+        }
+
+        ModpackExecutor executor = new ModpackExecutor();
+        try {
+            for (int i = 0; i < iterations; i++) {
+                Files.deleteIfExists(GlobalVariables.hostModpackHashIndexFile);
+                Files.deleteIfExists(GlobalVariables.hostModpackContentFile);
+
+                ModpackContent content = new ModpackContent("benchmark", null, modpackDir, List.of(), List.of(), List.of(), executor.getScheduler());
+                if (!content.create()) {
+                    System.err.println("Generation failed");
+                    return;
+                }
+
+                var readLimiter = executor.getScheduler().getReadLimiter();
+                System.out.printf("iteration %d: %s, %d workers, %d concurrent readers at %.1f MiB/s%n", i, content.getProgress().orElseThrow(),
+                        executor.getScheduler().getParallelism(), readLimiter.getLimit(), readLimiter.getThroughput() / 1048576.0);
+            }
+        } finally {
+            executor.stop();
+        }
+    }
+
+    private static void createTree(Path modpackDir) throws IOException {
+        Random random = new Random(42);
+        byte[] buffer = new byte[1024 * 1024];
+        random.nextBytes(buffer);
+
+        for (int i = 0; i < SMALL_FILES; i++) {
+            Path dir = modpackDir.resolve("config").resolve("group-" + i % 50).resolve("sub-" + i % 7);
+            write(dir.resolve("config-" + i + ".toml"), 512 + random.nextInt(32 * 1024), buffer);
+        }
+        for (int i = 0; i < MEDIUM_FILES; i++) {
+            write(modpackDir.resolve("resourcepacks").resolve("pack-" + i + ".zip"), (1 + random.nextInt(8)) * 1024 * 1024, buffer);
+        }
+        for (int i = 0; i < LARGE_FILES; i++) {
+            write(modpackDir.resolve("resourcepacks").resolve("large-" + i + ".zip"), 128L * 1024 * 1024, buffer);
+        }
+    }
+
+    private static void write(Path file, long size, byte[] buffer) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (var out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += buffer.length) {
+                buffer[(int) (written / buffer.length % buffer.length)]++; // no two blocks alike
+                out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.cufufy.amp.core.protocol;
+
+import com.cufufy.amp.core.GlobalVariables;
+import com.cufufy.amp.core.config.Jsons;
+import com.cufufy.amp.core.protocol.netty.NettyServer;
+import com.cufufy.amp.core.utils.CustomFileUtils;
+import com.cufufy.amp.core.utils.HashKey;
+import com.cufufy.amp.core.utils.ObservableMap;
+import com.cufufy.amp.core.utils.VirtualThreads;
+import io.netty.channel.ChannelFuture;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Downloads a generated pack from a local {@link NettyServer} with platform and virtual thread clients
+ * at 8, 32 and 128 connections, reporting connection setup time, throughput and the peak number of platform threads.
+ * Virtual threads are skipped on JVMs without them.
+ * <p>
+ * Usage: {@code java -cp <test classpath> com.cufufy.amp.core.protocol.DownloadClientBenchmark [files] [max file KB]}
+ */
+public class DownloadClientBenchmark {
+    private static final int[] POOL_SIZES = {8, 32, 128};
+
+    public static void main(String[] args) throws Exception {
+        int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int maxFileSize = (args.length > 1 ? Integer.parseInt(args[1]) : 256) * 1024;
+
+        Path dir = Files.createTempDirectory("automodpack-download-benchmark");
+        GlobalVariables.serverCertFile = dir.resolve("cert.crt");
+        GlobalVariables.serverPrivateKeyFile = dir.resolve("key.pem");
+        GlobalVariables.hostChunkCacheDir = dir.resolve("chunk-cache");
+        GlobalVariables.serverConfig = new Jsons.ServerConfigFieldsV2();
+        GlobalVariables.serverConfig.bindAddress = "127.0.0.1";
+        GlobalVariables.serverConfig.bindPort = 0;
+        GlobalVariables.serverConfig.validateSecrets = false;
+
+        Random random = new Random(42);
+        ObservableMap<HashKey, Path> paths = new ObservableMap<>();
+        List<byte[]> hashes = new ArrayList<>();
+        long totalBytes = 0;
+        Path hosted = Files.createDirectories(dir.resolve("hosted"));
+        for (int i = 0; i < fileCount; i++) {
+            byte[] content = new byte[1 + random.nextInt(maxFileSize)];
+            // half random, half repetitive so compression has something to do
+            random.nextBytes(content);
+            for (int j = content.length / 2; j < content.length; j++) {
+                content[j] = (byte) (j % 31);
+            }
+            Path file = hosted.resolve(i + ".bin");
+            Files.write(file, content);
+            String sha1 = CustomFileUtils.getHash(file);
+            paths.put(HashKey.fromHex(sha1), file);
+            hashes.add(sha1.getBytes(StandardCharsets.UTF_8));
+            totalBytes += content.length;
+        }
+        System.out.printf(Locale.ROOT, "%d files, %.1f MB%n", fileCount, totalBytes / 1024.0 / 1024.0);
+
+        GlobalVariables.hostServer = new NettyServer();
+        GlobalVariables.hostServer.addPaths(paths);
+        ChannelFuture server = GlobalVariables.hostServer.start().orElseThrow();
+        int port = ((InetSocketAddress) server.channel().localAddress()).getPort();
+        InetSocketAddress address = new InetSocketAddress("localhost", port);
+        Jsons.ModpackAddresses modpackAddresses = new Jsons.ModpackAddresses(address, address, true);
+
+        try {
+            // warm up, also fills the server's compressed chunk cache
+            run(modpackAddresses, hashes, dir, 8, false, totalBytes);
+
+            System.out.println("threads   pool  connect ms  download ms   files/s     MB/s  peak threads");
+            for (int poolSize : POOL_SIZES) {
+                print("platform", poolSize, run(modpackAddresses, hashes, dir, poolSize, false, totalBytes));
+                if (VirtualThreads.isSupported()) {
+                    print("virtual", poolSize, run(modpackAddresses, hashes, dir, poolSize, true, totalBytes));
+                }
+            }
+            if (!VirtualThreads.isSupported()) {
+                System.out.println("virtual threads are not supported on Java " + Runtime.version().feature());
+            }
+        } finally {
+            GlobalVariables.hostServer.stop();
+        }
+    }
+
+    // returns {connect ms, download ms, files/s, MB/s, peak threads}
+    private static double[] run(Jsons.ModpackAddresses modpackAddresses, List<byte[]> hashes, Path dir, int poolSize, boolean virtualThreads, long totalBytes) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Path downloads = Files.createDirectories(dir.resolve("downloads-" + poolSize + "-" + virtualThreads));
+        threads.resetPeakThreadCount();
+
+        long start = System.nanoTime();
+        try (DownloadClient client = new DownloadClient(modpackAddresses, new byte[32], poolSize, certificate -> true, virtualThreads)) {
+            long connected = System.nanoTime();
+
+            List<CompletableFuture<Path>> downloading = new ArrayList<>();
+            for (int i = 0; i < hashes.size(); i++) {
+                downloading.add(client.downloadFile(hashes.get(i), downloads.resolve(i + ".bin"), null));
+            }
+            CompletableFuture.allOf(downloading.toArray(CompletableFuture[]::new)).join();
+            long downloaded = System.nanoTime();
+
+            double seconds = (downloaded - connected) / 1_000_000_000.0;
+            return new double[]{(connected - start) / 1_000_000.0, (downloaded - connected) / 1_000_000.0,
+                    hashes.size() / seconds, totalBytes / 1024.0 / 1024.0 / seconds, threads.getPeakThreadCount()};
+        }
+    }
+
+    private static void print(String threads, int poolSize, double[] result) {
+        System.out.printf(Locale.ROOT, "%-8s %5d  %10.0f  %11.0f  %8.0f  %7.1f  %12.0f%n", threads, poolSize, result[0], result[1], result[2], result[3], result[4]);
+    }
+}
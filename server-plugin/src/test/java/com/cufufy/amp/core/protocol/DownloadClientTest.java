@@ -0,0 +1,197 @@
+package com.cufufy.amp.core.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.cufufy.amp.core.GlobalVariables;
+import com.cufufy.amp.core.config.Jsons;
+import com.cufufy.amp.core.protocol.netty.NettyServer;
+import com.cufufy.amp.core.utils.CustomFileUtils;
+import com.cufufy.amp.core.utils.HashKey;
+import com.cufufy.amp.core.utils.ObservableMap;
+import io.netty.channel.ChannelFuture;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DownloadClientTest {
+    private static final long MIN_STRIPE_SIZE = 16L * 1024 * 1024;
+
+    private Path tempDir;
+    private ObservableMap<HashKey, Path> paths;
+    private DownloadClient client;
+    private NettyServer originalHostServer;
+    private Jsons.ServerConfigFieldsV2 originalServerConfig;
+    private Path originalCertFile;
+    private Path originalPrivateKeyFile;
+    private Path originalChunkCacheDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("automodpack-download-client-test");
+
+        originalHostServer = GlobalVariables.hostServer;
+        originalServerConfig = GlobalVariables.serverConfig;
+        originalCertFile = GlobalVariables.serverCertFile;
+        originalPrivateKeyFile = GlobalVariables.serverPrivateKeyFile;
+        originalChunkCacheDir = GlobalVariables.hostChunkCacheDir;
+
+        GlobalVariables.serverCertFile = tempDir.resolve("cert.crt");
+        GlobalVariables.serverPrivateKeyFile = tempDir.resolve("key.pem");
+        GlobalVariables.hostChunkCacheDir = tempDir.resolve("chunk-cache");
+        GlobalVariables.serverConfig = new Jsons.ServerConfigFieldsV2();
+        GlobalVariables.serverConfig.bindAddress = "127.0.0.1";
+        GlobalVariables.serverConfig.bindPort = 0;
+        GlobalVariables.serverConfig.validateSecrets = false;
+
+        GlobalVariables.hostServer = new NettyServer();
+        paths = new ObservableMap<>();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+        GlobalVariables.hostServer.stop();
+        GlobalVariables.hostServer = originalHostServer;
+        GlobalVariables.serverConfig = originalServerConfig;
+        GlobalVariables.serverCertFile = originalCertFile;
+        GlobalVariables.serverPrivateKeyFile = originalPrivateKeyFile;
+        GlobalVariables.hostChunkCacheDir = originalChunkCacheDir;
+
+        if (tempDir != null) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        }
+    }
+
+    @Test
+    void stripeBoundsCoverOddSizesWithoutOverrun() {
+        // stripeSize * count > fileSize, the last stripe is the shorter one
+        assertTrue(Arrays.equals(new long[]{0, 4, 7}, DownloadClient.stripeBounds(7, 2)));
+        assertTrue(Arrays.equals(new long[]{0, 4, 8, 10}, DownloadClient.stripeBounds(10, 3)));
+        // more stripes than the rounding leaves bytes for, the trailing ones are empty instead of running past the end
+        assertTrue(Arrays.equals(new long[]{0, 2, 4, 5, 5}, DownloadClient.stripeBounds(5, 4)));
+
+        long fileSize = 3 * MIN_STRIPE_SIZE + 2;
+        long[] bounds = DownloadClient.stripeBounds(fileSize, 3);
+        assertEquals(0L, bounds[0]);
+        assertEquals(fileSize, bounds[3]);
+        assertEquals(MIN_STRIPE_SIZE + 1, bounds[1] - bounds[0]);
+        assertEquals(MIN_STRIPE_SIZE + 1, bounds[2] - bounds[1]);
+        assertEquals(MIN_STRIPE_SIZE, bounds[3] - bounds[2]);
+
+        assertTrue(Arrays.equals(new long[]{0, fileSize}, DownloadClient.stripeBounds(fileSize, 1)));
+    }
+
+    @Test
+    void stripedDownloadOfOddSizeMatchesFile() throws Exception {
+        // three stripes of 16 MB + 1 byte, one byte more than the file
+        Path file = host("odd.bin", 3 * MIN_STRIPE_SIZE + 2);
+        byte[] content = Files.readAllBytes(file);
+        Path destination = tempDir.resolve("downloads/odd.bin");
+        Files.createDirectories(destination.getParent());
+        connect();
+        AtomicLong downloaded = new AtomicLong();
+
+        Path result = client.downloadFileStriped(hash(file), content.length, destination, downloaded::addAndGet).join();
+
+        assertEquals(destination, result);
+        assertTrue(Arrays.equals(content, Files.readAllBytes(destination)));
+        assertEquals((long) content.length, downloaded.get());
+        assertFalse(Files.exists(stripes(destination)));
+    }
+
+    @Test
+    void smallFileFallsBackToResumableDownload() throws Exception {
+        Path file = host("small.bin", 2 * MIN_STRIPE_SIZE - 1);
+        byte[] content = Files.readAllBytes(file);
+        Path destination = tempDir.resolve("downloads/small.bin");
+        Files.createDirectories(destination.getParent());
+        // only the resumable download picks up a part file
+        Path part = destination.resolveSibling("small.bin.part");
+        Files.write(part, Arrays.copyOf(content, 1000));
+        connect();
+
+        client.downloadFileStriped(hash(file), content.length, destination, null).join();
+
+        assertTrue(Arrays.equals(content, Files.readAllBytes(destination)));
+        assertFalse(Files.exists(part));
+        assertFalse(Files.exists(stripes(destination)));
+    }
+
+    @Test
+    void failedStripedDownloadDeletesStripesFile() throws Exception {
+        host("hosted.bin", 1000);
+        Path destination = tempDir.resolve("downloads/missing.bin");
+        Files.createDirectories(destination.getParent());
+        byte[] missing = "a9993e364706816aba3e25717850c26c9cd0d89d".getBytes(StandardCharsets.UTF_8);
+        connect();
+
+        try {
+            client.downloadFileStriped(missing, 2 * MIN_STRIPE_SIZE + 1, destination, null).join();
+            assertTrue(false);
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof ServerErrorException);
+        }
+
+        assertFalse(Files.exists(stripes(destination)));
+        assertFalse(Files.exists(destination));
+    }
+
+    @Test
+    void fileSinkOfUnopenedFileAborts() {
+        FileSink sink = new FileSink(tempDir.resolve("missing-dir/x.jar"), false, null);
+        try {
+            sink.start(5);
+            assertTrue(false);
+        } catch (IOException expected) {
+        }
+
+        sink.abort();
+        assertFalse(Files.exists(tempDir.resolve("missing-dir")));
+    }
+
+    // The server doesn't start without files to host, so the tests connect after hosting theirs
+    private void connect() throws IOException {
+        ChannelFuture server = GlobalVariables.hostServer.start().orElseThrow();
+        InetSocketAddress address = new InetSocketAddress("localhost", ((InetSocketAddress) server.channel().localAddress()).getPort());
+        client = new DownloadClient(new Jsons.ModpackAddresses(address, address, true), new byte[32], 4, certificate -> true);
+    }
+
+    private Path host(String name, long size) throws IOException {
+        byte[] content = new byte[(int) size];
+        new Random(size).nextBytes(content);
+        Path file = tempDir.resolve(name);
+        Files.write(file, content);
+        paths.put(HashKey.fromHex(CustomFileUtils.getHash(file)), file);
+        GlobalVariables.hostServer.addPaths(paths);
+        return file;
+    }
+
+    private static byte[] hash(Path file) {
+        return CustomFileUtils.getHash(file).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Path stripes(Path destination) {
+        return destination.resolveSibling(destination.getFileName() + ".stripes");
+    }
+}
@@ -0,0 +1,133 @@
+package com.cufufy.amp.core.protocol.compression;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import com.cufufy.amp.core.utils.FileHasher;
+
+class CompressedChunkCacheTest {
+    private static final int CHUNK_SIZE = 1024;
+    private Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("automodpack-chunk-cache-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (tempDir != null) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        }
+    }
+
+    @Test
+    void cachedFramesDecodeToOriginalFile() throws IOException {
+        byte[] data = new byte[CHUNK_SIZE * 3 + 17];
+        new Random(3).nextBytes(data);
+        Path source = tempDir.resolve("mod.jar");
+        Files.write(source, data);
+        String sha1 = FileHasher.hash(source, true, false).sha1();
+
+        GzipCompression codec = new GzipCompression();
+        CompressedChunkCache cache = new CompressedChunkCache(tempDir.resolve("cache"), CHUNK_SIZE);
+        Path cacheFile = cache.cacheFile(sha1, codec);
+        cache.build(sha1, source, codec, cacheFile);
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        int frames = 0;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(cacheFile))) {
+            while (in.available() > 0) {
+                byte[] compressed = new byte[in.readInt()];
+                int originalLength = in.readInt();
+                in.readFully(compressed);
+                assertTrue(originalLength <= CHUNK_SIZE);
+                decoded.write(codec.decompress(compressed, originalLength));
+                frames++;
+            }
+        }
+
+        assertEquals(4, frames);
+        assertTrue(Arrays.equals(data, decoded.toByteArray()));
+    }
+
+    @Test
+    void skipsFileWhichDoesNotMatchHash() throws IOException {
+        Path source = tempDir.resolve("mod.jar");
+        Files.writeString(source, "changed after hashing");
+
+        GzipCompression codec = new GzipCompression();
+        CompressedChunkCache cache = new CompressedChunkCache(tempDir.resolve("cache"), CHUNK_SIZE);
+        Path cacheFile = cache.cacheFile("0000000000000000000000000000000000000000", codec);
+        assertFalse(cache.build("0000000000000000000000000000000000000000", source, codec, cacheFile));
+
+        assertFalse(Files.exists(cacheFile));
+    }
+
+    @Test
+    void failedBuildIsNotRetriedUntilRetained() throws IOException {
+        Path source = tempDir.resolve("mod.jar");
+        Files.writeString(source, "content as hashed");
+        String sha1 = FileHasher.hash(source, true, false).sha1();
+        FileTime hashedTime = Files.getLastModifiedTime(source);
+        // changed on disk before the rehash, same size
+        Files.writeString(source, "content changed!!");
+        Files.setLastModifiedTime(source, hashedTime);
+
+        GzipCompression codec = new GzipCompression();
+        CompressedChunkCache cache = new CompressedChunkCache(tempDir.resolve("cache"), CHUNK_SIZE, Runnable::run);
+        Path cacheFile = cache.cacheFile(sha1, codec);
+        assertFalse(cache.getOrSchedule(sha1, source, codec).isPresent());
+        assertFalse(Files.exists(cacheFile));
+
+        // the file is as hashed again, but looks the same as when the build failed
+        Files.writeString(source, "content as hashed");
+        Files.setLastModifiedTime(source, hashedTime);
+        assertFalse(cache.getOrSchedule(sha1, source, codec).isPresent());
+        assertFalse(Files.exists(cacheFile));
+
+        // a new generation lets it be tried again
+        cache.retain(Set.of(sha1));
+        assertFalse(cache.getOrSchedule(sha1, source, codec).isPresent());
+        assertEquals(cacheFile, cache.getOrSchedule(sha1, source, codec).orElseThrow());
+    }
+
+    @Test
+    void failedBuildIsRetriedOnceFileChanged() throws IOException {
+        Path source = tempDir.resolve("mod.jar");
+        Files.writeString(source, "content as hashed");
+        String sha1 = FileHasher.hash(source, true, false).sha1();
+        FileTime hashedTime = Files.getLastModifiedTime(source);
+        Files.writeString(source, "other content");
+
+        GzipCompression codec = new GzipCompression();
+        CompressedChunkCache cache = new CompressedChunkCache(tempDir.resolve("cache"), CHUNK_SIZE, Runnable::run);
+        assertFalse(cache.getOrSchedule(sha1, source, codec).isPresent());
+
+        Files.writeString(source, "content as hashed");
+        Files.setLastModifiedTime(source, FileTime.fromMillis(hashedTime.toMillis() + 5000));
+        cache.getOrSchedule(sha1, source, codec);
+        assertTrue(cache.getOrSchedule(sha1, source, codec).isPresent());
+    }
+}
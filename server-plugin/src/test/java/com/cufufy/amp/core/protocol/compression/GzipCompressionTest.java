@@ -0,0 +1,63 @@
+package com.cufufy.amp.core.protocol.compression;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class GzipCompressionTest {
+
+    @Test
+    void directCompressionIsReadableByStreamDecompression() throws IOException {
+        GzipCompression codec = new GzipCompression();
+        for (int size : new int[]{0, 1, 1000, 131072}) {
+            byte[] data = sampleData(size);
+            ByteBuf src = Unpooled.directBuffer(size).writeBytes(data);
+            ByteBuf dst = Unpooled.directBuffer(codec.maxCompressedLength(size));
+
+            int compressedLength = codec.compress(src, dst);
+
+            assertEquals(0, src.readableBytes());
+            assertEquals(compressedLength, dst.readableBytes());
+            assertTrue(Arrays.equals(data, codec.decompress(ByteBufUtil.getBytes(dst), size)));
+            src.release();
+            dst.release();
+        }
+        codec.release();
+    }
+
+    @Test
+    void directDecompressionReadsStreamCompression() throws IOException {
+        GzipCompression codec = new GzipCompression();
+        for (int size : new int[]{1, 1000, 131072}) {
+            byte[] data = sampleData(size);
+            byte[] compressed = codec.compress(data);
+            ByteBuf src = Unpooled.directBuffer(compressed.length + 4).writeBytes(compressed).writeInt(42);
+            ByteBuf dst = Unpooled.directBuffer(size);
+
+            codec.decompress(src, compressed.length, dst, size);
+
+            assertEquals(4, src.readableBytes());
+            assertTrue(Arrays.equals(data, ByteBufUtil.getBytes(dst)));
+            src.release();
+            dst.release();
+        }
+        codec.release();
+    }
+
+    // half random, half repetitive, so deflate has something to do
+    private static byte[] sampleData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        for (int i = 0; i < size / 2; i++) {
+            data[i] = (byte) (i % 13);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,142 @@
+package com.cufufy.amp.core.protocol.compression;
+
+import static com.cufufy.amp.core.protocol.NetUtils.COMPRESSION_ZSTD;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.cufufy.amp.core.protocol.netty.handler.CompressionDecoder;
+import com.cufufy.amp.core.protocol.netty.handler.CompressionEncoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class ZstdCompressionTest {
+    private static final int[] SIZES = {0, 1, 1000, 131072, 77, 131072};
+
+    @Test
+    void directFramesRoundTripThroughReusedContexts() throws IOException {
+        ZstdCompression codec = new ZstdCompression(ZstdCompression.DEFAULT_LEVEL, true);
+        ZstdCompression stateless = new ZstdCompression();
+        for (int size : SIZES) {
+            byte[] data = sampleData(size);
+            ByteBuf src = Unpooled.directBuffer(size).writeBytes(data);
+            ByteBuf compressed = Unpooled.directBuffer(codec.maxCompressedLength(size));
+
+            int compressedLength = codec.compress(src, compressed);
+
+            assertEquals(0, src.readableBytes());
+            assertEquals(compressedLength, compressed.readableBytes());
+            // the frames of the contexts are plain zstd frames
+            assertTrue(Arrays.equals(data, stateless.decompress(ByteBufUtil.getBytes(compressed), size)));
+
+            compressed.writeInt(42);
+            ByteBuf dst = Unpooled.directBuffer(size);
+            codec.decompress(compressed, compressedLength, dst, size);
+
+            assertEquals(4, compressed.readableBytes());
+            assertTrue(Arrays.equals(data, ByteBufUtil.getBytes(dst)));
+            src.release();
+            compressed.release();
+            dst.release();
+        }
+        codec.release();
+    }
+
+    @Test
+    void heapFramesRoundTripThroughReusedContexts() throws IOException {
+        ZstdCompression codec = new ZstdCompression(ZstdCompression.DEFAULT_LEVEL, true);
+        ZstdCompression stateless = new ZstdCompression();
+        for (int size : SIZES) {
+            byte[] data = sampleData(size);
+            ByteBuf heap = Unpooled.buffer(size).writeBytes(data);
+
+            byte[] compressed = codec.compress(ByteBufUtil.getBytes(heap));
+
+            assertTrue(Arrays.equals(data, codec.decompress(compressed, size)));
+            assertTrue(Arrays.equals(data, stateless.decompress(compressed, size)));
+            assertTrue(Arrays.equals(data, codec.decompress(stateless.compress(data), size)));
+            heap.release();
+        }
+        codec.release();
+    }
+
+    @Test
+    void encoderAndDecoderFrameDirectAndHeapMessages() {
+        EmbeddedChannel channel = new EmbeddedChannel(
+                new CompressionEncoder(CompressionFactory.newChannelCodec(COMPRESSION_ZSTD, ZstdCompression.DEFAULT_LEVEL)),
+                new CompressionDecoder(CompressionFactory.newChannelCodec(COMPRESSION_ZSTD, ZstdCompression.DEFAULT_LEVEL)));
+        for (int i = 0; i < SIZES.length; i++) {
+            byte[] data = sampleData(SIZES[i]);
+            ByteBuf msg = i % 2 == 0 ? Unpooled.directBuffer(data.length) : Unpooled.buffer(data.length);
+            assertTrue(channel.writeOutbound(msg.writeBytes(data)));
+
+            ByteBuf frame = channel.readOutbound();
+            channel.writeInbound(frame);
+            ByteBuf decoded = channel.readInbound();
+
+            assertTrue(Arrays.equals(data, ByteBufUtil.getBytes(decoded)));
+            decoded.release();
+        }
+        // removing the handlers releases the contexts
+        assertFalse(channel.finishAndReleaseAll());
+    }
+
+    @Test
+    void levelIsClamped() {
+        assertEquals(ZstdCompression.DEFAULT_LEVEL, new ZstdCompression().getCompressionLevel());
+        assertEquals(1, new ZstdCompression(0, true).getCompressionLevel());
+        assertEquals(1, new ZstdCompression(-5, false).getCompressionLevel());
+        assertEquals(22, new ZstdCompression(99, true).getCompressionLevel());
+        assertEquals(19, new ZstdCompression(19, false).getCompressionLevel());
+        assertEquals(22, CompressionFactory.newChannelCodec(COMPRESSION_ZSTD, 23).getCompressionLevel());
+    }
+
+    @Test
+    void clampedLevelsCompress() throws IOException {
+        byte[] data = sampleData(131072);
+        for (int level : new int[]{-5, 0, 99}) {
+            ZstdCompression codec = new ZstdCompression(level, true);
+            assertTrue(Arrays.equals(data, codec.decompress(codec.compress(data), data.length)));
+            codec.release();
+        }
+    }
+
+    @Test
+    void releasedCodecRecreatesContexts() throws IOException {
+        ZstdCompression codec = new ZstdCompression(ZstdCompression.DEFAULT_LEVEL, true);
+        byte[] data = sampleData(1000);
+        byte[] compressed = codec.compress(data);
+        assertTrue(Arrays.equals(data, codec.decompress(compressed, data.length)));
+
+        codec.release();
+        codec.release();
+
+        assertTrue(Arrays.equals(compressed, codec.compress(data)));
+        ByteBuf src = Unpooled.directBuffer(compressed.length).writeBytes(compressed);
+        ByteBuf dst = Unpooled.directBuffer(data.length);
+        codec.decompress(src, compressed.length, dst, data.length);
+        assertTrue(Arrays.equals(data, ByteBufUtil.getBytes(dst)));
+        src.release();
+        dst.release();
+        codec.release();
+
+        // a stateless codec has nothing to release
+        new ZstdCompression().release();
+    }
+
+    // half random, half repetitive, so zstd has something to do
+    private static byte[] sampleData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        for (int i = 0; i < size / 2; i++) {
+            data[i] = (byte) (i % 13);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,135 @@
+package com.cufufy.amp.core.protocol.compression;
+
+import com.cufufy.amp.core.protocol.NetUtils;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDictTrainer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Measures CPU time per GB and compression ratio of every Zstd level (and Gzip for reference) over a real pack,
+ * compressing it the same way it goes over the wire: CHUNK_SIZE frames through a per-channel codec.
+ * It also reports how much a dictionary trained from the small text files of the pack would help them.
+ * <p>
+ * Usage: {@code java -cp <test classpath> com.cufufy.amp.core.protocol.compression.ZstdLevelBenchmark <directory> [levels...]}
+ */
+public class ZstdLevelBenchmark {
+    private static final int SMALL_FILE_LIMIT = 64 * 1024;
+    private static final List<String> TEXT_EXTENSIONS = List.of(".json", ".json5", ".toml", ".cfg", ".conf", ".txt", ".properties", ".yml", ".yaml", ".js", ".snbt");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ZstdLevelBenchmark <directory> [levels...]");
+            return;
+        }
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(Path.of(args[0]))) {
+            files = stream.filter(Files::isRegularFile).toList();
+        }
+
+        List<byte[]> contents = new ArrayList<>();
+        long totalBytes = 0;
+        for (Path file : files) {
+            byte[] content = Files.readAllBytes(file);
+            contents.add(content);
+            totalBytes += content.length;
+        }
+        System.out.printf("%d files, %.1f MB%n", files.size(), totalBytes / 1024.0 / 1024.0);
+
+        List<Integer> levels = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            levels.add(Integer.parseInt(args[i]));
+        }
+        if (levels.isEmpty()) {
+            levels = List.of(1, 3, 6, 9, 12, 15, 19);
+        }
+
+        // warm up
+        run(new ZstdCompression(ZstdCompression.DEFAULT_LEVEL, true), contents, totalBytes);
+
+        System.out.println("codec    level  cpu s/GB   ratio");
+        for (int level : levels) {
+            print("zstd", level, run(new ZstdCompression(level, true), contents, totalBytes));
+        }
+        print("gzip", 6, run(new GzipCompression(), contents, totalBytes));
+
+        dictionary(files, contents);
+    }
+
+    // returns {cpu seconds per GB, ratio}
+    private static double[] run(DirectCompressionCodec codec, List<byte[]> contents, long totalBytes) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        ByteBuf src = PooledByteBufAllocator.DEFAULT.directBuffer(NetUtils.CHUNK_SIZE);
+        ByteBuf dst = PooledByteBufAllocator.DEFAULT.directBuffer(codec.maxCompressedLength(NetUtils.CHUNK_SIZE));
+        long compressedBytes = 0;
+
+        long start = threads.getCurrentThreadCpuTime();
+        try {
+            for (byte[] content : contents) {
+                for (int offset = 0; offset < content.length; offset += NetUtils.CHUNK_SIZE) {
+                    src.clear().writeBytes(content, offset, Math.min(NetUtils.CHUNK_SIZE, content.length - offset));
+                    dst.clear();
+                    compressedBytes += 8 + codec.compress(src, dst);
+                }
+            }
+        } finally {
+            src.release();
+            dst.release();
+            codec.release();
+        }
+        long cpu = threads.getCurrentThreadCpuTime() - start;
+
+        double gigabytes = totalBytes / 1024.0 / 1024.0 / 1024.0;
+        return new double[]{cpu / 1_000_000_000.0 / gigabytes, (double) totalBytes / compressedBytes};
+    }
+
+    private static void print(String codec, int level, double[] result) {
+        System.out.printf(Locale.ROOT, "%-8s %5d  %8.2f  %6.3f%n", codec, level, result[0], result[1]);
+    }
+
+    private static void dictionary(List<Path> files, List<byte[]> contents) {
+        List<byte[]> samples = new ArrayList<>();
+        long sampleBytes = 0;
+        for (int i = 0; i < files.size(); i++) {
+            String name = files.get(i).getFileName().toString().toLowerCase(Locale.ROOT);
+            byte[] content = contents.get(i);
+            if (content.length > 0 && content.length <= SMALL_FILE_LIMIT && TEXT_EXTENSIONS.stream().anyMatch(name::endsWith)) {
+                samples.add(content);
+                sampleBytes += content.length;
+            }
+        }
+
+        if (samples.size() < 10) {
+            System.out.println("not enough small text files to train a dictionary");
+            return;
+        }
+
+        ZstdDictTrainer trainer = new ZstdDictTrainer((int) Math.min(Integer.MAX_VALUE, sampleBytes), 112 * 1024);
+        samples.forEach(trainer::addSample);
+        byte[] dictionary = trainer.trainSamples();
+
+        long plain = 0;
+        long withDictionary = 0;
+        try (ZstdCompressCtx ctx = new ZstdCompressCtx(); ZstdCompressCtx dictCtx = new ZstdCompressCtx()) {
+            ctx.setLevel(ZstdCompression.DEFAULT_LEVEL);
+            dictCtx.setLevel(ZstdCompression.DEFAULT_LEVEL).loadDict(dictionary);
+            for (byte[] sample : samples) {
+                plain += ctx.compress(sample).length;
+                withDictionary += dictCtx.compress(sample).length;
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "%d small text files, %.1f KB: ratio %.3f plain, %.3f with a %d KB dictionary%n",
+                samples.size(), sampleBytes / 1024.0, (double) sampleBytes / plain, (double) sampleBytes / withDictionary, dictionary.length / 1024);
+    }
+}
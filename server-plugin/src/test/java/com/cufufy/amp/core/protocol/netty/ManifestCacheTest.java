@@ -0,0 +1,87 @@
+package com.cufufy.amp.core.protocol.netty;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.cufufy.amp.core.protocol.compression.GzipCompression;
+import com.cufufy.amp.core.utils.CustomFileUtils;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ManifestCacheTest {
+    private Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("automodpack-manifest-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (tempDir != null) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        }
+    }
+
+    @Test
+    void manifestIsCachedUntilInvalidated() throws IOException {
+        Path file = tempDir.resolve("automodpack-content.json");
+        ManifestCache cache = new ManifestCache(file, 16);
+        assertEquals(null, cache.get());
+
+        Files.writeString(file, "{\"list\":[]}");
+        ManifestCache.Manifest first = cache.get();
+        assertEquals(CustomFileUtils.getHash(file), first.getEtag().toHex());
+
+        Files.writeString(file, "{\"modpackName\":\"pack\",\"list\":[]}");
+        assertTrue(first == cache.get());
+
+        cache.invalidate();
+        ManifestCache.Manifest second = cache.get();
+        assertFalse(first.getEtag().equals(second.getEtag()));
+        assertEquals(CustomFileUtils.getHash(file), second.getEtag().toHex());
+    }
+
+    @Test
+    void compressedFramesHoldTheWholeContent() throws IOException {
+        Path file = tempDir.resolve("automodpack-content.json");
+        String content = "{\"modpackName\":\"a pack with a name longer than one frame\",\"list\":[]}";
+        Files.writeString(file, content);
+        GzipCompression codec = new GzipCompression();
+
+        ManifestCache.Manifest manifest = new ManifestCache(file, 16).get();
+        byte[] frames = manifest.getFrames(codec);
+        assertTrue(frames == manifest.getFrames(codec));
+
+        ByteBuffer buffer = ByteBuffer.wrap(frames);
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        int frameCount = 0;
+        while (buffer.hasRemaining()) {
+            byte[] compressed = new byte[buffer.getInt()];
+            int originalLength = buffer.getInt();
+            assertTrue(originalLength <= 16);
+            buffer.get(compressed);
+            decompressed.writeBytes(codec.decompress(compressed, originalLength));
+            frameCount++;
+        }
+
+        assertEquals((content.length() + 15) / 16, frameCount);
+        assertEquals(content, decompressed.toString(StandardCharsets.UTF_8));
+    }
+}
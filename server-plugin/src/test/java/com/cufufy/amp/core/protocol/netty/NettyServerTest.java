@@ -0,0 +1,47 @@
+package com.cufufy.amp.core.protocol.netty;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.cufufy.amp.core.utils.HashKey;
+import com.cufufy.amp.core.utils.ObservableMap;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+
+class NettyServerTest {
+    private static final HashKey A = HashKey.fromHex("da39a3ee5e6b4b0d3255bfef95601890afd80709");
+    private static final HashKey B = HashKey.fromHex("a9993e364706816aba3e25717850c26c9cd0d89d");
+
+    @Test
+    void singleFileChangesReachPublishedPaths() {
+        NettyServer server = new NettyServer();
+        ObservableMap<HashKey, Path> paths = new ObservableMap<>();
+        paths.put(A, Path.of("a.jar"));
+        server.addPaths(paths);
+
+        paths.put(B, Path.of("b.jar"));
+        paths.remove(A);
+
+        assertFalse(server.getPath(A).isPresent());
+        assertEquals(Path.of("b.jar"), server.getPath(B).orElseThrow());
+    }
+
+    @Test
+    void newGenerationReplacesPreviousPaths() {
+        NettyServer server = new NettyServer();
+        ObservableMap<HashKey, Path> paths = new ObservableMap<>();
+        paths.put(A, Path.of("a.jar"));
+        server.addPaths(paths);
+
+        // regeneration clears the map, the previous paths stay hosted until the new ones are published
+        paths.clear();
+        paths.put(B, Path.of("b.jar"));
+        assertTrue(server.getPath(A).isPresent());
+        assertFalse(server.getPath(B).isPresent());
+
+        server.addPaths(paths);
+        assertFalse(server.getPath(A).isPresent());
+        assertTrue(server.getPath(B).isPresent());
+    }
+}
@@ -0,0 +1,192 @@
+package com.cufufy.amp.core.protocol.netty.handler;
+
+import static com.cufufy.amp.core.protocol.NetUtils.END_OF_TRANSMISSION;
+import static com.cufufy.amp.core.protocol.NetUtils.ERROR;
+import static com.cufufy.amp.core.protocol.NetUtils.FILE_RESPONSE_TYPE;
+import static com.cufufy.amp.core.protocol.NetUtils.PROTOCOL_VERSION_3;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.cufufy.amp.core.protocol.ServerErrorException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.Test;
+
+class ClientResponseHandlerTest {
+
+    @Test
+    void responsesAreDeliveredInOrder() throws Exception {
+        ClientResponseHandler handler = new ClientResponseHandler();
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+        RecordingSink first = new RecordingSink();
+        RecordingSink second = new RecordingSink();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        handler.expect(List.of(first, second), done);
+
+        channel.writeInbound(header(5), data("hel"), data("lo"), eot());
+        assertTrue(first.ended);
+        assertFalse(done.isDone());
+
+        // an end of transmission in place of the header is an empty file
+        channel.writeInbound(eot());
+        assertTrue(done.isDone());
+        done.get();
+
+        assertEquals("hello", first.content.toString(StandardCharsets.UTF_8));
+        assertEquals(0L, second.size);
+        assertTrue(second.ended);
+        assertTrue(channel.isActive());
+    }
+
+    @Test
+    void serverErrorFailsExchangeAndClosesChannel() {
+        ClientResponseHandler handler = new ClientResponseHandler();
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+        RecordingSink sink = new RecordingSink();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        handler.expect(List.of(sink), done);
+
+        byte[] message = "File not found".getBytes(StandardCharsets.UTF_8);
+        ByteBuf error = Unpooled.buffer();
+        error.writeByte(PROTOCOL_VERSION_3);
+        error.writeByte(ERROR);
+        error.writeInt(message.length);
+        error.writeBytes(message);
+        channel.writeInbound(error);
+
+        assertTrue(done.isCompletedExceptionally());
+        try {
+            done.get();
+        } catch (ExecutionException | InterruptedException e) {
+            assertTrue(e.getCause() instanceof ServerErrorException);
+        }
+        assertFalse(sink.ended);
+        assertFalse(channel.isActive());
+    }
+
+    @Test
+    void refusedResponseOfBatchKeepsExchangeGoing() throws Exception {
+        ClientResponseHandler handler = new ClientResponseHandler();
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+        RecordingSink refused = new RecordingSink() {
+            @Override
+            public void refused(ServerErrorException error) {
+                refusal = error;
+            }
+        };
+        RecordingSink next = new RecordingSink();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        handler.expect(List.of(refused, next), done);
+
+        channel.writeInbound(error("File not found"));
+        assertFalse(done.isDone());
+        channel.writeInbound(header(2), data("ok"), eot());
+
+        done.get();
+        assertEquals("Server error: File not found", refused.refusal.getMessage());
+        assertEquals(-1L, refused.size);
+        assertEquals("ok", next.content.toString(StandardCharsets.UTF_8));
+        assertTrue(channel.isActive());
+    }
+
+    @Test
+    void sinkFailingToStartFailsExchangeAndClosesChannel() {
+        ClientResponseHandler handler = new ClientResponseHandler();
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+        RecordingSink unopened = new RecordingSink() {
+            @Override
+            public void start(long size) throws IOException {
+                throw new NoSuchFileException("x.jar");
+            }
+
+            @Override
+            public void abort() {
+                throw new IllegalStateException("Nothing to abort");
+            }
+        };
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        handler.expect(List.of(unopened, new RecordingSink()), done);
+
+        channel.writeInbound(header(5));
+
+        // a sink throwing from abort doesn't keep the exchange from completing
+        assertTrue(done.isCompletedExceptionally());
+        try {
+            done.get();
+        } catch (ExecutionException | InterruptedException e) {
+            assertTrue(e.getCause() instanceof NoSuchFileException);
+        }
+        assertFalse(channel.isActive());
+
+        // the next exchange on the handler isn't refused
+        CompletableFuture<Void> next = new CompletableFuture<>();
+        handler.expect(List.of(), next);
+        assertTrue(next.isDone() && !next.isCompletedExceptionally());
+    }
+
+    private static ByteBuf error(String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuf error = Unpooled.buffer();
+        error.writeByte(PROTOCOL_VERSION_3);
+        error.writeByte(ERROR);
+        error.writeInt(bytes.length);
+        error.writeBytes(bytes);
+        return error;
+    }
+
+    private static ByteBuf header(long size) {
+        ByteBuf header = Unpooled.buffer();
+        header.writeByte(PROTOCOL_VERSION_3);
+        header.writeByte(FILE_RESPONSE_TYPE);
+        header.writeLong(size);
+        return header;
+    }
+
+    private static ByteBuf data(String data) {
+        return Unpooled.copiedBuffer(data, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuf eot() {
+        ByteBuf eot = Unpooled.buffer();
+        eot.writeByte(PROTOCOL_VERSION_3);
+        eot.writeByte(END_OF_TRANSMISSION);
+        return eot;
+    }
+
+    private static class RecordingSink implements ClientResponseHandler.ResponseSink {
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private long size = -1;
+        private boolean ended;
+        protected ServerErrorException refusal;
+
+        @Override
+        public void start(long size) throws IOException {
+            this.size = size;
+        }
+
+        @Override
+        public void data(ByteBuf data) {
+            byte[] bytes = new byte[data.readableBytes()];
+            data.readBytes(bytes);
+            content.writeBytes(bytes);
+        }
+
+        @Override
+        public void end() {
+            ended = true;
+        }
+
+        @Override
+        public void abort() {
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.cufufy.amp.core.protocol.netty.handler;
+
+import static com.cufufy.amp.core.protocol.NetUtils.FILE_BATCH_REQUEST_TYPE;
+import static com.cufufy.amp.core.protocol.NetUtils.FILE_RANGE_REQUEST_TYPE;
+import static com.cufufy.amp.core.protocol.NetUtils.PROTOCOL_VERSION_3;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.cufufy.amp.core.protocol.netty.message.FileBatchRequestMessage;
+import com.cufufy.amp.core.protocol.netty.message.FileRangeRequestMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class ProtocolMessageCodecTest {
+
+    @Test
+    void batchRequestSurvivesRoundTrip() {
+        byte[] secret = new byte[32];
+        Arrays.fill(secret, (byte) 7);
+        byte[][] hashes = {
+                "da39a3ee5e6b4b0d3255bfef95601890afd80709".getBytes(StandardCharsets.UTF_8),
+                "a9993e364706816aba3e25717850c26c9cd0d89d".getBytes(StandardCharsets.UTF_8)
+        };
+
+        EmbeddedChannel encoder = new EmbeddedChannel(new ProtocolMessageEncoder());
+        assertTrue(encoder.writeOutbound(new FileBatchRequestMessage(PROTOCOL_VERSION_3, secret, hashes)));
+        ByteBuf encoded = encoder.readOutbound();
+
+        EmbeddedChannel decoder = new EmbeddedChannel(new ProtocolMessageDecoder());
+        assertTrue(decoder.writeInbound(encoded));
+        FileBatchRequestMessage decoded = decoder.readInbound();
+
+        assertEquals(PROTOCOL_VERSION_3, decoded.getVersion());
+        assertEquals(FILE_BATCH_REQUEST_TYPE, decoded.getType());
+        assertTrue(Arrays.equals(secret, decoded.getSecret()));
+        assertEquals(2, decoded.getFileHashesCount());
+        assertTrue(Arrays.deepEquals(hashes, decoded.getFileHashesList()));
+    }
+
+    @Test
+    void rangeRequestSurvivesRoundTrip() {
+        byte[] secret = new byte[32];
+        byte[] hash = "da39a3ee5e6b4b0d3255bfef95601890afd80709".getBytes(StandardCharsets.UTF_8);
+
+        EmbeddedChannel encoder = new EmbeddedChannel(new ProtocolMessageEncoder());
+        assertTrue(encoder.writeOutbound(new FileRangeRequestMessage(PROTOCOL_VERSION_3, secret, hash, 5_000_000_000L, -1)));
+        ByteBuf encoded = encoder.readOutbound();
+
+        EmbeddedChannel decoder = new EmbeddedChannel(new ProtocolMessageDecoder());
+        assertTrue(decoder.writeInbound(encoded));
+        FileRangeRequestMessage decoded = decoder.readInbound();
+
+        assertEquals(FILE_RANGE_REQUEST_TYPE, decoded.getType());
+        assertTrue(Arrays.equals(hash, decoded.getFileHash()));
+        assertEquals(5_000_000_000L, decoded.getOffset());
+        assertEquals(-1L, decoded.getLength());
+    }
+}
@@ -0,0 +1,245 @@
+package com.cufufy.amp.core.protocol.netty.handler;
+
+import static com.cufufy.amp.core.protocol.NetUtils.CHUNK_SIZE;
+import static com.cufufy.amp.core.protocol.NetUtils.COMPRESSION_NONE;
+import static com.cufufy.amp.core.protocol.NetUtils.END_OF_TRANSMISSION;
+import static com.cufufy.amp.core.protocol.NetUtils.ERROR;
+import static com.cufufy.amp.core.protocol.NetUtils.FILE_RESPONSE_TYPE;
+import static com.cufufy.amp.core.protocol.NetUtils.PROTOCOL_VERSION_3;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.cufufy.amp.core.GlobalVariables;
+import com.cufufy.amp.core.config.Jsons;
+import com.cufufy.amp.core.protocol.compression.CompressionFactory;
+import com.cufufy.amp.core.protocol.netty.NettyServer;
+import com.cufufy.amp.core.protocol.netty.message.FileBatchRequestMessage;
+import com.cufufy.amp.core.protocol.netty.message.FileRequestMessage;
+import com.cufufy.amp.core.utils.CustomFileUtils;
+import com.cufufy.amp.core.utils.HashKey;
+import com.cufufy.amp.core.utils.ObservableMap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ServerMessageHandlerTest {
+    private static final byte[] SECRET = new byte[32];
+
+    private Path tempDir;
+    private ObservableMap<HashKey, Path> paths;
+    private RegionSink regionSink;
+    private NettyServer originalHostServer;
+    private Jsons.ServerConfigFieldsV2 originalServerConfig;
+    private Path originalChunkCacheDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("automodpack-server-handler-test");
+
+        originalHostServer = GlobalVariables.hostServer;
+        originalServerConfig = GlobalVariables.serverConfig;
+        originalChunkCacheDir = GlobalVariables.hostChunkCacheDir;
+
+        GlobalVariables.serverConfig = new Jsons.ServerConfigFieldsV2();
+        GlobalVariables.serverConfig.validateSecrets = false;
+        GlobalVariables.hostChunkCacheDir = tempDir.resolve("chunk-cache");
+        GlobalVariables.hostServer = new NettyServer();
+        paths = new ObservableMap<>();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        GlobalVariables.hostServer = originalHostServer;
+        GlobalVariables.serverConfig = originalServerConfig;
+        GlobalVariables.hostChunkCacheDir = originalChunkCacheDir;
+
+        if (tempDir != null) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        }
+    }
+
+    @Test
+    void missingFileOfBatchIsAnsweredInPlaceAndBatchGoesOn() throws IOException {
+        HashKey first = host("first.txt", "first".getBytes(StandardCharsets.UTF_8));
+        HashKey second = host("second.txt", "second".getBytes(StandardCharsets.UTF_8));
+        HashKey missing = HashKey.fromHex("a9993e364706816aba3e25717850c26c9cd0d89d");
+
+        EmbeddedChannel channel = newChannel();
+        channel.writeInbound(new FileBatchRequestMessage(PROTOCOL_VERSION_3, SECRET, new byte[][]{first.toBytes(), missing.toBytes(), second.toBytes()}));
+        List<byte[]> frames = readFrames(channel);
+
+        assertEquals(7, frames.size());
+        assertFileHeader(frames.get(0), 5);
+        assertEquals("first", new String(frames.get(1), StandardCharsets.UTF_8));
+        assertEndOfTransmission(frames.get(2));
+        assertError(frames.get(3), "File not found");
+        assertFileHeader(frames.get(4), 6);
+        assertEquals("second", new String(frames.get(5), StandardCharsets.UTF_8));
+        assertEndOfTransmission(frames.get(6));
+        assertTrue(channel.isActive());
+        channel.finishAndReleaseAll();
+        regionSink.release();
+    }
+
+    @Test
+    void fileRegionsAreFramedAndShareOneChannelClosedAfterTransfer() throws IOException {
+        byte[] content = new byte[2 * CHUNK_SIZE + 1000];
+        new Random(42).nextBytes(content);
+        HashKey hash = host("large.bin", content);
+
+        EmbeddedChannel channel = newChannel();
+        channel.writeInbound(new FileRequestMessage(PROTOCOL_VERSION_3, SECRET, hash.toBytes()));
+        List<byte[]> frames = readFrames(channel);
+
+        assertEquals(5, frames.size());
+        assertFileHeader(frames.get(0), content.length);
+        assertEquals(CHUNK_SIZE, frames.get(1).length);
+        assertEquals(CHUNK_SIZE, frames.get(2).length);
+        assertEquals(1000, frames.get(3).length);
+        assertEndOfTransmission(frames.get(4));
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        for (int i = 1; i <= 3; i++) {
+            received.writeBytes(frames.get(i));
+        }
+        assertTrue(Arrays.equals(content, received.toByteArray()));
+
+        // the frames went as file regions, reading from a channel which is closed now that the EOT is written
+        assertEquals(3, regionSink.regions.size());
+        for (FileRegion region : regionSink.regions) {
+            try {
+                region.transferTo(Channels.newChannel(new ByteArrayOutputStream()), 0);
+                assertTrue(false);
+            } catch (ClosedChannelException expected) {
+            }
+        }
+        assertTrue(channel.isActive());
+        channel.finishAndReleaseAll();
+        regionSink.release();
+    }
+
+    private HashKey host(String name, byte[] content) throws IOException {
+        Path file = tempDir.resolve(name);
+        Files.write(file, content);
+        HashKey hash = HashKey.fromHex(CustomFileUtils.getHash(file));
+        paths.put(hash, file);
+        GlobalVariables.hostServer.addPaths(paths);
+        return hash;
+    }
+
+    // The pipeline a v3 connection without TLS and compression ends up with
+    private EmbeddedChannel newChannel() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.attr(NettyServer.PROTOCOL_VERSION).set(PROTOCOL_VERSION_3);
+        channel.attr(NettyServer.COMPRESSION_TYPE).set(COMPRESSION_NONE);
+        regionSink = new RegionSink();
+        channel.pipeline()
+                .addLast("socket", regionSink)
+                .addLast("raw-chunked-write", new ChunkedWriteHandler())
+                .addLast("compression-encoder", new CompressionEncoder(CompressionFactory.getCodec(COMPRESSION_NONE)))
+                .addLast("chunked-write", new ChunkedWriteHandler())
+                .addLast("msg-handler", new ServerMessageHandler());
+        return channel;
+    }
+
+    // Runs the queued writes of the handler and splits everything written into the [length][length][data] frames
+    private static List<byte[]> readFrames(EmbeddedChannel channel) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; i++) {
+            channel.runPendingTasks();
+        }
+
+        ByteBuf buf;
+        while ((buf = channel.readOutbound()) != null) {
+            buf.readBytes(stream, buf.readableBytes());
+            buf.release();
+        }
+
+        ByteBuffer bytes = ByteBuffer.wrap(stream.toByteArray());
+        List<byte[]> frames = new ArrayList<>();
+        while (bytes.hasRemaining()) {
+            int compressedLength = bytes.getInt();
+            assertEquals(compressedLength, bytes.getInt());
+            byte[] frame = new byte[compressedLength];
+            bytes.get(frame);
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    // Stands in for the socket, which consumes a file region as it's written. Keeps a reference to the regions for checking them afterwards
+    private static class RegionSink extends ChannelOutboundHandlerAdapter {
+        private final List<FileRegion> regions = new ArrayList<>();
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (!(msg instanceof FileRegion region)) {
+                ctx.write(msg, promise);
+                return;
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            WritableByteChannel target = Channels.newChannel(bytes);
+            while (region.transferred() < region.count()) {
+                region.transferTo(target, region.transferred());
+            }
+            regions.add(region);
+            ctx.write(Unpooled.wrappedBuffer(bytes.toByteArray()), promise);
+        }
+
+        private void release() {
+            regions.forEach(FileRegion::release);
+        }
+    }
+
+    private static void assertFileHeader(byte[] frame, long size) {
+        ByteBuffer header = ByteBuffer.wrap(frame);
+        assertEquals(PROTOCOL_VERSION_3, header.get());
+        assertEquals(FILE_RESPONSE_TYPE, header.get());
+        assertEquals(size, header.getLong());
+    }
+
+    private static void assertEndOfTransmission(byte[] frame) {
+        assertEquals(2, frame.length);
+        assertEquals(PROTOCOL_VERSION_3, frame[0]);
+        assertEquals(END_OF_TRANSMISSION, frame[1]);
+    }
+
+    private static void assertError(byte[] frame, String message) {
+        ByteBuffer error = ByteBuffer.wrap(frame);
+        assertEquals(PROTOCOL_VERSION_3, error.get());
+        assertEquals(ERROR, error.get());
+        byte[] text = new byte[error.getInt()];
+        error.get(text);
+        assertEquals(message, new String(text, StandardCharsets.UTF_8));
+    }
+}
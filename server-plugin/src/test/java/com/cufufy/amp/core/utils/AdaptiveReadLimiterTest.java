@@ -0,0 +1,90 @@
+package com.cufufy.amp.core.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveReadLimiterTest {
+
+    @Test
+    void limitSettlesWhereMoreReadersStopHelping() throws IOException {
+        AtomicLong clock = new AtomicLong();
+        AdaptiveReadLimiter limiter = new AdaptiveReadLimiter(1, 16, 2, clock::get);
+
+        // a disk which serves 100 MB/s per reader up to 4 readers
+        for (int window = 0; window < 40; window++) {
+            int readers = limiter.getLimit();
+            long bytes = Math.min(readers, 4) * 100_000_000L * AdaptiveReadLimiter.WINDOW_NANOS / 1_000_000_000L;
+            for (int i = 0; i < readers; i++) {
+                limiter.acquire();
+            }
+            for (int i = 0; i < readers; i++) {
+                clock.addAndGet(AdaptiveReadLimiter.WINDOW_NANOS / readers + 1);
+                limiter.release(bytes / readers);
+            }
+
+            if (window >= 3) {
+                assertTrue(limiter.getLimit() >= 3 && limiter.getLimit() <= 5);
+            }
+        }
+        assertEquals(0, limiter.getActive());
+    }
+
+    @Test
+    void readersWaitForTheirTurn() throws Exception {
+        AdaptiveReadLimiter limiter = new AdaptiveReadLimiter(1, 1);
+        limiter.acquire();
+
+        Thread second = new Thread(() -> {
+            try {
+                limiter.acquire();
+                limiter.release(0);
+            } catch (IOException ignored) {
+            }
+        });
+        second.start();
+        for (int i = 0; i < 100 && limiter.getWaiting() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, limiter.getWaiting());
+        assertEquals(1, limiter.getActive());
+
+        limiter.release(0);
+        second.join(5000);
+        assertEquals(0, limiter.getWaiting());
+        assertEquals(0, limiter.getActive());
+    }
+
+    @Test
+    void waitingForkJoinWorkerDoesNotStarveItsPool() throws Exception {
+        AdaptiveReadLimiter limiter = new AdaptiveReadLimiter(1, 1);
+        limiter.acquire();
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            ForkJoinTask<?> reader = pool.submit(() -> {
+                limiter.acquire();
+                limiter.release(0);
+                return null;
+            });
+            for (int i = 0; i < 100 && limiter.getWaiting() == 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, limiter.getWaiting());
+
+            // the only worker waits for the limiter, the pool runs the next task on a compensating one
+            assertEquals(42, (int) pool.submit(() -> 42).get(5, TimeUnit.SECONDS));
+
+            limiter.release(0);
+            reader.get(5, TimeUnit.SECONDS);
+            assertEquals(0, limiter.getActive());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
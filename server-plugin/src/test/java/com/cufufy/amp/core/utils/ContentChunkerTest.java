@@ -0,0 +1,88 @@
+package com.cufufy.amp.core.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ContentChunkerTest {
+    private Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("automodpack-chunker-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (tempDir != null) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        }
+    }
+
+    @Test
+    void chunksCoverTheWholeFile() throws Exception {
+        byte[] data = randomBytes(new Random(42), 5 * 1024 * 1024 + 123);
+        Path file = Files.write(tempDir.resolve("file.jar"), data);
+
+        List<ContentChunker.Chunk> chunks = ContentChunker.chunk(file);
+        long offset = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            ContentChunker.Chunk chunk = chunks.get(i);
+            assertEquals(offset, chunk.offset());
+            assertTrue(chunk.length() <= ContentChunker.MAX_CHUNK);
+            assertTrue(chunk.length() > ContentChunker.MIN_CHUNK || i == chunks.size() - 1);
+
+            byte[] slice = Arrays.copyOfRange(data, (int) chunk.offset(), (int) chunk.offset() + chunk.length());
+            assertEquals(HashKey.fromWire(MessageDigest.getInstance("SHA-1").digest(slice)), chunk.hash());
+            offset += chunk.length();
+        }
+        assertEquals((long) data.length, offset);
+
+        // the hasher cuts the same chunks while memory mapping the file
+        assertEquals(chunks, FileHasher.hash(file, true, false, true).chunks());
+        assertEquals(chunks, ContentChunker.fromFields(ContentChunker.toFields(chunks)));
+    }
+
+    @Test
+    void boundariesResyncAfterAnInsertion() throws IOException {
+        byte[] data = randomBytes(new Random(7), 3 * 1024 * 1024);
+        byte[] changed = new byte[data.length + 100];
+        System.arraycopy(data, 0, changed, 0, 1024 * 1024);
+        System.arraycopy(data, 1024 * 1024, changed, 1024 * 1024 + 100, data.length - 1024 * 1024);
+
+        List<ContentChunker.Chunk> before = ContentChunker.chunk(Files.write(tempDir.resolve("before.jar"), data));
+        List<ContentChunker.Chunk> after = ContentChunker.chunk(Files.write(tempDir.resolve("after.jar"), changed));
+
+        Set<HashKey> known = new HashSet<>();
+        before.forEach(chunk -> known.add(chunk.hash()));
+        long missing = after.stream().filter(chunk -> !known.contains(chunk.hash())).mapToLong(ContentChunker.Chunk::length).sum();
+        // only the chunks around the insertion differ
+        assertTrue(missing <= 2L * ContentChunker.MAX_CHUNK);
+    }
+
+    private static byte[] randomBytes(Random random, int size) {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        return data;
+    }
+}
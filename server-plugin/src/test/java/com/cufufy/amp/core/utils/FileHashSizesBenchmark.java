@@ -0,0 +1,106 @@
+package com.cufufy.amp.core.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Compares SHA-1 of {@link CustomFileUtils#getHash} against the previous 8 KB {@code RandomAccessFile} read
+ * over files from 4 KB to 2 GB, covering the in memory, streamed and memory mapped paths of {@link FileHasher}.
+ * Each size is warmed up first, then measured for at least a second per iteration, JMH style.
+ * <p>
+ * Usage: {@code java -cp <test classpath> com.cufufy.amp.core.utils.FileHashSizesBenchmark [directory] [max size in MB] [iterations]}
+ * <p>
+ * The files are created in the directory (a temporary one by default) and deleted afterwards.
+ * The page cache is warm after the warm up, so the results show the per byte and per call costs, not the disk.
+ */
+public class FileHashSizesBenchmark {
+    private static final long[] SIZES = {
+            4L << 10, 64L << 10, 1L << 20, 4L << 20, 16L << 20, 64L << 20, 256L << 20, 1L << 30, 2L << 30
+    };
+    private static final long MIN_ITERATION_NANOS = 1_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = args.length > 0 ? Path.of(args[0]) : Files.createTempDirectory("automodpack-hash-benchmark");
+        long maxSize = (args.length > 1 ? Long.parseLong(args[1]) : 2048) << 20;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        List<Path> files = new ArrayList<>();
+        try {
+            Random random = new Random(42);
+            for (long size : SIZES) {
+                if (size > maxSize) {
+                    break;
+                }
+                files.add(write(directory.resolve("file-" + size + ".bin"), size, random));
+            }
+
+            System.out.printf("%12s %18s %18s%n", "size", "previous MB/s", "engine MB/s");
+            for (Path file : files) {
+                long size = Files.size(file);
+                measure(file, FileHasherBenchmark::legacySha1); // warm up
+                measure(file, CustomFileUtils::getHash);
+
+                double legacy = 0;
+                double engine = 0;
+                for (int i = 0; i < iterations; i++) {
+                    legacy = Math.max(legacy, measure(file, FileHasherBenchmark::legacySha1));
+                    engine = Math.max(engine, measure(file, CustomFileUtils::getHash));
+                }
+                System.out.printf("%12s %18.1f %18.1f%n", formatSize(size), size * legacy / 1048576.0, size * engine / 1048576.0);
+            }
+        } finally {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            if (args.length == 0) {
+                try (Stream<Path> stream = Files.walk(directory)) {
+                    stream.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                }
+            }
+        }
+    }
+
+    private interface Hash {
+        String hash(Path file) throws Exception;
+    }
+
+    // Hashes the file repeatedly for at least a second, returns the hashes per second
+    private static double measure(Path file, Hash hash) throws Exception {
+        long start = System.nanoTime();
+        long elapsed;
+        int operations = 0;
+        do {
+            if (hash.hash(file) == null) {
+                throw new IllegalStateException("No hash of " + file);
+            }
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MIN_ITERATION_NANOS);
+        return operations / (elapsed / 1_000_000_000.0);
+    }
+
+    private static Path write(Path file, long size, Random random) throws IOException {
+        byte[] block = new byte[1 << 20];
+        random.nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                block[(int) (written >>> 20) % block.length]++; // no two blocks alike
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    private static String formatSize(long size) {
+        if (size >= 1L << 30) return (size >> 30) + " GB";
+        if (size >= 1L << 20) return (size >> 20) + " MB";
+        return (size >> 10) + " KB";
+    }
+}
@@ -0,0 +1,181 @@
+package com.cufufy.amp.core.utils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Compares the fused single read {@link FileHasher} against the previous three read path
+ * (SHA-1 read + two murmur reads) over every file in a directory, e.g. a real mods folder.
+ * <p>
+ * Usage: {@code java -cp <test classpath> com.cufufy.amp.core.utils.FileHasherBenchmark <directory> [iterations]}
+ * <p>
+ * Run it once with a cold page cache (e.g. after {@code echo 3 > /proc/sys/vm/drop_caches}) to see the I/O difference,
+ * subsequent iterations measure the CPU cost.
+ */
+public class FileHasherBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: FileHasherBenchmark <directory> [iterations]");
+            return;
+        }
+
+        Path directory = Path.of(args[0]);
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(directory)) {
+            files = stream.filter(Files::isRegularFile).toList();
+        }
+
+        long totalBytes = 0;
+        for (Path file : files) {
+            totalBytes += Files.size(file);
+        }
+
+        System.out.printf("%d files, %.1f MB%n", files.size(), totalBytes / 1024.0 / 1024.0);
+
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            for (Path file : files) {
+                legacySha1(file);
+                legacyMurmur(file);
+            }
+            long legacy = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (Path file : files) {
+                FileHasher.hash(file, true, true);
+            }
+            long fused = System.nanoTime() - start;
+
+            System.out.printf("iteration %d: three reads %.1f MB/s, fused %.1f MB/s%n", i,
+                    throughput(totalBytes, legacy), throughput(totalBytes, fused));
+        }
+    }
+
+    private static double throughput(long bytes, long nanos) {
+        return bytes / 1024.0 / 1024.0 / (nanos / 1_000_000_000.0);
+    }
+
+    // Previous CustomFileUtils.getHash
+    static String legacySha1(Path file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = raf.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytesRead);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Previous CustomFileUtils.getCurseforgeMurmurHash
+    static String legacyMurmur(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        final int m = 0x5bd1e995;
+        final int r = 24;
+        long k = 0x0L;
+        int seed = 1;
+        int shift = 0x0;
+
+        long length = 0;
+        char b;
+
+        // Read file in 8128-byte chunks
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            byte[] buffer = new byte[8128];
+            int bytesRead;
+
+            while ((bytesRead = raf.read(buffer)) != -1) {
+                for (int i = 0; i < bytesRead; i++) {
+                    b = (char) buffer[i];
+
+                    if (b == 0x9 || b == 0xa || b == 0xd || b == 0x20) {
+                        continue;
+                    }
+
+                    length += 1;
+                }
+            }
+        }
+
+        long h = (seed ^ length);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            byte[] buffer = new byte[8128];
+            int bytesRead;
+
+            while ((bytesRead = raf.read(buffer)) != -1) {
+                for (int i = 0; i < bytesRead; i++) {
+                    b = (char) buffer[i];
+
+                    if (b == 0x9 || b == 0xa || b == 0xd || b == 0x20) {
+                        continue;
+                    }
+
+                    if (b > 255) {
+                        while (b > 255) {
+                            b -= 255;
+                        }
+                    }
+
+                    k = k | ((long) b << shift);
+
+                    shift = shift + 0x8;
+
+                    if (shift == 0x20) {
+                        h = 0x00000000FFFFFFFFL & h;
+
+                        k = k * m;
+                        k = 0x00000000FFFFFFFFL & k;
+
+                        k = k ^ (k >> r);
+                        k = 0x00000000FFFFFFFFL & k;
+
+                        k = k * m;
+                        k = 0x00000000FFFFFFFFL & k;
+
+                        h = h * m;
+                        h = 0x00000000FFFFFFFFL & h;
+
+                        h = h ^ k;
+                        h = 0x00000000FFFFFFFFL & h;
+
+                        k = 0x0;
+                        shift = 0x0;
+                    }
+                }
+            }
+        }
+
+        if (shift > 0) {
+            h = h ^ k;
+            h = 0x00000000FFFFFFFFL & h;
+
+            h = h * m;
+            h = 0x00000000FFFFFFFFL & h;
+        }
+
+        h = h ^ (h >> 13);
+        h = 0x00000000FFFFFFFFL & h;
+
+        h = h * m;
+        h = 0x00000000FFFFFFFFL & h;
+
+        h = h ^ (h >> 15);
+        h = 0x00000000FFFFFFFFL & h;
+
+        return String.valueOf(h);
+    }
+}
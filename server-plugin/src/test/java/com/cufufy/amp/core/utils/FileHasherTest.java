@@ -0,0 +1,127 @@
+package com.cufufy.amp.core.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class FileHasherTest {
+    private Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("automodpack-hasher-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (tempDir != null) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        }
+    }
+
+    @Test
+    void matchesPreviousImplementationForSmallFiles() throws Exception {
+        Random random = new Random(42);
+        for (int size : new int[]{0, 1, 3, 4, 5, 8191, 8192, 100_000}) {
+            assertSameHashes(writeRandomFile(random, size));
+        }
+    }
+
+    @Test
+    void matchesPreviousImplementationForMappedFiles() throws Exception {
+        assertSameHashes(writeRandomFile(new Random(7), 5 * 1024 * 1024 + 3));
+    }
+
+    @Test
+    void matchesPreviousImplementationAcrossReadPaths() throws Exception {
+        Random random = new Random(11);
+        // whole in memory, streamed in two blocks for SHA-1 alone and mapped for murmur, memory mapped
+        for (int size : new int[]{4 * 1024 * 1024, 9 * 1024 * 1024 + 17, 65 * 1024 * 1024 + 5}) {
+            Path file = writeRandomFile(random, size);
+            String sha1 = FileHasherBenchmark.legacySha1(file);
+            String murmur = FileHasherBenchmark.legacyMurmur(file);
+
+            FileHasher.Hashes hashes = FileHasher.hash(file, true, true);
+            assertEquals(sha1, hashes.sha1());
+            assertEquals(murmur, hashes.murmur());
+            assertEquals(sha1, CustomFileUtils.getHash(file));
+
+            // the pooled digest and buffer are reused, a limited read gives the same result
+            FileHasher.Hashes limited = FileHasher.hash(file, true, true, false, new AdaptiveReadLimiter(1, 1));
+            assertEquals(sha1, limited.sha1());
+            assertEquals(murmur, limited.murmur());
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void threadPerTaskHashingSharesPoolSafely() throws Exception {
+        Random random = new Random(5);
+        List<Path> files = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int size : new int[]{10, 70_000, 1024 * 1024, 5 * 1024 * 1024 + 1}) {
+            Path file = writeRandomFile(random, size);
+            files.add(file);
+            expected.add(FileHasherBenchmark.legacySha1(file));
+        }
+
+        // a new thread for every hash, like the virtual thread per task executor of the download client
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            List<Future<String>> hashes = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                Path file = files.get(i % files.size());
+                hashes.add(executor.submit(() -> CustomFileUtils.getHash(file)));
+            }
+            for (int i = 0; i < hashes.size(); i++) {
+                assertEquals(expected.get(i % files.size()), hashes.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void skipsWhitespaceLikePreviousImplementation() throws Exception {
+        Path file = tempDir.resolve("whitespace.txt");
+        Files.writeString(file, "key = value\r\n\tother = 1 \n");
+        assertSameHashes(file);
+    }
+
+    private void assertSameHashes(Path file) throws Exception {
+        FileHasher.Hashes hashes = FileHasher.hash(file, true, true);
+        assertEquals(FileHasherBenchmark.legacySha1(file), hashes.sha1());
+        assertEquals(FileHasherBenchmark.legacyMurmur(file), hashes.murmur());
+    }
+
+    private Path writeRandomFile(Random random, int size) throws IOException {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        // sprinkle whitespace bytes which murmur ignores
+        for (int i = 0; i < size; i += 7) {
+            data[i] = (byte) (i % 2 == 0 ? ' ' : '\n');
+        }
+        Path file = tempDir.resolve("random-" + size + ".bin");
+        Files.write(file, data);
+        return file;
+    }
+}
@@ -0,0 +1,39 @@
+package com.cufufy.amp.core.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class HashKeyTest {
+    private static final String SHA1 = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
+
+    @Test
+    void hexAndBinaryHashesAreTheSameKey() {
+        HashKey fromHex = HashKey.fromHex(SHA1);
+        HashKey fromHexBytes = HashKey.fromWire(SHA1.getBytes(StandardCharsets.UTF_8));
+        HashKey fromBinary = HashKey.fromWire(fromHex.toBytes());
+
+        assertEquals(fromHex, fromHexBytes);
+        assertEquals(fromHex, fromBinary);
+        assertEquals(fromHex.hashCode(), fromBinary.hashCode());
+        assertEquals(HashKey.LENGTH, fromBinary.toBytes().length);
+        assertEquals(SHA1, fromBinary.toHex());
+    }
+
+    @Test
+    void invalidHashesAreRejected() {
+        assertEquals(null, HashKey.fromWire(new byte[0]));
+        assertEquals(null, HashKey.fromWire("not a sha1".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(null, HashKey.fromWire(SHA1.replace('d', 'x').getBytes(StandardCharsets.UTF_8)));
+
+        boolean thrown = false;
+        try {
+            HashKey.fromHex("da39");
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue(thrown);
+    }
+}
@@ -52,6 +52,8 @@ class SettingsLoaderTest {
                 modpack-name: "ExamplePack"
                 automodpack-version: "4.0.0"
                 minecraft-version: "1.20.4"
+                watcher-quiet-period-ms: 500
+                hard-link-mods: true
                 server-host:
                   bind-address: "0.0.0.0"
                   bind-port: 25565
@@ -72,6 +74,8 @@ class SettingsLoaderTest {
         assertEquals("ExamplePack", settings.modpackName());
         assertEquals("4.0.0", settings.automodpackVersion());
         assertEquals("1.20.4", settings.minecraftVersion());
+        assertEquals(500L, settings.watcherQuietPeriodMs());
+        assertTrue(settings.hardLinkMods());
 
         PluginSettings.HostSettings host = settings.host();
         assertEquals("0.0.0.0", host.bindAddress());
@@ -98,5 +102,6 @@ class SettingsLoaderTest {
         assertTrue(Files.exists(configFile));
         assertEquals("ExamplePack", settings.modpackName());
         assertEquals(List.of("fabric"), settings.acceptedLoaders());
+        assertFalse(settings.hardLinkMods());
     }
 }
@@ -18,6 +18,8 @@ class GlobalPathBootstrapTest {
     private Path originalHostModpackDir;
     private Path originalHostContentDir;
     private Path originalHostContentFile;
+    private Path originalHostHashIndexFile;
+    private Path originalHostChunkCacheDir;
     private Path originalServerConfig;
     private Path originalServerCoreConfig;
     private Path originalPrivateDir;
@@ -39,6 +41,8 @@ class GlobalPathBootstrapTest {
         originalHostModpackDir = GlobalVariables.hostModpackDir;
         originalHostContentDir = GlobalVariables.hostContentModpackDir;
         originalHostContentFile = GlobalVariables.hostModpackContentFile;
+        originalHostHashIndexFile = GlobalVariables.hostModpackHashIndexFile;
+        originalHostChunkCacheDir = GlobalVariables.hostChunkCacheDir;
         originalServerConfig = GlobalVariables.serverConfigFile;
         originalServerCoreConfig = GlobalVariables.serverCoreConfigFile;
         originalPrivateDir = GlobalVariables.privateDir;
@@ -59,6 +63,8 @@ class GlobalPathBootstrapTest {
         GlobalVariables.hostModpackDir = originalHostModpackDir;
         GlobalVariables.hostContentModpackDir = originalHostContentDir;
         GlobalVariables.hostModpackContentFile = originalHostContentFile;
+        GlobalVariables.hostModpackHashIndexFile = originalHostHashIndexFile;
+        GlobalVariables.hostChunkCacheDir = originalHostChunkCacheDir;
         GlobalVariables.serverConfigFile = originalServerConfig;
         GlobalVariables.serverCoreConfigFile = originalServerCoreConfig;
         GlobalVariables.privateDir = originalPrivateDir;
@@ -95,6 +101,8 @@ class GlobalPathBootstrapTest {
         assertEquals(expectedHostDir, GlobalVariables.hostModpackDir);
         assertEquals(expectedHostDir.resolve("main"), GlobalVariables.hostContentModpackDir);
         assertEquals(expectedHostDir.resolve("automodpack-content.json"), GlobalVariables.hostModpackContentFile);
+        assertEquals(expectedHostDir.resolve("automodpack-hash-index.json"), GlobalVariables.hostModpackHashIndexFile);
+        assertEquals(expectedHostDir.resolve("chunk-cache"), GlobalVariables.hostChunkCacheDir);
 
         assertEquals(tempDir.toAbsolutePath().resolve("automodpack-server.json"), GlobalVariables.serverConfigFile);
         assertEquals(tempDir.toAbsolutePath().resolve("automodpack-core.json"), GlobalVariables.serverCoreConfigFile);
@@ -0,0 +1,125 @@
+package com.cufufy.amp.plugin.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DirectorySyncTest {
+    private Path tempDir;
+    private Path source;
+    private Path target;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("automodpack-sync-test");
+        source = Files.createDirectories(tempDir.resolve("source"));
+        target = tempDir.resolve("target");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (tempDir != null) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException ignored) {
+                        }
+                    });
+        }
+    }
+
+    @Test
+    void mirrorsTreeAndReportsOnlyDifferences() throws IOException {
+        Files.writeString(source.resolve("a.jar"), "a");
+        Files.createDirectories(source.resolve("nested"));
+        Files.writeString(source.resolve("nested").resolve("b.jar"), "b");
+
+        DirectorySync.Result first = DirectorySync.syncTree(source, target);
+        assertEquals(Set.of(target.resolve("a.jar"), target.resolve("nested").resolve("b.jar")), first.changed());
+        assertEquals("b", Files.readString(target.resolve("nested").resolve("b.jar")));
+
+        assertTrue(DirectorySync.syncTree(source, target).isEmpty());
+
+        Files.delete(source.resolve("a.jar"));
+        Files.writeString(source.resolve("c.jar"), "c");
+        DirectorySync.Result second = DirectorySync.syncTree(source, target);
+        assertEquals(Set.of(target.resolve("c.jar")), second.changed());
+        assertEquals(Set.of(target.resolve("a.jar")), second.removed());
+        assertFalse(Files.exists(target.resolve("a.jar")));
+    }
+
+    @Test
+    void replacesChangedFileAndKeepsTouchedOne() throws IOException {
+        Path sourceFile = source.resolve("mod.jar");
+        Path targetFile = Files.createDirectories(target).resolve("mod.jar");
+        Files.writeString(sourceFile, "same");
+        Files.writeString(targetFile, "same");
+        Files.setLastModifiedTime(targetFile, FileTime.fromMillis(1000));
+
+        assertFalse(DirectorySync.syncFile(sourceFile, targetFile));
+        assertEquals(Files.getLastModifiedTime(sourceFile), Files.getLastModifiedTime(targetFile));
+
+        Files.writeString(sourceFile, "diff");
+        Files.setLastModifiedTime(sourceFile, FileTime.fromMillis(5000));
+        assertTrue(DirectorySync.syncFile(sourceFile, targetFile));
+        assertEquals("diff", Files.readString(targetFile));
+        assertEquals(1L, Files.list(target).count());
+    }
+
+    @Test
+    void copiesUnlessLinksAreAsked() throws IOException {
+        Path sourceFile = source.resolve("mod.jar");
+        Files.writeString(sourceFile, "one");
+        DirectorySync.syncTree(source, target);
+        Path targetFile = target.resolve("mod.jar");
+        assertFalse(Files.isSameFile(sourceFile, targetFile));
+
+        // an in place edit of the source doesn't reach the copy until the next sync
+        Files.writeString(sourceFile, "two");
+        Files.setLastModifiedTime(sourceFile, FileTime.fromMillis(5000));
+        assertEquals("one", Files.readString(targetFile));
+        assertEquals(Set.of(targetFile), DirectorySync.syncTree(source, target).changed());
+        assertEquals("two", Files.readString(targetFile));
+    }
+
+    @Test
+    void reportsInPlaceEditsOfLinkedFiles() throws IOException {
+        Path sourceFile = source.resolve("mod.jar");
+        Files.writeString(sourceFile, "one");
+        DirectorySync.Links links = new DirectorySync.Links();
+        Path targetFile = target.resolve("mod.jar");
+        assertEquals(Set.of(targetFile), DirectorySync.syncTree(source, target, links).changed());
+        assertTrue(DirectorySync.syncTree(source, target, links).isEmpty());
+
+        Files.writeString(sourceFile, "two, longer");
+        Files.setLastModifiedTime(sourceFile, FileTime.fromMillis(5000));
+        assertEquals(Set.of(targetFile), DirectorySync.syncTree(source, target, links).changed());
+        assertTrue(DirectorySync.syncTree(source, target, links).isEmpty());
+        assertEquals("two, longer", Files.readString(targetFile));
+    }
+
+    @Test
+    void replacesFormerLinkWithCopy() throws IOException {
+        Path sourceFile = source.resolve("mod.jar");
+        Path targetFile = Files.createDirectories(target).resolve("mod.jar");
+        Files.writeString(sourceFile, "same");
+        Files.createLink(targetFile, sourceFile);
+
+        assertTrue(DirectorySync.syncFile(sourceFile, targetFile));
+        assertFalse(Files.isSameFile(sourceFile, targetFile));
+        assertEquals("same", Files.readString(targetFile));
+        assertFalse(DirectorySync.syncFile(sourceFile, targetFile));
+    }
+}